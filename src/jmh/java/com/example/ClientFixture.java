@@ -0,0 +1,88 @@
+package com.example;
+
+import io.getunleash.DefaultUnleash;
+import io.getunleash.Unleash;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One SDK client configured exactly like {@link UnleashComparisonApp#clientConfig}, served by an
+ * in-process {@link LocalUnleashServer} seeded with a fixed toggle set. With a non-zero churn rate
+ * the server keeps publishing changes, so streaming clients apply SSE updates (and polling
+ * clients apply fetched payloads) while the benchmark evaluates.
+ */
+@State(Scope.Benchmark)
+public class ClientFixture {
+    private static final long SEED = 42;
+
+    @Param({"streaming", "polling"})
+    public String mode;
+
+    @Param({"200", "2000"})
+    public int toggleCount;
+
+    @Param({"0", "20"})
+    public int churnPerSecond;
+
+    Unleash client;
+    String[] toggles;
+
+    private LocalUnleashServer server;
+    private ToggleChurnGenerator churn;
+    private Path backupFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        ClientMode clientMode = ClientMode.valueOf(mode.toUpperCase());
+        server = new LocalUnleashServer(0);
+        server.seed(toggleCount, new Random(SEED));
+        server.start();
+        toggles = server.featureNames().toArray(new String[0]);
+
+        // A fresh backup file per trial keeps earlier runs from seeding the repository
+        backupFile = Files.createTempFile("unleash-bench-" + mode, ".json");
+        Files.delete(backupFile);
+        client = new DefaultUnleash(UnleashComparisonApp
+            .clientConfig(clientMode, server.url(), "*:development.benchmark")
+            .appName("comparison-bench-" + mode)
+            .backupFile(backupFile.toString())
+            .build());
+
+        if (clientMode == ClientMode.STREAMING) {
+            awaitStreamingConnection();
+        }
+        if (churnPerSecond > 0) {
+            churn = new ToggleChurnGenerator(server, churnPerSecond, SEED);
+            churn.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (churn != null) {
+            churn.stop();
+        }
+        client.shutdown();
+        server.stop();
+        Files.deleteIfExists(backupFile);
+    }
+
+    String toggle(int index) {
+        return toggles[index % toggles.length];
+    }
+
+    private void awaitStreamingConnection() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (server.streamingConnections() == 0) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Streaming client did not connect to " + server.url());
+            }
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/** The {@link EvaluationBenchmark} calls from four threads sharing one client. */
+@Threads(4)
+public class ContendedEvaluationBenchmark extends EvaluationBenchmark {
+}
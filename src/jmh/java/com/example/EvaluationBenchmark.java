@@ -0,0 +1,74 @@
+package com.example;
+
+import io.getunleash.UnleashContext;
+import io.getunleash.variant.Variant;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot-path cost of the SDK calls the comparison app makes, on a single thread. Throughput gives
+ * the steady-state rate; sample time shows the tail, which is where evaluation stalls behind a
+ * repository update show up (compare {@code churnPerSecond=0} with {@code 20}).
+ *
+ * <p>Run with {@code -prof gc} for the allocation rate per operation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@Threads(1)
+public class EvaluationBenchmark {
+    private static final int POPULATION = 1024;
+
+    /** Per-thread cursor over toggles and a fixed set of user contexts. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        final UnleashContext[] contexts = new UnleashContext[POPULATION];
+        final String[] userIds = new String[POPULATION];
+        int index;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            SyntheticPopulation population = new SyntheticPopulation(POPULATION, 7);
+            for (int i = 0; i < POPULATION; i++) {
+                contexts[i] = population.context(i);
+                userIds[i] = SyntheticPopulation.userId(i);
+            }
+        }
+
+        int next() {
+            return index++ & Integer.MAX_VALUE;
+        }
+    }
+
+    @Benchmark
+    public boolean isEnabled(ClientFixture fixture, Cursor cursor) {
+        int i = cursor.next();
+        return fixture.client.isEnabled(fixture.toggle(i), cursor.contexts[i % POPULATION]);
+    }
+
+    @Benchmark
+    public Variant getVariant(ClientFixture fixture, Cursor cursor) {
+        int i = cursor.next();
+        return fixture.client.getVariant(fixture.toggle(i), cursor.contexts[i % POPULATION]);
+    }
+
+    @Benchmark
+    public List<String> featureToggleNames(ClientFixture fixture) {
+        return fixture.client.more().getFeatureToggleNames();
+    }
+
+    @Benchmark
+    public UnleashContext contextConstruction(Cursor cursor) {
+        int i = cursor.next() % POPULATION;
+        return UnleashContext.builder()
+            .userId(cursor.userIds[i])
+            .sessionId("comparison-session-456")
+            .addProperty("country", "NO")
+            .addProperty("plan", "pro")
+            .build();
+    }
+}
@@ -0,0 +1,77 @@
+package com.example;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import io.getunleash.repository.ToggleBootstrapProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+/**
+ * The last full {@code /client/features} payload of one target, kept on disk so that a restart
+ * can bootstrap both clients from it instead of blocking on their first fetch. The file is read
+ * once at startup and replaced after every changed poll; each write goes to a temporary file that
+ * is then moved over the old one, so a crash mid-write leaves the previous payload intact.
+ */
+final class BootstrapSnapshot implements ToggleBootstrapProvider {
+    private final File file;
+    private final String payload; // as read at startup, null when there was no usable file
+    private final long savedAtMillis;
+
+    /** Reads {@code file} if it holds a feature payload; anything else is ignored with a warning. */
+    BootstrapSnapshot(File file) {
+        this.file = file;
+        String content = null;
+        if (file.isFile()) {
+            try {
+                content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                JsonElement root = JsonParser.parseString(content);
+                if (!root.isJsonObject() || !root.getAsJsonObject().has("features")) {
+                    System.err.println("Ignoring bootstrap snapshot without features: " + file);
+                    content = null;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Ignoring unreadable bootstrap snapshot " + file + ": " + e.getMessage());
+                content = null;
+            }
+        }
+        this.payload = content;
+        this.savedAtMillis = content == null ? 0 : file.lastModified();
+    }
+
+    /** The payload read at startup; the SDK applies it before the client's first fetch. */
+    @Override
+    public Optional<String> read() {
+        return Optional.ofNullable(payload);
+    }
+
+    boolean present() {
+        return payload != null;
+    }
+
+    /** How old the payload read at startup was, in milliseconds. */
+    long ageMillis() {
+        return System.currentTimeMillis() - savedAtMillis;
+    }
+
+    File file() {
+        return file;
+    }
+
+    /** Replaces the file with {@code body}; lane only. */
+    void save(String body) throws IOException {
+        Path target = file.toPath();
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create bootstrap directory " + parent);
+        }
+        Path temporary = target.resolveSibling(file.getName() + ".tmp");
+        Files.write(temporary, body.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,272 @@
+package com.example;
+
+import com.google.gson.JsonObject;
+import io.getunleash.DefaultUnleash;
+import io.getunleash.Unleash;
+import io.getunleash.UnleashException;
+import io.getunleash.event.ClientFeaturesResponse;
+import io.getunleash.event.UnleashSubscriber;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fleet mode: runs N streaming and M polling clients in one JVM against the local stand-in server
+ * and reports what they cost together - connections, threads, heap per client, how fast one
+ * change fans out across the fleet, and how the fleet reconnects after a backend restart.
+ *
+ * <p>Run with {@code mvn exec:java -Dexec.mainClass=com.example.ClientFleet}.
+ */
+public class ClientFleet {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    private static final String PROBE_TOGGLE = "fleet-probe";
+    private static final long CONNECT_TIMEOUT_MS = 120_000;
+
+    private final LocalUnleashServer server;
+    private final FleetScheduler scheduler;
+    private final int streamingCount;
+    private final int pollingCount;
+    private final Path backupDir;
+    private final List<Unleash> clients = new ArrayList<>();
+
+    // State of the probe currently fanning out; observedAt is indexed by client
+    private final AtomicLongArray observedAt;
+    private volatile String probeMarker;
+    private volatile long probePublishedNanos;
+    private volatile CountDownLatch probePending = new CountDownLatch(0);
+    private final AtomicLong clientErrors = new AtomicLong();
+    private int probeSequence = 0;
+
+    final LatencyHistogram startup = new LatencyHistogram();
+    final LatencyHistogram streamingFanOut = new LatencyHistogram();
+    final LatencyHistogram pollingFanOut = new LatencyHistogram();
+    final LatencyHistogram fullFanOut = new LatencyHistogram();
+
+    /** Records when its client first saw the current probe. */
+    private final class FleetMember implements UnleashSubscriber {
+        private final int index;
+        private final ClientMode mode;
+
+        FleetMember(int index, ClientMode mode) {
+            this.index = index;
+            this.mode = mode;
+        }
+
+        @Override
+        public void togglesFetched(ClientFeaturesResponse response) {
+            String marker = probeMarker;
+            if (marker == null || response.getStatus() != ClientFeaturesResponse.Status.CHANGED) {
+                return;
+            }
+            long now = System.nanoTime();
+            Optional<String> body = response.getClientFeatures();
+            if (body.isPresent() && body.get().contains(marker) && observedAt.compareAndSet(index, 0, now)) {
+                (mode == ClientMode.STREAMING ? streamingFanOut : pollingFanOut).recordNanos(now - probePublishedNanos);
+                probePending.countDown();
+            }
+        }
+
+        @Override
+        public void onError(UnleashException unleashException) {
+            // Expected in bulk during a restart; counted rather than printed per client
+            clientErrors.incrementAndGet();
+        }
+    }
+
+    ClientFleet(LocalUnleashServer server, FleetScheduler scheduler, int streamingCount, int pollingCount)
+            throws IOException {
+        this.server = server;
+        this.scheduler = scheduler;
+        this.streamingCount = streamingCount;
+        this.pollingCount = pollingCount;
+        this.observedAt = new AtomicLongArray(streamingCount + pollingCount);
+        this.backupDir = Files.createTempDirectory("unleash-fleet");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int streamingCount = Integer.parseInt(UnleashComparisonApp.getOrElse("FLEET_STREAMING_CLIENTS", "100"));
+        int pollingCount = Integer.parseInt(UnleashComparisonApp.getOrElse("FLEET_POLLING_CLIENTS", "10"));
+        int toggleCount = Integer.parseInt(UnleashComparisonApp.getOrElse("FLEET_TOGGLE_COUNT", "200"));
+        int probes = Integer.parseInt(UnleashComparisonApp.getOrElse("FLEET_PROBES", "5"));
+        boolean virtualThreads = Boolean.parseBoolean(UnleashComparisonApp.getOrElse("FLEET_VIRTUAL_THREADS", "true"));
+        int platformThreads = Integer.parseInt(UnleashComparisonApp.getOrElse("FLEET_PLATFORM_THREADS", "16"));
+        long downtimeMs = Long.parseLong(UnleashComparisonApp.getOrElse("FLEET_RESTART_DOWNTIME_MS", "5000"));
+        int port = Integer.parseInt(UnleashComparisonApp.getOrElse("LOCAL_SERVER_PORT", "0"));
+
+        LocalUnleashServer server = new LocalUnleashServer(port);
+        server.seed(toggleCount, new Random(42));
+        server.start();
+        FleetScheduler scheduler = new FleetScheduler(virtualThreads, platformThreads);
+        log("Fleet: " + streamingCount + " streaming + " + pollingCount + " polling clients, "
+            + toggleCount + " toggles, server " + server.url() + ", SDK tasks on "
+            + (scheduler.usesVirtualThreads() ? "virtual threads" : platformThreads + " platform threads"));
+
+        ClientFleet fleet = new ClientFleet(server, scheduler, streamingCount, pollingCount);
+        try {
+            fleet.run(probes, downtimeMs);
+        } finally {
+            fleet.shutdown();
+            scheduler.close();
+            server.stop();
+        }
+    }
+
+    void run(int probes, long downtimeMs) throws InterruptedException {
+        long heapBefore = settledHeapUsed();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        startClients();
+        boolean connected = awaitConnections(CONNECT_TIMEOUT_MS);
+        log("Started " + clients.size() + " clients, " + server.streamingConnections() + "/" + streamingCount
+            + " streams connected" + (connected ? "" : " (timed out)"));
+        log("  client startup: " + startup.summary());
+
+        long heapAfter = settledHeapUsed();
+        int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+        int total = Math.max(1, clients.size());
+        log(String.format("Footprint: heap +%.1f MB (%.1f KB/client), threads +%d (%.1f/client), SSE connections %d",
+            (heapAfter - heapBefore) / 1048576.0, (heapAfter - heapBefore) / 1024.0 / total,
+            threadsAfter - threadsBefore, (threadsAfter - threadsBefore) / (double) total, server.streamingConnections()));
+        log("  threads by name: " + threadGroups());
+
+        long fanOutTimeoutMs = UnleashComparisonApp.POLLING_INTERVAL_MS * 2 + 5_000;
+        for (int i = 0; i < probes; i++) {
+            probe(fanOutTimeoutMs);
+        }
+        log("Fan-out over " + probes + " probes");
+        log("  publish -> streaming client: " + streamingFanOut.summary());
+        log("  publish -> polling client:   " + pollingFanOut.summary());
+        log("  publish -> whole fleet:      " + fullFanOut.summary());
+        log("  streams dropped for falling behind: " + server.droppedStreams());
+
+        restart(downtimeMs);
+        probe(fanOutTimeoutMs);
+        log("Client errors reported: " + clientErrors.get());
+    }
+
+    private void startClients() {
+        for (int i = 0; i < streamingCount + pollingCount; i++) {
+            ClientMode mode = i < streamingCount ? ClientMode.STREAMING : ClientMode.POLLING;
+            long start = System.nanoTime();
+            clients.add(new DefaultUnleash(UnleashComparisonApp
+                .clientConfig(mode, server.url(), "*:development.fleet")
+                .appName("comparison-fleet-" + mode.label)
+                .backupFile(new File(backupDir.toFile(), "client-" + i + ".json").getPath())
+                .scheduledExecutor(scheduler)
+                .subscriber(new FleetMember(i, mode))
+                .build()));
+            startup.recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    /** Publishes one change and waits until every client has seen it. */
+    private void probe(long timeoutMs) throws InterruptedException {
+        int seq = ++probeSequence;
+        for (int i = 0; i < observedAt.length(); i++) {
+            observedAt.set(i, 0);
+        }
+        JsonObject feature = SyntheticFeatures.feature(PROBE_TOGGLE, new Random(seq));
+        feature.addProperty("description", "probe-" + seq);
+        CountDownLatch pending = new CountDownLatch(observedAt.length());
+        probePending = pending;
+        probeMarker = "\"description\":\"probe-" + seq + "\"";
+        probePublishedNanos = System.nanoTime();
+        server.upsert(Collections.singletonList(feature));
+
+        boolean complete = pending.await(timeoutMs, TimeUnit.MILLISECONDS);
+        long last = 0;
+        for (int i = 0; i < observedAt.length(); i++) {
+            last = Math.max(last, observedAt.get(i));
+        }
+        probeMarker = null;
+        if (complete) {
+            fullFanOut.recordNanos(last - probePublishedNanos);
+            log(String.format("Probe %d reached all %d clients in %.1fms", seq, observedAt.length(),
+                (last - probePublishedNanos) / 1e6));
+        } else {
+            log("Probe " + seq + " reached " + (observedAt.length() - pending.getCount()) + "/"
+                + observedAt.length() + " clients within " + timeoutMs + "ms");
+        }
+    }
+
+    /** Stops the server for {@code downtimeMs} and measures how the fleet comes back. */
+    private void restart(long downtimeMs) throws InterruptedException {
+        log("Restarting server (down for " + downtimeMs + "ms)");
+        server.stop();
+        Thread.sleep(downtimeMs);
+        long streamingBefore = server.streamingRequests();
+        long featuresBefore = server.featureRequests();
+        long start = System.nanoTime();
+        try {
+            server.start();
+        } catch (IOException e) {
+            log("Server failed to restart: " + e.getMessage());
+            return;
+        }
+        boolean connected = awaitConnections(CONNECT_TIMEOUT_MS);
+        double elapsedMs = (System.nanoTime() - start) / 1e6;
+        log(String.format("Reconnect: %d/%d streams in %.1fms%s, %d streaming and %d feature requests",
+            server.streamingConnections(), streamingCount, elapsedMs, connected ? "" : " (timed out)",
+            server.streamingRequests() - streamingBefore, server.featureRequests() - featuresBefore));
+    }
+
+    private boolean awaitConnections(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (server.streamingConnections() < streamingCount) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    void shutdown() {
+        for (Unleash client : clients) {
+            client.shutdown();
+        }
+        File[] backups = backupDir.toFile().listFiles();
+        if (backups != null) {
+            for (File backup : backups) {
+                backup.delete();
+            }
+        }
+        backupDir.toFile().delete();
+    }
+
+    static long settledHeapUsed() throws InterruptedException {
+        // Only for the footprint numbers; two passes let finalizable SDK objects go as well
+        System.gc();
+        Thread.sleep(200);
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static String threadGroups() {
+        Map<String, Integer> groups = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            groups.merge(thread.getName().replaceAll("\\d+", "N"), 1, Integer::sum);
+        }
+        List<Map.Entry<String, Integer>> sorted = new ArrayList<>(groups.entrySet());
+        sorted.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        StringJoiner joiner = new StringJoiner(", ");
+        for (int i = 0; i < sorted.size() && i < 8; i++) {
+            joiner.add(sorted.get(i).getKey() + "=" + sorted.get(i).getValue());
+        }
+        return joiner.toString();
+    }
+
+    private static void log(String message) {
+        System.out.println("[" + LocalDateTime.now().format(TIME_FORMAT) + "] " + message);
+    }
+}
@@ -0,0 +1,17 @@
+package com.example;
+
+/** The two SDK configurations under comparison. */
+enum ClientMode {
+    STREAMING("streaming"),
+    POLLING("polling");
+
+    final String label;
+
+    ClientMode(String label) {
+        this.label = label;
+    }
+
+    ClientMode other() {
+        return this == STREAMING ? POLLING : STREAMING;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example;
+
+import jdk.jfr.EventSettings;
+import jdk.jfr.consumer.RecordedEvent;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Streams the {@link ComparisonEvents} back into the app while it runs, so their durations show
+ * up in the metrics, the dashboard and the soak report without a recording file, next to the GC
+ * pauses from the same stream. Events arrive about once a second, when the recorder flushes.
+ *
+ * <p>The app targets Java 11, but event streaming needs Java 14+, so the stream is looked up
+ * reflectively; on an older runtime {@link #start()} warns and returns null.
+ */
+final class ComparisonEventStream {
+    private static final String PREFIX = "unleash.comparison.";
+    private static final String[] EVENTS = {
+        "ComparisonCycle", "TogglesFetched", "ClientError", "EvaluationBatch", "PendingComparison", "DashboardRender"
+    };
+    private static final String GARBAGE_COLLECTION = "jdk.GarbageCollection";
+    // Bounds the stream's on-disk repository on long runs; events are consumed within seconds
+    private static final Duration MAX_AGE = Duration.ofMinutes(5);
+
+    /** Durations of one event type, per mode for the events that have one. */
+    static final class Series {
+        final String event;
+        final String mode; // null for events without a mode
+        final LatencyHistogram durations = new LatencyHistogram();
+
+        Series(String event, String mode) {
+            this.event = event;
+            this.mode = mode;
+        }
+    }
+
+    private final Map<String, Series> series = new ConcurrentSkipListMap<>();
+    // Indexed by ClientMode.ordinal()
+    final LatencyHistogram[] queueTime = {new LatencyHistogram(), new LatencyHistogram()};
+    final LatencyHistogram gcPauses = new LatencyHistogram();
+    final AtomicLong cancelledComparisons = new AtomicLong();
+    final AtomicLong droppedRenders = new AtomicLong();
+
+    private AutoCloseable stream;
+
+    private ComparisonEventStream() {
+    }
+
+    /** Starts streaming, or returns null with a warning where the runtime can't. */
+    static ComparisonEventStream start() {
+        ComparisonEventStream events = new ComparisonEventStream();
+        try {
+            Class<?> type = Class.forName("jdk.jfr.consumer.RecordingStream");
+            Object stream = type.getConstructor().newInstance();
+            Method enable = type.getMethod("enable", String.class);
+            Method onEvent = type.getMethod("onEvent", String.class, Consumer.class);
+            Consumer<RecordedEvent> handler = events::accept;
+            for (String event : EVENTS) {
+                ((EventSettings) enable.invoke(stream, PREFIX + event)).withoutThreshold();
+                onEvent.invoke(stream, PREFIX + event, handler);
+            }
+            enable.invoke(stream, GARBAGE_COLLECTION);
+            onEvent.invoke(stream, GARBAGE_COLLECTION, handler);
+            type.getMethod("setMaxAge", Duration.class).invoke(stream, MAX_AGE);
+            type.getMethod("startAsync").invoke(stream);
+            events.stream = (AutoCloseable) stream;
+        } catch (ClassNotFoundException e) {
+            System.err.println("JFR event streaming needs Java 14 or later, running on " + System.getProperty("java.version"));
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("JFR event streaming disabled: " + e);
+            return null;
+        }
+        System.out.println("Streaming JFR events into the statistics");
+        return events;
+    }
+
+    private void accept(RecordedEvent event) {
+        String name = event.getEventType().getName();
+        if (GARBAGE_COLLECTION.equals(name)) {
+            gcPauses.recordNanos(event.getDuration("sumOfPauses").toNanos());
+            return;
+        }
+        String shortName = name.substring(PREFIX.length());
+        String mode = event.hasField("mode") ? event.getString("mode") : null;
+        String key = mode == null ? shortName : shortName + "/" + mode;
+        series.computeIfAbsent(key, k -> new Series(shortName, mode)).durations.recordNanos(event.getDuration().toNanos());
+        switch (shortName) {
+            case "TogglesFetched":
+                ClientMode fetched = ClientMode.STREAMING.label.equals(mode) ? ClientMode.STREAMING : ClientMode.POLLING;
+                queueTime[fetched.ordinal()].recordNanos(event.getDuration("queueTime").toNanos());
+                break;
+            case "PendingComparison":
+                if (event.getBoolean("cancelled")) {
+                    cancelledComparisons.incrementAndGet();
+                }
+                break;
+            case "DashboardRender":
+                if (!event.getBoolean("changed")) {
+                    droppedRenders.incrementAndGet();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Every event type and mode seen so far, ordered by name. */
+    List<Series> series() {
+        return new ArrayList<>(series.values());
+    }
+
+    void close() {
+        try {
+            stream.close();
+        } catch (Exception e) {
+            System.err.println("Failed to close JFR event stream: " + e.getMessage());
+        }
+    }
+}
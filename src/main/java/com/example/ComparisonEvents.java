@@ -0,0 +1,130 @@
+package com.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events for the app's own activity, so a recording shows comparison
+ * cycles, SDK callbacks, evaluation batches and dashboard renders on the same timeline as GC,
+ * safepoints and socket I/O. They cost a flag check while no recording is running. Stack traces
+ * are off; the thread and the target name say where an event came from.
+ *
+ * <p>Record with e.g. {@code java -XX:StartFlightRecording=filename=comparison.jfr ...} or
+ * {@code jcmd <pid> JFR.start}, or stream them in-process through {@link ComparisonEventStream}.
+ */
+final class ComparisonEvents {
+    static final String CATEGORY = "Unleash Comparison";
+
+    private ComparisonEvents() {
+    }
+
+    @Name("unleash.comparison.ComparisonCycle")
+    @Label("Comparison Cycle")
+    @Description("One check of a target for persistent discrepancies")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ComparisonCycle extends Event {
+        @Label("Target")
+        String target;
+        @Label("Toggles")
+        int toggles;
+        @Label("Re-evaluated Toggles")
+        int reevaluated;
+        @Label("Mismatched Toggles")
+        int mismatched;
+        @Label("Persistent Discrepancies")
+        int discrepancies;
+        @Label("Fingerprints Matched")
+        boolean identical;
+    }
+
+    @Name("unleash.comparison.TogglesFetched")
+    @Label("Toggles Fetched")
+    @Description("Processing of one togglesFetched callback on the target's lane")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class TogglesFetched extends Event {
+        @Label("Target")
+        String target;
+        @Label("Mode")
+        String mode;
+        @Label("Status")
+        String status;
+        @Label("Payload Length")
+        @Description("Characters of the payload body, 0 when there was none")
+        int payloadLength;
+        @Label("Changed Toggles")
+        int changes;
+        @Label("Queue Time")
+        @Description("From the SDK callback until the lane started processing it")
+        @Timespan
+        long queueTime;
+    }
+
+    @Name("unleash.comparison.ClientError")
+    @Label("Client Error")
+    @Description("An onError callback of an SDK client")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ClientError extends Event {
+        @Label("Target")
+        String target;
+        @Label("Mode")
+        String mode;
+        @Label("Message")
+        String message;
+    }
+
+    @Name("unleash.comparison.EvaluationBatch")
+    @Label("Evaluation Batch")
+    @Description("Re-evaluation of the toggles one mode changed, plus publishing the snapshot")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class EvaluationBatch extends Event {
+        @Label("Target")
+        String target;
+        @Label("Mode")
+        String mode;
+        @Label("Evaluated Toggles")
+        int evaluated;
+    }
+
+    @Name("unleash.comparison.PendingComparison")
+    @Label("Pending Comparison")
+    @Description("A comparison scheduled once the modes converged; replaces one still pending")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class PendingComparison extends Event {
+        @Label("Target")
+        String target;
+        @Label("Cancelled Pending")
+        @Description("An earlier pending comparison was cancelled for this one")
+        boolean cancelled;
+        @Label("Delay")
+        @Timespan(Timespan.MILLISECONDS)
+        long delay;
+    }
+
+    @Name("unleash.comparison.DashboardRender")
+    @Label("Dashboard Render")
+    @Description("One render of the dashboard for every open tab")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class DashboardRender extends Event {
+        @Label("Targets")
+        int targets;
+        @Label("Page Size")
+        @Description("Bytes of the rendered page, 0 when the render was dropped")
+        @DataAmount
+        int pageBytes;
+        @Label("Changed")
+        @Description("False when the render matched the previous one and was dropped")
+        boolean changed;
+    }
+}
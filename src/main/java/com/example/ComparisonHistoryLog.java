@@ -0,0 +1,325 @@
+package com.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Append-only binary history of comparison cycles, written through memory-mapped segment files
+ * so that appending is a memory copy on the comparison thread rather than a syscall.
+ *
+ * <p>Each segment starts with a magic number and holds two kinds of records: a dictionary record
+ * that introduces a toggle id the first time the segment uses it, and a cycle record with a
+ * timestamp and one 5-byte entry (id, flags) per toggle. Cycles normally list only toggles that
+ * changed or differ; the first cycle of a segment is a keyframe listing every toggle. When a
+ * cycle that only lists changes has to open a segment, the log widens it to a keyframe from the
+ * latest flags it wrote for every toggle. A record's
+ * type byte is written last, so a reader never sees a half-written record; a zero type byte
+ * marks the end of the data. Segments roll over by size and the oldest are deleted beyond a
+ * retention count. Because ids are re-introduced per segment, every segment reads on its own.
+ */
+final class ComparisonHistoryLog implements AutoCloseable {
+    private static final int MAGIC = 0x55434831; // "UCH1"
+    private static final byte END = 0;
+    private static final byte DICTIONARY = 1;
+    private static final byte CYCLE = 2;
+    private static final byte KEYFRAME = 3;
+    private static final int CYCLE_HEADER_BYTES = 1 + 8 + 4;
+    private static final int ENTRY_BYTES = 5;
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    // Entry flags
+    static final int STREAMING_ENABLED = 1;
+    static final int POLLING_ENABLED = 1 << 1;
+    static final int STREAMING_DEFINED = 1 << 2;
+    static final int POLLING_DEFINED = 1 << 3;
+    static final int MISMATCH = 1 << 4;
+    static final int PERSISTENT = 1 << 5;
+    static final int REMOVED = 1 << 6;
+    static final int VARIANT_MISMATCH = 1 << 7;
+    // What a toggle that a cycle doesn't list still has; the other flags mean it would be listed
+    private static final int STATE_FLAGS = STREAMING_ENABLED | POLLING_ENABLED | STREAMING_DEFINED | POLLING_DEFINED;
+
+    static final class Entry {
+        final String toggle;
+        final int flags;
+
+        Entry(String toggle, int flags) {
+            this.toggle = toggle;
+            this.flags = flags;
+        }
+
+        boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    static final class Cycle {
+        final long timestampMillis;
+        /** True when this lists every toggle rather than just changed or differing ones. */
+        final boolean keyframe;
+        final List<Entry> entries;
+
+        Cycle(long timestampMillis, boolean keyframe, List<Entry> entries) {
+            this.timestampMillis = timestampMillis;
+            this.keyframe = keyframe;
+            this.entries = entries;
+        }
+
+        int count(int flag) {
+            int count = 0;
+            for (Entry entry : entries) {
+                if (entry.has(flag)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>(); // by id
+    private int[] latestFlags = new int[0]; // by id, as last written; -1 when not present
+    private final BitSet idsInSegment = new BitSet();
+
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private boolean keyframePending = true;
+
+    ComparisonHistoryLog(File directory, int segmentBytes, int maxSegments) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create history directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+    }
+
+    /** True when the next {@link #append} starts a segment and should pass every toggle. */
+    synchronized boolean needsKeyframe() {
+        return keyframePending;
+    }
+
+    synchronized void append(long timestampMillis, List<Entry> entries, boolean keyframe) throws IOException {
+        // One spare byte keeps a zero end marker after the last record
+        if (buffer == null || buffer.remaining() < bytesNeeded(entries, false) + 1) {
+            if (!keyframe) {
+                entries = widenToKeyframe(entries);
+                keyframe = true;
+            }
+            roll(timestampMillis, bytesNeeded(entries, true) + 1);
+        }
+        for (Entry entry : entries) {
+            int id = idOf(entry.toggle);
+            if (!idsInSegment.get(id)) {
+                writeDictionary(id, entry.toggle);
+                idsInSegment.set(id);
+            }
+        }
+        int start = buffer.position();
+        buffer.position(start + 1);
+        buffer.putLong(timestampMillis);
+        buffer.putInt(entries.size());
+        for (Entry entry : entries) {
+            buffer.putInt(ids.get(entry.toggle));
+            buffer.put((byte) entry.flags);
+        }
+        buffer.put(start, keyframe ? KEYFRAME : CYCLE);
+        keyframePending = false;
+        if (keyframe) {
+            Arrays.fill(latestFlags, -1);
+        }
+        for (Entry entry : entries) {
+            latestFlags[ids.get(entry.toggle)] = entry.has(REMOVED) ? -1 : entry.flags;
+        }
+
+        // Roll before the segment is full, so the next segment can start with a keyframe
+        if (buffer.remaining() < segmentBytes / 8) {
+            finishSegment();
+            keyframePending = true;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        finishSegment();
+    }
+
+    /**
+     * Reads the cycles with timestamps in {@code [fromMillis, toMillis]} from the segments in
+     * {@code directory}, oldest first. Safe to call while a writer is appending.
+     */
+    static void read(File directory, long fromMillis, long toMillis, Consumer<Cycle> consumer) throws IOException {
+        List<File> segments = segments(directory);
+        for (int i = 0; i < segments.size(); i++) {
+            // Segments are named after their first cycle, so one that the next segment starts
+            // before fromMillis cannot contain the range
+            if (i + 1 < segments.size() && segmentStart(segments.get(i + 1)) < fromMillis) {
+                continue;
+            }
+            if (segmentStart(segments.get(i)) > toMillis) {
+                break;
+            }
+            if (!readSegment(segments.get(i), fromMillis, toMillis, consumer)) {
+                break;
+            }
+        }
+    }
+
+    /** Returns false once a cycle after {@code toMillis} was seen. */
+    private static boolean readSegment(File segment, long fromMillis, long toMillis, Consumer<Cycle> consumer)
+            throws IOException {
+        ByteBuffer data;
+        try (RandomAccessFile in = new RandomAccessFile(segment, "r"); FileChannel channel = in.getChannel()) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.remaining() < 4 || data.getInt() != MAGIC) {
+            return true;
+        }
+        Map<Integer, String> dictionary = new HashMap<>();
+        try {
+            while (data.hasRemaining()) {
+                byte type = data.get();
+                if (type == DICTIONARY) {
+                    int id = data.getInt();
+                    byte[] name = new byte[data.getShort() & 0xffff];
+                    data.get(name);
+                    dictionary.put(id, new String(name, StandardCharsets.UTF_8));
+                } else if (type == CYCLE || type == KEYFRAME) {
+                    long timestamp = data.getLong();
+                    int count = data.getInt();
+                    if (timestamp > toMillis) {
+                        return false;
+                    }
+                    if (timestamp < fromMillis) {
+                        data.position(data.position() + count * ENTRY_BYTES);
+                    } else {
+                        List<Entry> entries = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            entries.add(new Entry(dictionary.get(data.getInt()), data.get() & 0xff));
+                        }
+                        consumer.accept(new Cycle(timestamp, type == KEYFRAME, entries));
+                    }
+                } else if (type == END) {
+                    break;
+                } else {
+                    throw new IOException("Corrupt history segment " + segment + " at " + (data.position() - 1));
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            // Segment truncated mid-record, e.g. by a crash; what was read is still valid
+        }
+        return true;
+    }
+
+    private void roll(long timestampMillis, int needed) throws IOException {
+        finishSegment();
+        File segment = new File(directory, String.format("%s%013d%s", SEGMENT_PREFIX, timestampMillis, SEGMENT_SUFFIX));
+        int size = Math.max(segmentBytes, needed + 4);
+        file = new RandomAccessFile(segment, "rw");
+        file.setLength(size);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.putInt(MAGIC);
+        idsInSegment.clear();
+        deleteOldSegments();
+    }
+
+    private void finishSegment() throws IOException {
+        if (file == null) {
+            return;
+        }
+        buffer.force();
+        // Trim the preallocated tail but keep the end marker, so a reader that mapped the longer
+        // file still stops inside it; this mapping is never touched again
+        file.setLength(buffer.position() + 1);
+        file.close();
+        file = null;
+        buffer = null;
+    }
+
+    private void deleteOldSegments() {
+        List<File> segments = segments(directory);
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            segments.get(i).delete();
+        }
+    }
+
+    private int idOf(String toggle) {
+        Integer id = ids.get(toggle);
+        if (id == null) {
+            id = ids.size();
+            ids.put(toggle, id);
+            names.add(toggle);
+            if (id == latestFlags.length) {
+                latestFlags = Arrays.copyOf(latestFlags, Math.max(64, id * 2));
+                Arrays.fill(latestFlags, id, latestFlags.length, -1);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Every present toggle: those in {@code entries} as given, the rest with their latest
+     * definition and values. A toggle the cycle doesn't list doesn't differ now.
+     */
+    private List<Entry> widenToKeyframe(List<Entry> entries) {
+        Set<String> listed = new HashSet<>();
+        List<Entry> all = new ArrayList<>(names.size());
+        for (Entry entry : entries) {
+            listed.add(entry.toggle);
+            if (!entry.has(REMOVED)) {
+                all.add(entry);
+            }
+        }
+        for (int id = 0; id < names.size(); id++) {
+            if (latestFlags[id] >= 0 && !listed.contains(names.get(id))) {
+                all.add(new Entry(names.get(id), latestFlags[id] & STATE_FLAGS));
+            }
+        }
+        return all;
+    }
+
+    private int bytesNeeded(List<Entry> entries, boolean freshSegment) {
+        int needed = CYCLE_HEADER_BYTES + entries.size() * ENTRY_BYTES;
+        for (Entry entry : entries) {
+            Integer id = ids.get(entry.toggle);
+            if (freshSegment || id == null || !idsInSegment.get(id)) {
+                needed += 1 + 4 + 2 + entry.toggle.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return needed;
+    }
+
+    private void writeDictionary(int id, String toggle) {
+        byte[] name = toggle.getBytes(StandardCharsets.UTF_8);
+        int start = buffer.position();
+        buffer.position(start + 1);
+        buffer.putInt(id);
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+        buffer.put(start, DICTIONARY);
+    }
+
+    private static List<File> segments(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        List<File> segments = files == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(files));
+        segments.sort(Comparator.comparing(File::getName));
+        return segments;
+    }
+
+    private static long segmentStart(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
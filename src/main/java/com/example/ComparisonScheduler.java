@@ -0,0 +1,166 @@
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the comparison work of every target on one pool sized to the machine's cores. Each target
+ * gets a {@link Lane}: its tasks run one at a time and in submission order, which keeps the
+ * target's state single-writer, while different targets run in parallel. A lane with more work
+ * queued gives its worker back after {@link #BATCH} tasks and queues up behind the other lanes,
+ * so one busy target cannot starve the rest.
+ *
+ * <p>Periodic cycles are spread over their period by target index. A cycle whose previous run has
+ * not finished when the next one is due is skipped and counted rather than queued, so targets
+ * that fall behind show up in the metrics instead of piling up work.
+ */
+final class ComparisonScheduler {
+    private static final int BATCH = 8;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "comparison-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService workers;
+    private final int threads;
+
+    /** Delay between a cycle falling due and its lane starting it. */
+    final LatencyHistogram cycleLag = new LatencyHistogram();
+
+    ComparisonScheduler(int threads) {
+        this.threads = threads;
+        this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "comparison-evaluator-" + count.incrementAndGet());
+            }
+        });
+    }
+
+    int threads() {
+        return threads;
+    }
+
+    Lane lane(String name) {
+        return new Lane(name);
+    }
+
+    void shutdown() {
+        timer.shutdownNow();
+        workers.shutdown();
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return workers.awaitTermination(timeout, unit);
+    }
+
+    void shutdownNow() {
+        workers.shutdownNow();
+    }
+
+    /** Serial executor of one target on the shared workers. */
+    final class Lane implements Executor {
+        private final String name;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>(); // guarded by this
+        private boolean draining = false; // guarded by this
+        private final AtomicLong skippedCycles = new AtomicLong();
+
+        private Lane(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (this) {
+                queue.add(task);
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            submit();
+        }
+
+        /** Runs {@code task} on this lane after {@code delay}. */
+        ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+            return timer.schedule(() -> execute(task), delay, unit);
+        }
+
+        /**
+         * Runs {@code task} on this lane every {@code periodMs}, the first time after one period
+         * plus the {@code index}-th of {@code count} equal shares of it.
+         */
+        ScheduledFuture<?> scheduleCycle(Runnable task, long periodMs, int index, int count) {
+            AtomicBoolean pending = new AtomicBoolean(false);
+            return timer.scheduleAtFixedRate(() -> {
+                if (!pending.compareAndSet(false, true)) {
+                    skippedCycles.incrementAndGet();
+                    return;
+                }
+                long due = System.nanoTime();
+                execute(() -> {
+                    cycleLag.recordNanos(System.nanoTime() - due);
+                    try {
+                        task.run();
+                    } finally {
+                        pending.set(false);
+                    }
+                });
+            }, periodMs + periodMs * index / count, periodMs, TimeUnit.MILLISECONDS);
+        }
+
+        long skippedCycles() {
+            return skippedCycles.get();
+        }
+
+        private void submit() {
+            try {
+                workers.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Shutting down; whatever is still queued is dropped
+            }
+        }
+
+        private void drain() {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task;
+                synchronized (this) {
+                    task = queue.poll();
+                    if (task == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Comparison task of " + name + " failed: " + e);
+                } catch (Error e) {
+                    // Rethrown to the pool, but the lane's remaining tasks still need a drain
+                    System.err.println("Comparison task of " + name + " failed: " + e);
+                    resume();
+                    throw e;
+                }
+            }
+            resume();
+        }
+
+        /** Ends this drain: idles the lane if nothing is queued, otherwise drains again later. */
+        private void resume() {
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+            }
+            // Back of the line behind the other targets
+            submit();
+        }
+    }
+}
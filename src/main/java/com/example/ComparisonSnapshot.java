@@ -0,0 +1,252 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable view of the comparison state, built by the single evaluator thread and swapped in
+ * with one reference write, so the dashboard, JSON API and metrics read a consistent state
+ * without taking a lock. Toggles are kept in name order in {@link Chunk}s holding per-toggle
+ * flags and the version of the toggle's last change; a new snapshot rebuilds only the chunks
+ * whose toggles changed and shares the rest with its predecessor.
+ *
+ * <p>The versions double as the change index: {@link #changesSince(long)} answers a delta from
+ * the snapshot alone, skipping whole chunks that changed no later than the requested version.
+ */
+final class ComparisonSnapshot {
+    static final ComparisonSnapshot EMPTY = new ComparisonSnapshot(0, "", Collections.emptyList(), Toggles.EMPTY,
+        0, 0, 0, 0, 0, 0, 0);
+
+    /** Toggles a chunk is split into; a patched chunk may grow to twice this before it is split. */
+    static final int CHUNK_SIZE = 256;
+
+    /** Comparator version the snapshot was taken at. */
+    final long version;
+    final String comparisonTime;
+    /** Descriptions of the discrepancies found by the latest update or check. */
+    final List<String> discrepancies;
+    final Toggles toggles;
+    final int mismatchedCount;
+    final int variantMismatchedCount;
+    private final int onlyInStreaming;
+    private final int onlyInPolling;
+    final long evaluations;
+    /** The target's check and mismatch counts when the snapshot was published. */
+    final long comparisons;
+    final long mismatches;
+
+    /** State of one toggle as of its version; a null value means the mode doesn't define it. */
+    static final class ToggleState {
+        final String toggle;
+        final Boolean streaming;
+        final Boolean polling;
+        final boolean removed;
+        final long version;
+
+        ToggleState(String toggle, Boolean streaming, Boolean polling, boolean removed, long version) {
+            this.toggle = toggle;
+            this.streaming = streaming;
+            this.polling = polling;
+            this.removed = removed;
+            this.version = version;
+        }
+
+        boolean mismatch() {
+            return !removed && !Objects.equals(streaming == null ? Boolean.FALSE : streaming,
+                polling == null ? Boolean.FALSE : polling);
+        }
+    }
+
+    static final class StateChanges {
+        final long version;
+        /** True when this lists every toggle rather than just those changed since the request. */
+        final boolean full;
+        final List<ToggleState> toggles;
+
+        StateChanges(long version, boolean full, List<ToggleState> toggles) {
+            this.version = version;
+            this.full = full;
+            this.toggles = toggles;
+        }
+    }
+
+    /** Consecutive toggles in name order with their flags and versions; never modified once built. */
+    static final class Chunk {
+        final String[] toggles;
+        final byte[] flags; // see flag()
+        final long[] versions;
+        final long maxVersion;
+
+        Chunk(String[] toggles, byte[] flags, long[] versions) {
+            this.toggles = toggles;
+            this.flags = flags;
+            this.versions = versions;
+            long max = 0;
+            for (long version : versions) {
+                max = Math.max(max, version);
+            }
+            this.maxVersion = max;
+        }
+
+        int size() {
+            return toggles.length;
+        }
+    }
+
+    /**
+     * The per-toggle part of a snapshot: the chunks, and the removed toggles still reported to
+     * deltas in version order. Shared by consecutive snapshots while no toggle changes.
+     */
+    static final class Toggles {
+        static final Toggles EMPTY = new Toggles(new Chunk[0], new String[0], new long[0], 0);
+
+        final Chunk[] chunks;
+        private final int[] offsets; // index of each chunk's first toggle
+        private final int size;
+        final String[] removed;
+        final long[] removedVersions;
+        /** Deltas from before this version can't list every removal and get everything instead. */
+        final long removedFloor;
+
+        Toggles(Chunk[] chunks, String[] removed, long[] removedVersions, long removedFloor) {
+            this.chunks = chunks;
+            this.offsets = new int[chunks.length];
+            int size = 0;
+            for (int i = 0; i < chunks.length; i++) {
+                offsets[i] = size;
+                size += chunks[i].size();
+            }
+            this.size = size;
+            this.removed = removed;
+            this.removedVersions = removedVersions;
+            this.removedFloor = removedFloor;
+        }
+
+        /** Same toggles with a different list of removals. */
+        Toggles withRemoved(String[] removed, long[] removedVersions, long removedFloor) {
+            return new Toggles(chunks, removed, removedVersions, removedFloor);
+        }
+
+        private int chunkOf(int index) {
+            int chunk = Arrays.binarySearch(offsets, index);
+            return chunk >= 0 ? chunk : -chunk - 2;
+        }
+    }
+
+    ComparisonSnapshot(long version, String comparisonTime, List<String> discrepancies, Toggles toggles,
+                       int mismatchedCount, int variantMismatchedCount, int onlyInStreaming, int onlyInPolling,
+                       long evaluations, long comparisons, long mismatches) {
+        this.version = version;
+        this.comparisonTime = comparisonTime;
+        this.discrepancies = discrepancies;
+        this.toggles = toggles;
+        this.mismatchedCount = mismatchedCount;
+        this.variantMismatchedCount = variantMismatchedCount;
+        this.onlyInStreaming = onlyInStreaming;
+        this.onlyInPolling = onlyInPolling;
+        this.evaluations = evaluations;
+        this.comparisons = comparisons;
+        this.mismatches = mismatches;
+    }
+
+    static int flag(ClientMode mode, boolean enabled, boolean defined) {
+        return (enabled ? 1 << mode.ordinal() : 0) | (defined ? 4 << mode.ordinal() : 0);
+    }
+
+    int size() {
+        return toggles.size;
+    }
+
+    /** Toggle at {@code index}, in name order. */
+    String toggle(int index) {
+        int chunk = toggles.chunkOf(index);
+        return toggles.chunks[chunk].toggles[index - toggles.offsets[chunk]];
+    }
+
+    boolean enabled(ClientMode mode, int index) {
+        return (flags(index) & (1 << mode.ordinal())) != 0;
+    }
+
+    boolean defined(ClientMode mode, int index) {
+        return (flags(index) & (4 << mode.ordinal())) != 0;
+    }
+
+    /** Values differ; a mode that doesn't define the toggle counts as disabled. */
+    boolean mismatch(int index) {
+        return enabled(ClientMode.STREAMING, index) != enabled(ClientMode.POLLING, index);
+    }
+
+    private int flags(int index) {
+        int chunk = toggles.chunkOf(index);
+        return toggles.chunks[chunk].flags[index - toggles.offsets[chunk]];
+    }
+
+    int onlyInCount(ClientMode mode) {
+        return mode == ClientMode.STREAMING ? onlyInStreaming : onlyInPolling;
+    }
+
+    /** Toggles {@code mode} defines. */
+    int definedCount(ClientMode mode) {
+        return size() - onlyInCount(mode.other());
+    }
+
+    /**
+     * Toggles whose state changed after {@code sinceVersion}, including removals. Falls back to
+     * every toggle when {@code sinceVersion} is negative, newer than this snapshot or older than
+     * the removals still kept.
+     */
+    StateChanges changesSince(long sinceVersion) {
+        boolean full = sinceVersion < 0 || sinceVersion < toggles.removedFloor || sinceVersion > version;
+        List<ToggleState> states = new ArrayList<>(full ? size() : 16);
+        for (Chunk chunk : toggles.chunks) {
+            if (!full && chunk.maxVersion <= sinceVersion) {
+                continue;
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                if (full || chunk.versions[i] > sinceVersion) {
+                    states.add(state(chunk, i));
+                }
+            }
+        }
+        if (!full) {
+            int first = Arrays.binarySearch(toggles.removedVersions, sinceVersion + 1);
+            for (int i = first >= 0 ? first : -first - 1; i < toggles.removed.length; i++) {
+                states.add(new ToggleState(toggles.removed[i], null, null, true, toggles.removedVersions[i]));
+            }
+        }
+        return new StateChanges(version, full, states);
+    }
+
+    /** Current state of {@code toggle}, or null if no mode defines it. */
+    ToggleState stateOf(String toggle) {
+        Chunk[] chunks = toggles.chunks;
+        int low = 0;
+        int high = chunks.length - 1;
+        // Last chunk whose first toggle is not after this one
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (chunks[mid].toggles[0].compareTo(toggle) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (high < 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(chunks[high].toggles, toggle);
+        return index < 0 ? null : state(chunks[high], index);
+    }
+
+    private static ToggleState state(Chunk chunk, int index) {
+        int flags = chunk.flags[index];
+        Boolean streaming = (flags & flag(ClientMode.STREAMING, false, true)) == 0 ? null
+            : (flags & flag(ClientMode.STREAMING, true, false)) != 0;
+        Boolean polling = (flags & flag(ClientMode.POLLING, false, true)) == 0 ? null
+            : (flags & flag(ClientMode.POLLING, true, false)) != 0;
+        return new ToggleState(chunk.toggles[index], streaming, polling, false, chunk.versions[index]);
+    }
+}
@@ -0,0 +1,742 @@
+package com.example;
+
+import io.getunleash.DefaultUnleash;
+import io.getunleash.Unleash;
+import io.getunleash.UnleashContext;
+import io.getunleash.UnleashException;
+import io.getunleash.event.ClientFeaturesResponse;
+import io.getunleash.event.ImpressionEvent;
+import io.getunleash.event.ToggleEvaluated;
+import io.getunleash.event.UnleashSubscriber;
+import io.getunleash.util.UnleashConfig;
+import io.getunleash.variant.Variant;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One Unleash project/environment under comparison: its streaming and polling clients, the
+ * definitions and evaluations of both, its discrepancy tracking and history. All of its state is
+ * written from its own {@link ComparisonScheduler.Lane}; subscriber callbacks only enqueue work
+ * there, and readers get the latest {@link ComparisonSnapshot}.
+ */
+final class ComparisonTarget implements UnleashComparisonApp.ComparisonApiHandler.Target {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    static final long CONVERGENCE_SETTLE_MS = 250; // Polling dispatches togglesFetched before applying the new state
+    // Track persistent discrepancies (only count those lasting longer than refresh interval)
+    private static final long DISCREPANCY_THRESHOLD_MS = UnleashComparisonApp.POLLING_INTERVAL_MS + 2000;
+
+    // Reusable context objects to avoid creating new ones on every update
+    private static final UnleashContext STREAMING_CONTEXT = UnleashContext.builder()
+            .userId("comparison-test-user-123")
+            .sessionId("comparison-session-456")
+            .addProperty("mode", "streaming")
+            .build();
+
+    private static final UnleashContext POLLING_CONTEXT = UnleashContext.builder()
+            .userId("comparison-test-user-123")
+            .sessionId("comparison-session-456")
+            .addProperty("mode", "polling")
+            .build();
+
+    final String name;
+    final String apiUrl;
+    private final String apiToken;
+    private final ComparisonScheduler.Lane lane;
+    private final ComparisonHistoryLog historyLog; // null when history is disabled
+    private final UpdateRecorder recorder; // null unless recording
+    private final BootstrapSnapshot bootstrap; // null when bootstrapping is disabled
+    private final Runnable onChange;
+
+    Unleash streamingClient;
+    Unleash pollingClient;
+
+    // Per-mode view of feature definitions and propagation latency between the two modes
+    final FeatureDefinitionTracker streamingDefinitions = new FeatureDefinitionTracker();
+    final FeatureDefinitionTracker pollingDefinitions = new FeatureDefinitionTracker();
+    final PropagationTracker propagation;
+    final IncrementalComparator comparator = new IncrementalComparator(
+            STREAMING_CONTEXT, streamingDefinitions, POLLING_CONTEXT, pollingDefinitions);
+    // Forget a discrepancy once two regular checks in a row no longer saw it
+    final DiscrepancyTracker discrepancies = new DiscrepancyTracker(UnleashComparisonApp.CHECK_INTERVAL_MS * 2, 1000, 1024);
+    final RecentHistory recentHistory = new RecentHistory(256);
+    // Recovery from faults injected between the clients and the backend, if any
+    final RecoveryTracker recovery;
+    final StartupTimeline startup;
+    private long lastHistoryVersion = -1; // lane only
+    private int unchangedChecks = 0; // checks that found nothing to report since the last report; lane only
+    private ScheduledFuture<?> pendingComparisonTask = null; // lane only
+    private volatile LoadDriver loadDriver; // null unless driving load against this target
+
+    final AtomicLong comparisonCount = new AtomicLong(0);
+    final AtomicLong mismatchCount = new AtomicLong(0);
+    final AtomicLong persistentDiscrepancies = new AtomicLong(0); // summed over checks
+    // Subscriber and comparison instrumentation, indexed by ClientMode.ordinal()
+    final AtomicLong[] togglesFetched = {new AtomicLong(), new AtomicLong()};
+    final AtomicLong[] toggleChanges = {new AtomicLong(), new AtomicLong()};
+    final AtomicLong[] clientErrors = {new AtomicLong(), new AtomicLong()};
+    final AtomicLong[] impressions = {new AtomicLong(), new AtomicLong()};
+    final LatencyHistogram[] updateDuration = {new LatencyHistogram(), new LatencyHistogram()};
+    final LatencyHistogram checkDuration = new LatencyHistogram();
+
+    // Latest state for the HTTP readers, replaced as a whole after every change
+    private final AtomicReference<ComparisonSnapshot> snapshot = new AtomicReference<>(ComparisonSnapshot.EMPTY);
+
+    /**
+     * @param origin     where changes are published, for propagation latency; null when unknown
+     * @param bootstrap  snapshot to start the clients from and keep up to date; null to disable
+     * @param onChange   called after every snapshot publication
+     */
+    ComparisonTarget(String name, String apiUrl, String apiToken, ComparisonScheduler scheduler,
+                     PropagationTracker.ChangeOrigin origin, ComparisonHistoryLog historyLog,
+                     UpdateRecorder recorder, BootstrapSnapshot bootstrap, Runnable onChange) {
+        this.name = name;
+        this.apiUrl = apiUrl;
+        this.apiToken = apiToken;
+        this.lane = scheduler.lane(name);
+        this.propagation = new PropagationTracker(origin, UnleashComparisonApp.POLLING_INTERVAL_MS * 4);
+        this.recovery = new RecoveryTracker(name, lane, origin, streamingDefinitions, pollingDefinitions, comparator);
+        this.startup = new StartupTimeline(name, comparator);
+        this.historyLog = historyLog;
+        this.recorder = recorder;
+        this.bootstrap = bootstrap;
+        this.onChange = onChange;
+    }
+
+    private final class StreamingEventSubscriber implements UnleashSubscriber {
+        @Override
+        public void togglesFetched(ClientFeaturesResponse toggleResponse) {
+            // Only hand over, so the SDK thread never waits for evaluation
+            long now = System.nanoTime();
+            long receivedAtMillis = System.currentTimeMillis();
+            lane.execute(() -> process(toggleResponse, now, receivedAtMillis));
+        }
+
+        private void process(ClientFeaturesResponse toggleResponse, long now, long receivedAtMillis) {
+            long started = System.nanoTime();
+            ComparisonEvents.TogglesFetched event = new ComparisonEvents.TogglesFetched();
+            event.begin();
+            recordUpdate(ClientMode.STREAMING, receivedAtMillis, toggleResponse);
+            FeatureDefinitionTracker.Update update = streamingDefinitions.apply(toggleResponse);
+            togglesFetched[ClientMode.STREAMING.ordinal()].incrementAndGet();
+            if (toggleResponse.getStatus() == ClientFeaturesResponse.Status.UNAVAILABLE) {
+                recovery.error(ClientMode.STREAMING, now);
+            } else {
+                recovery.response(ClientMode.STREAMING, now);
+                startup.received(ClientMode.STREAMING, update, now, now);
+            }
+            toggleChanges[ClientMode.STREAMING.ordinal()].addAndGet(update.changes.size());
+            LoadDriver driver = loadDriver;
+            if (driver != null) {
+                driver.changed(ClientMode.STREAMING, update, now);
+            }
+            String timestamp = LocalDateTime.now().format(TIME_FORMAT);
+            System.out.println("[" + timestamp + "] [" + name + "] [STREAMING] Features updated (" + update.changes.size() + " changed)");
+
+            comparator.markChanged(ClientMode.STREAMING, update.changes);
+            if (update.segmentsChanged) {
+                comparator.markAll(ClientMode.STREAMING);
+            }
+
+            // Streaming applies the payload before notifying subscribers, so it is already live
+            updateUIImmediate(ClientMode.STREAMING);
+
+            // A change polling already had means the modes converged on the streaming side
+            if (!update.baseline && propagation.observe(ClientMode.STREAMING, update.changes, pollingDefinitions, now) > 0) {
+                scheduleConvergedComparison();
+            }
+            commitFetched(event, ClientMode.STREAMING, toggleResponse, update, started - now);
+        }
+
+        @Override
+        public void onError(UnleashException unleashException) {
+            clientErrors[ClientMode.STREAMING.ordinal()].incrementAndGet();
+            long now = System.nanoTime();
+            lane.execute(() -> recovery.error(ClientMode.STREAMING, now));
+            recordError(ClientMode.STREAMING, unleashException);
+            String timestamp = LocalDateTime.now().format(TIME_FORMAT);
+            System.err.println("[" + timestamp + "] [" + name + "] [STREAMING ERROR] " + unleashException.getMessage());
+        }
+
+        @Override
+        public void toggleEvaluated(ToggleEvaluated toggleEvaluated) {
+            LoadDriver driver = loadDriver;
+            if (driver != null) {
+                driver.evaluated(ClientMode.STREAMING, toggleEvaluated);
+            }
+        }
+
+        @Override
+        public void impression(ImpressionEvent impressionEvent) {
+            impressions[ClientMode.STREAMING.ordinal()].incrementAndGet();
+        }
+    }
+
+    private final class PollingEventSubscriber implements UnleashSubscriber {
+        @Override
+        public void togglesFetched(ClientFeaturesResponse toggleResponse) {
+            long now = System.nanoTime();
+            long receivedAtMillis = System.currentTimeMillis();
+            lane.execute(() -> process(toggleResponse, now, receivedAtMillis));
+        }
+
+        private void process(ClientFeaturesResponse toggleResponse, long now, long receivedAtMillis) {
+            long started = System.nanoTime();
+            ComparisonEvents.TogglesFetched event = new ComparisonEvents.TogglesFetched();
+            event.begin();
+            recordUpdate(ClientMode.POLLING, receivedAtMillis, toggleResponse);
+            saveSnapshot(toggleResponse);
+            FeatureDefinitionTracker.Update update = pollingDefinitions.apply(toggleResponse);
+            togglesFetched[ClientMode.POLLING.ordinal()].incrementAndGet();
+            if (toggleResponse.getStatus() == ClientFeaturesResponse.Status.UNAVAILABLE) {
+                recovery.error(ClientMode.POLLING, now);
+            } else {
+                recovery.response(ClientMode.POLLING, now);
+                startup.received(ClientMode.POLLING, update, now,
+                    now + TimeUnit.MILLISECONDS.toNanos(CONVERGENCE_SETTLE_MS));
+            }
+            toggleChanges[ClientMode.POLLING.ordinal()].addAndGet(update.changes.size());
+            LoadDriver driver = loadDriver;
+            if (driver != null) {
+                driver.changed(ClientMode.POLLING, update, now);
+            }
+            String timestamp = LocalDateTime.now().format(TIME_FORMAT);
+            System.out.println("[" + timestamp + "] [" + name + "] [POLLING] Features updated (" + update.changes.size() + " changed)");
+
+            comparator.markChanged(ClientMode.POLLING, update.changes);
+            if (update.segmentsChanged) {
+                comparator.markAll(ClientMode.POLLING);
+            }
+
+            // Compare as soon as polling has caught up with what streaming already delivered
+            if (!update.baseline && propagation.observe(ClientMode.POLLING, update.changes, streamingDefinitions, now) > 0) {
+                scheduleConvergedComparison();
+            } else if (!update.changes.isEmpty() || update.segmentsChanged) {
+                // Polling applies the payload after notifying subscribers; evaluate once it has
+                lane.schedule(() -> updateUIImmediate(ClientMode.POLLING),
+                    CONVERGENCE_SETTLE_MS, TimeUnit.MILLISECONDS);
+            }
+            commitFetched(event, ClientMode.POLLING, toggleResponse, update, started - now);
+        }
+
+        @Override
+        public void onError(UnleashException unleashException) {
+            clientErrors[ClientMode.POLLING.ordinal()].incrementAndGet();
+            long now = System.nanoTime();
+            lane.execute(() -> recovery.error(ClientMode.POLLING, now));
+            recordError(ClientMode.POLLING, unleashException);
+            String timestamp = LocalDateTime.now().format(TIME_FORMAT);
+            System.err.println("[" + timestamp + "] [" + name + "] [POLLING ERROR] " + unleashException.getMessage());
+        }
+
+        @Override
+        public void toggleEvaluated(ToggleEvaluated toggleEvaluated) {
+            LoadDriver driver = loadDriver;
+            if (driver != null) {
+                driver.evaluated(ClientMode.POLLING, toggleEvaluated);
+            }
+        }
+
+        @Override
+        public void impression(ImpressionEvent impressionEvent) {
+            impressions[ClientMode.POLLING.ordinal()].incrementAndGet();
+        }
+    }
+
+    private void commitFetched(ComparisonEvents.TogglesFetched event, ClientMode mode, ClientFeaturesResponse response,
+                               FeatureDefinitionTracker.Update update, long queueNanos) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.target = name;
+            event.mode = mode.label;
+            event.status = response.getStatus().name();
+            event.payloadLength = response.getClientFeatures().map(String::length).orElse(0);
+            event.changes = update.changes.size();
+            event.queueTime = queueNanos;
+            event.commit();
+        }
+    }
+
+    private void recordError(ClientMode mode, UnleashException exception) {
+        ComparisonEvents.ClientError event = new ComparisonEvents.ClientError();
+        if (event.shouldCommit()) {
+            event.target = name;
+            event.mode = mode.label;
+            event.message = exception.getMessage();
+            event.commit();
+        }
+    }
+
+    /** Creates both clients and queues the initial evaluation and comparison. */
+    void start(boolean disableMetrics) {
+        UnleashConfig.Builder streamingConfig = UnleashComparisonApp.clientConfig(ClientMode.STREAMING, apiUrl, apiToken)
+                .subscriber(new StreamingEventSubscriber());
+        UnleashConfig.Builder pollingConfig = UnleashComparisonApp.clientConfig(ClientMode.POLLING, apiUrl, apiToken)
+                .subscriber(new PollingEventSubscriber());
+        if (disableMetrics) {
+            streamingConfig.disableMetrics();
+            pollingConfig.disableMetrics();
+        }
+        // The default backup file is named after the app, which every target shares
+        streamingConfig.backupFile(backupFile(ClientMode.STREAMING));
+        pollingConfig.backupFile(backupFile(ClientMode.POLLING));
+        if (bootstrap != null && bootstrap.present()) {
+            bootstrapClients(streamingConfig, pollingConfig);
+        }
+        // Each client is evaluated as soon as it exists rather than after both constructors
+        streamingClient = new DefaultUnleash(streamingConfig.build());
+        attach(ClientMode.STREAMING, streamingClient);
+        pollingClient = new DefaultUnleash(pollingConfig.build());
+        attach(ClientMode.POLLING, pollingClient);
+        System.out.println("[" + name + "] Streaming and polling clients initialized for " + apiUrl);
+
+        lane.execute(this::compareClientsForDiscrepancies);
+    }
+
+    private void attach(ClientMode mode, Unleash client) {
+        comparator.attach(mode, client);
+        startup.constructed(mode, System.nanoTime());
+        lane.execute(() -> updateUIImmediate(mode));
+    }
+
+    /**
+     * Starts both clients from the snapshot rather than blocking on a first fetch. The SDK reads
+     * its backup file in preference to a bootstrap provider, and the streaming client only writes
+     * that file on a synchronous fetch, so the backups are removed to keep them from shadowing the
+     * snapshot.
+     */
+    private void bootstrapClients(UnleashConfig.Builder streamingConfig, UnleashConfig.Builder pollingConfig) {
+        for (ClientMode mode : ClientMode.values()) {
+            File backup = new File(backupFile(mode));
+            if (backup.exists() && !backup.delete()) {
+                System.err.println("[" + name + "] Cannot remove " + backup + ", which overrides the bootstrap snapshot");
+            }
+        }
+        streamingConfig.toggleBootstrapProvider(bootstrap).synchronousFetchOnInitialisation(false);
+        pollingConfig.toggleBootstrapProvider(bootstrap).synchronousFetchOnInitialisation(false);
+        String payload = bootstrap.read().get();
+        // Queued before the clients exist, so the definitions are seeded ahead of any fetched payload
+        lane.execute(() -> {
+            comparator.markChanged(ClientMode.STREAMING, streamingDefinitions.bootstrap(payload).changes);
+            comparator.markChanged(ClientMode.POLLING, pollingDefinitions.bootstrap(payload).changes);
+            startup.bootstrapped();
+        });
+        System.out.println("[" + name + "] Bootstrapping from " + bootstrap.file() + ", saved "
+            + TimeUnit.MILLISECONDS.toSeconds(bootstrap.ageMillis()) + "s ago");
+    }
+
+    private String backupFile(ClientMode mode) {
+        return new File(System.getProperty("java.io.tmpdir"),
+            "unleash-comparison-" + name + "-" + mode.label + "-repo.json").getPath();
+    }
+
+    /** Starts the periodic check and resync, offset by this target's share of each period. */
+    void scheduleCycles(int index, int count) {
+        lane.scheduleCycle(this::compareClientsForDiscrepancies, UnleashComparisonApp.CHECK_INTERVAL_MS, index, count);
+        lane.scheduleCycle(this::resyncAllToggles, UnleashComparisonApp.RESYNC_INTERVAL_MS, index, count);
+    }
+
+    /** Reports this target's definition changes and SDK events to {@code driver}. */
+    void watch(LoadDriver driver) {
+        loadDriver = driver;
+    }
+
+    /** Times this target's recovery from the faults {@code proxy} injects. */
+    void watch(FaultInjectionProxy proxy) {
+        proxy.addListener(recovery);
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public ComparisonSnapshot snapshot() {
+        return snapshot.get();
+    }
+
+    long skippedCycles() {
+        return lane.skippedCycles();
+    }
+
+    void shutdown() {
+        if (streamingClient != null) {
+            streamingClient.shutdown();
+        }
+        if (pollingClient != null) {
+            pollingClient.shutdown();
+        }
+    }
+
+    /** Closes the history log; only once the lane has stopped, so no comparison is appending. */
+    void closeHistory() {
+        if (historyLog != null) {
+            try {
+                historyLog.close();
+            } catch (IOException e) {
+                System.err.println("[" + name + "] Failed to close history log: " + e.getMessage());
+            }
+        }
+    }
+
+    private void recordUpdate(ClientMode mode, long receivedAtMillis, ClientFeaturesResponse response) {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.record(name, mode, receivedAtMillis, response);
+        } catch (IOException e) {
+            System.err.println("[" + name + "] Failed to record " + mode.label + " update: " + e.getMessage());
+        }
+    }
+
+    /** Keeps the bootstrap snapshot at the latest full payload, which only polling receives. */
+    private void saveSnapshot(ClientFeaturesResponse response) {
+        if (bootstrap == null || response.getStatus() != ClientFeaturesResponse.Status.CHANGED) {
+            return;
+        }
+        Optional<String> body = response.getClientFeatures();
+        if (!body.isPresent()) {
+            return;
+        }
+        try {
+            bootstrap.save(body.get());
+        } catch (IOException e) {
+            System.err.println("[" + name + "] Failed to save bootstrap snapshot: " + e.getMessage());
+        }
+    }
+
+    private void scheduleConvergedComparison() {
+        // Cancel any existing pending comparison task to prevent task accumulation
+        boolean cancelled = pendingComparisonTask != null && !pendingComparisonTask.isDone()
+            && pendingComparisonTask.cancel(false);
+        ComparisonEvents.PendingComparison event = new ComparisonEvents.PendingComparison();
+        if (event.shouldCommit()) {
+            event.target = name;
+            event.cancelled = cancelled;
+            event.delay = CONVERGENCE_SETTLE_MS;
+            event.commit();
+        }
+
+        // The polling repository applies a fetched payload only after notifying subscribers,
+        // so give it a moment before evaluating
+        pendingComparisonTask = lane.schedule(
+            this::compareClientsForDiscrepancies,
+            CONVERGENCE_SETTLE_MS,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    private void updateUIImmediate(ClientMode mode) {
+        // Update UI data immediately when either client receives updates
+        ComparisonEvents.EvaluationBatch event = new ComparisonEvents.EvaluationBatch();
+        event.begin();
+        long start = System.nanoTime();
+        String timestamp = LocalDateTime.now().format(TIME_FORMAT);
+
+        // Only toggles whose definitions changed in this mode are evaluated
+        int evaluated = comparator.refresh(mode);
+
+        // Rebuild the discrepancy list from the (usually tiny) set of mismatched toggles
+        List<String> mismatched = comparator.mismatchedToggles();
+        List<String> variantMismatched = comparator.variantMismatchedToggles();
+        List<String> described = new ArrayList<>(mismatched.size() + variantMismatched.size());
+        for (String toggle : mismatched) {
+            described.add(describeMismatch(toggle));
+        }
+        for (String toggle : variantMismatched) {
+            described.add(describeVariantMismatch(toggle));
+        }
+        publishSnapshot(timestamp, described);
+        long end = System.nanoTime();
+        updateDuration[mode.ordinal()].recordNanos(end - start);
+        recovery.progress(end);
+        startup.evaluated(mode, end);
+        event.end();
+        if (event.shouldCommit()) {
+            event.target = name;
+            event.mode = mode.label;
+            event.evaluated = evaluated;
+            event.commit();
+        }
+    }
+
+    /** Replaces the state the HTTP readers see; lane only. */
+    private ComparisonSnapshot publishSnapshot(String comparisonTime, List<String> discrepancyDescriptions) {
+        ComparisonSnapshot published = comparator.snapshot(comparisonTime, discrepancyDescriptions,
+            comparisonCount.get(), mismatchCount.get());
+        snapshot.set(published);
+        onChange.run();
+        return published;
+    }
+
+    private void resyncAllToggles() {
+        // Time-based constraints and missed events don't show up as definition changes
+        comparator.markAll(ClientMode.STREAMING);
+        comparator.markAll(ClientMode.POLLING);
+        compareClientsForDiscrepancies();
+    }
+
+    private String describeMismatch(String toggle) {
+        // Use StringBuilder for efficient string construction
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("Toggle '").append(toggle)
+          .append("': streaming=").append(comparator.value(ClientMode.STREAMING, toggle))
+          .append(", polling=").append(comparator.value(ClientMode.POLLING, toggle));
+        return sb.toString();
+    }
+
+    private String describeVariantMismatch(String toggle) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("Toggle '").append(toggle).append("' variant: streaming=");
+        appendVariant(sb, comparator.variant(ClientMode.STREAMING, toggle));
+        sb.append(", polling=");
+        appendVariant(sb, comparator.variant(ClientMode.POLLING, toggle));
+        return sb.toString();
+    }
+
+    private static void appendVariant(StringBuilder sb, Variant variant) {
+        sb.append(variant.getName());
+        variant.getPayload().ifPresent(payload -> sb.append('(').append(payload.getValue()).append(')'));
+    }
+
+    private void compareClientsForDiscrepancies() {
+        // This method is called after delays to track persistent discrepancies
+        ComparisonEvents.ComparisonCycle event = new ComparisonEvents.ComparisonCycle();
+        event.begin();
+        long start = System.nanoTime();
+
+        // Evaluate whatever changed since the last update; everything else is already known
+        int evaluated = comparator.refreshAll();
+        long evaluatedAt = System.nanoTime();
+        startup.evaluated(ClientMode.STREAMING, evaluatedAt);
+        startup.evaluated(ClientMode.POLLING, evaluatedAt);
+
+        // The modes agree and nothing changed since the last recorded cycle, so the report, the
+        // history entry and the snapshot would all repeat the previous ones
+        if (discrepancies.size() == 0 && (historyLog == null || !historyLog.needsKeyframe())
+                && comparator.unchangedSince(lastHistoryVersion)) {
+            unchangedChecks++;
+            comparisonCount.incrementAndGet();
+            long now = System.nanoTime();
+            propagation.abandonStale(now);
+            recovery.progress(now);
+            checkDuration.recordNanos(now - start);
+            commitCycle(event, evaluated, 0, 0, true);
+            return;
+        }
+        String timestamp = LocalDateTime.now().format(TIME_FORMAT);
+
+        // Printed as one block, so checks of targets running in parallel don't interleave
+        StringBuilder out = new StringBuilder(512);
+        out.append("\n[").append(timestamp).append("] === [").append(name).append("] Checking for persistent discrepancies ===\n");
+        if (unchangedChecks > 0) {
+            out.append("Unchanged checks since the last report: ").append(unchangedChecks).append('\n');
+            unchangedChecks = 0;
+        }
+        out.append("Total feature toggles: ").append(comparator.toggleCount()).append('\n');
+        out.append("Streaming toggles: ").append(streamingDefinitions.size()).append('\n');
+        out.append("Polling toggles: ").append(pollingDefinitions.size()).append('\n');
+        out.append("Re-evaluated toggles: ").append(evaluated).append('\n');
+        out.append(String.format("Fingerprints: streaming %016x, polling %016x%n",
+            comparator.fingerprint(ClientMode.STREAMING), comparator.fingerprint(ClientMode.POLLING)));
+
+        boolean hasDiscrepancies = false;
+        List<String> currentDiscrepancies = new ArrayList<>(8); // Pre-size for typical case
+        long currentTime = System.currentTimeMillis();
+
+        // Matching fingerprints mean the same toggles, values and variants in both modes, so
+        // nothing needs to be looked at toggle by toggle
+        boolean identical = comparator.fingerprintsMatch();
+        if (identical) {
+            discrepancies.resolve("list-streaming");
+            discrepancies.resolve("list-polling");
+        } else {
+            // Compare toggle lists
+            List<String> onlyInStreaming = comparator.onlyIn(ClientMode.STREAMING);
+            if (!onlyInStreaming.isEmpty()) {
+                String discrepancy = "Toggles only in streaming: " + onlyInStreaming;
+                if (isPersistentDiscrepancy("list-streaming", discrepancy, currentTime, out)) {
+                    hasDiscrepancies = true;
+                    currentDiscrepancies.add(discrepancy);
+                }
+            } else {
+                discrepancies.resolve("list-streaming");
+            }
+
+            List<String> onlyInPolling = comparator.onlyIn(ClientMode.POLLING);
+            if (!onlyInPolling.isEmpty()) {
+                String discrepancy = "Toggles only in polling: " + onlyInPolling;
+                if (isPersistentDiscrepancy("list-polling", discrepancy, currentTime, out)) {
+                    hasDiscrepancies = true;
+                    currentDiscrepancies.add(discrepancy);
+                }
+            } else {
+                discrepancies.resolve("list-polling");
+            }
+        }
+
+        // Classified before draining, so variants that agree again count as resolved
+        List<String> variantMismatched = comparator.drainVariantMismatches();
+
+        // Remove from tracking the toggles that match again
+        for (String toggle : comparator.drainResolved()) {
+            discrepancies.resolve(toggle);
+        }
+
+        // Track persistence only for toggles that currently differ
+        List<String> mismatched = identical ? Collections.emptyList() : comparator.mismatchedToggles();
+        Set<String> persistent = identical ? Collections.emptySet() : new HashSet<>();
+        for (String toggle : mismatched) {
+            String discrepancy = describeMismatch(toggle);
+            if (isPersistentDiscrepancy(toggle, discrepancy, currentTime, out)) {
+                hasDiscrepancies = true;
+                currentDiscrepancies.add(discrepancy);
+                persistent.add(toggle);
+            }
+        }
+        for (String toggle : variantMismatched) {
+            String discrepancy = describeVariantMismatch(toggle);
+            if (isPersistentDiscrepancy(toggle, discrepancy, currentTime, out)) {
+                hasDiscrepancies = true;
+                currentDiscrepancies.add(discrepancy);
+                persistent.add(toggle);
+            }
+        }
+        comparisonCount.incrementAndGet();
+        if (hasDiscrepancies) {
+            mismatchCount.incrementAndGet();
+            persistentDiscrepancies.addAndGet(currentDiscrepancies.size());
+        }
+        ComparisonSnapshot published = publishSnapshot(timestamp, currentDiscrepancies);
+        recordHistory(published, currentTime, mismatched, variantMismatched, persistent);
+        checkDuration.recordNanos(System.nanoTime() - start);
+        commitCycle(event, evaluated, mismatched.size() + variantMismatched.size(), currentDiscrepancies.size(), identical);
+
+        if (hasDiscrepancies) {
+            out.append("⚠️  PERSISTENT DISCREPANCIES FOUND:\n");
+            for (String discrepancy : currentDiscrepancies) {
+                out.append("  - ").append(discrepancy).append('\n');
+            }
+        } else {
+            out.append("✅ No persistent discrepancies detected!\n");
+        }
+
+        long now = System.nanoTime();
+        propagation.abandonStale(now);
+        recovery.progress(now);
+        out.append(propagation.summary());
+
+        // Forget discrepancies that were neither resolved nor seen again, e.g. removed toggles
+        int forgotten = discrepancies.expire(currentTime);
+        if (forgotten > 0) {
+            out.append("\nForgot ").append(forgotten).append(" discrepancies no longer observed");
+        }
+        System.out.println(out);
+    }
+
+    private void commitCycle(ComparisonEvents.ComparisonCycle event, int evaluated, int mismatched, int discrepancyCount,
+                             boolean identical) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.target = name;
+            event.toggles = comparator.toggleCount();
+            event.reevaluated = evaluated;
+            event.mismatched = mismatched;
+            event.discrepancies = discrepancyCount;
+            event.identical = identical;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records what changed in {@code published} since the previous cycle plus every toggle that
+     * currently differs.
+     */
+    private void recordHistory(ComparisonSnapshot published, long timestampMillis, List<String> mismatched,
+                               List<String> variantMismatched, Set<String> persistent) {
+        boolean keyframe = historyLog != null && historyLog.needsKeyframe();
+        ComparisonSnapshot.StateChanges changes = published.changesSince(keyframe ? -1 : lastHistoryVersion);
+        lastHistoryVersion = changes.version;
+        appendHistory(published, timestampMillis, changes, mismatched, variantMismatched, persistent);
+    }
+
+    private void appendHistory(ComparisonSnapshot published, long timestampMillis, ComparisonSnapshot.StateChanges changes,
+                               List<String> mismatched, List<String> variantMismatched,
+                               Set<String> persistent) {
+        Map<String, ComparisonSnapshot.ToggleState> states = new LinkedHashMap<>();
+        for (ComparisonSnapshot.ToggleState state : changes.toggles) {
+            states.put(state.toggle, state);
+        }
+        List<String> differing = new ArrayList<>(mismatched);
+        differing.addAll(variantMismatched);
+        for (String toggle : differing) {
+            if (!states.containsKey(toggle)) {
+                ComparisonSnapshot.ToggleState state = published.stateOf(toggle);
+                if (state != null) {
+                    states.put(toggle, state);
+                }
+            }
+        }
+
+        List<ComparisonHistoryLog.Entry> entries = new ArrayList<>(states.size());
+        for (ComparisonSnapshot.ToggleState state : states.values()) {
+            entries.add(new ComparisonHistoryLog.Entry(state.toggle, historyFlags(state,
+                variantMismatched.contains(state.toggle), persistent.contains(state.toggle))));
+        }
+        ComparisonHistoryLog.Cycle cycle = new ComparisonHistoryLog.Cycle(timestampMillis, changes.full, entries);
+        recentHistory.add(cycle);
+        if (historyLog != null) {
+            try {
+                historyLog.append(timestampMillis, entries, changes.full);
+            } catch (IOException e) {
+                System.err.println("[" + name + "] Failed to append comparison history: " + e.getMessage());
+            }
+        }
+    }
+
+    private static int historyFlags(ComparisonSnapshot.ToggleState state, boolean variantMismatch, boolean persistent) {
+        int flags = 0;
+        if (state.streaming != null) {
+            flags |= ComparisonHistoryLog.STREAMING_DEFINED | (state.streaming ? ComparisonHistoryLog.STREAMING_ENABLED : 0);
+        }
+        if (state.polling != null) {
+            flags |= ComparisonHistoryLog.POLLING_DEFINED | (state.polling ? ComparisonHistoryLog.POLLING_ENABLED : 0);
+        }
+        if (state.mismatch()) {
+            flags |= ComparisonHistoryLog.MISMATCH;
+        }
+        if (variantMismatch) {
+            flags |= ComparisonHistoryLog.VARIANT_MISMATCH;
+        }
+        if (persistent) {
+            flags |= ComparisonHistoryLog.PERSISTENT;
+        }
+        if (state.removed) {
+            flags |= ComparisonHistoryLog.REMOVED;
+        }
+        return flags;
+    }
+
+    private boolean isPersistentDiscrepancy(String key, String discrepancy, long currentTime, StringBuilder out) {
+        long discrepancyAge = discrepancies.observe(key, currentTime);
+        if (discrepancyAge == DiscrepancyTracker.NEW) {
+            // First time seeing this discrepancy
+            out.append("New discrepancy detected (waiting for persistence): ").append(discrepancy).append('\n');
+            return false;
+        } else if (discrepancyAge >= DISCREPANCY_THRESHOLD_MS) {
+            return true; // It's persistent, count it
+        } else {
+            out.append("Temporary discrepancy (age: ").append(discrepancyAge).append("ms): ").append(discrepancy).append('\n');
+            return false;
+        }
+    }
+}
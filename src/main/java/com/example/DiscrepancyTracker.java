@@ -0,0 +1,204 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers when each discrepancy was first seen, at constant cost per observation however many
+ * are open. Keys are interned to int ids that index primitive arrays. A discrepancy that is no
+ * longer observed is forgotten through a hierarchical timer wheel instead of by scanning: every
+ * observation moves the entry to its new expiry slot in O(1), and advancing the clock touches
+ * only the slots that come due. Nothing is dropped for lack of room; the arrays grow.
+ */
+final class DiscrepancyTracker {
+    /** Returned by {@link #observe} for a key seen for the first time. */
+    static final long NEW = -1;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELAY_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+    private static final int NONE = -1;
+
+    private final long tickMillis;
+    private final long idleTicks;
+    private final Map<String, Integer> ids = new HashMap<>();
+    // Head of each slot's list, level-major; entries link through next/prev
+    private final int[] slots = new int[LEVELS * SLOTS];
+
+    private String[] keys;
+    private long[] firstSeenMillis;
+    private long[] expiryTick;
+    private int[] next; // Also links the free list
+    private int[] prev;
+    private int[] slotOf; // NONE while free
+    private int freeList = NONE;
+    private int highWater = 0;
+    private int size = 0;
+    private long currentTick = Long.MIN_VALUE;
+    private long expired = 0;
+
+    /**
+     * @param idleMillis how long a discrepancy is kept after it was last observed
+     * @param tickMillis expiry resolution
+     */
+    DiscrepancyTracker(long idleMillis, long tickMillis, int initialCapacity) {
+        this.tickMillis = tickMillis;
+        // One extra tick because an observation can land anywhere inside the current tick
+        this.idleTicks = (idleMillis + tickMillis - 1) / tickMillis + 1;
+        Arrays.fill(slots, NONE);
+        keys = new String[initialCapacity];
+        firstSeenMillis = new long[initialCapacity];
+        expiryTick = new long[initialCapacity];
+        next = new int[initialCapacity];
+        prev = new int[initialCapacity];
+        slotOf = new int[initialCapacity];
+    }
+
+    /**
+     * Records that {@code key} differs at {@code nowMillis} and returns how long it has differed,
+     * or {@link #NEW} if it wasn't being tracked.
+     */
+    synchronized long observe(String key, long nowMillis) {
+        advance(nowMillis);
+        long expiry = currentTick + idleTicks;
+        Integer id = ids.get(key);
+        if (id == null) {
+            int created = allocate();
+            ids.put(key, created);
+            keys[created] = key;
+            firstSeenMillis[created] = nowMillis;
+            expiryTick[created] = expiry;
+            place(created);
+            size++;
+            return NEW;
+        }
+        if (expiryTick[id] != expiry) {
+            unlink(id);
+            expiryTick[id] = expiry;
+            place(id);
+        }
+        return nowMillis - firstSeenMillis[id];
+    }
+
+    /** Stops tracking {@code key}, e.g. because both modes agree again. */
+    synchronized boolean resolve(String key) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            return false;
+        }
+        unlink(id);
+        release(id);
+        return true;
+    }
+
+    /** Forgets the discrepancies not observed within the idle time; returns how many. */
+    synchronized int expire(long nowMillis) {
+        long before = expired;
+        advance(nowMillis);
+        return (int) (expired - before);
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /** Discrepancies forgotten because they were no longer observed. */
+    synchronized long expiredCount() {
+        return expired;
+    }
+
+    private void advance(long nowMillis) {
+        long targetTick = Math.floorDiv(nowMillis, tickMillis);
+        while (currentTick < targetTick && size > 0) {
+            currentTick++;
+            // Entering a new block of a level moves that block's entries down to finer slots
+            for (int level = 1; level < LEVELS; level++) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                int slot = level * SLOTS + (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                for (int id = detach(slot), following; id != NONE; id = following) {
+                    following = next[id];
+                    place(id);
+                }
+            }
+            for (int id = detach((int) (currentTick & (SLOTS - 1))), following; id != NONE; id = following) {
+                following = next[id];
+                if (expiryTick[id] <= currentTick) {
+                    release(id);
+                    expired++;
+                } else {
+                    place(id); // Expiry was beyond the wheel's range
+                }
+            }
+        }
+        // With nothing scheduled, idle time is skipped rather than ticked through
+        currentTick = Math.max(currentTick, targetTick);
+    }
+
+    private void place(int id) {
+        long delay = Math.min(Math.max(0, expiryTick[id] - currentTick), MAX_DELAY_TICKS);
+        long at = currentTick + delay;
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = level * SLOTS + (int) ((at >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        int head = slots[slot];
+        next[id] = head;
+        prev[id] = NONE;
+        if (head != NONE) {
+            prev[head] = id;
+        }
+        slots[slot] = id;
+        slotOf[id] = slot;
+    }
+
+    private void unlink(int id) {
+        if (prev[id] != NONE) {
+            next[prev[id]] = next[id];
+        } else {
+            slots[slotOf[id]] = next[id];
+        }
+        if (next[id] != NONE) {
+            prev[next[id]] = prev[id];
+        }
+        slotOf[id] = NONE;
+    }
+
+    /** Empties {@code slot} and returns its first entry; the rest stay linked through next. */
+    private int detach(int slot) {
+        int head = slots[slot];
+        slots[slot] = NONE;
+        return head;
+    }
+
+    private int allocate() {
+        if (freeList != NONE) {
+            int id = freeList;
+            freeList = next[id];
+            return id;
+        }
+        if (highWater == keys.length) {
+            int capacity = Math.max(16, keys.length * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            firstSeenMillis = Arrays.copyOf(firstSeenMillis, capacity);
+            expiryTick = Arrays.copyOf(expiryTick, capacity);
+            next = Arrays.copyOf(next, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            slotOf = Arrays.copyOf(slotOf, capacity);
+        }
+        return highWater++;
+    }
+
+    private void release(int id) {
+        ids.remove(keys[id]);
+        keys[id] = null;
+        slotOf[id] = NONE;
+        next[id] = freeList;
+        freeList = id;
+        size--;
+    }
+}
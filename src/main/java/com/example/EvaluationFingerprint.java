@@ -0,0 +1,176 @@
+package com.example;
+
+import io.getunleash.variant.Payload;
+import io.getunleash.variant.Variant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 64-bit fingerprint of each mode's full evaluation result: whether every toggle is enabled and
+ * which variant (name and payload) it returns. Toggles get shared int ids, and each mode keeps a
+ * segment tree whose leaves are per-toggle hashes and whose inner nodes are sums of their
+ * children, so the roots are the fingerprints. Updating a toggle costs O(log n); comparing the
+ * modes is one comparison of the roots, and when they differ {@link #differing()} bisects down
+ * the subtrees whose sums differ to the offending toggles.
+ *
+ * <p>A toggle a mode doesn't define has leaf 0. The leaf hash is seeded with the toggle's id, so
+ * two toggles swapping results still changes the sums.
+ */
+final class EvaluationFingerprint {
+    private static final int NONE = -1;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] names;
+    private int capacity; // Leaves per tree, a power of two
+    // Node 1 is the root, node i has children 2i and 2i + 1, leaf for id is capacity + id
+    private final long[][] trees = new long[2][];
+    private int[] freeIds;
+    private int freeCount = 0;
+    private int highWater = 0;
+
+    EvaluationFingerprint(int initialCapacity) {
+        capacity = Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1;
+        names = new String[capacity];
+        freeIds = new int[capacity];
+        trees[0] = new long[2 * capacity];
+        trees[1] = new long[2 * capacity];
+    }
+
+    /** Sets what {@code mode} evaluates {@code toggle} to. */
+    void set(ClientMode mode, String toggle, boolean enabled, Variant variant) {
+        int id = idOf(toggle);
+        update(mode.ordinal(), id, leafHash(id, enabled, variant));
+    }
+
+    /** Records that {@code mode} no longer defines {@code toggle}. */
+    void clear(ClientMode mode, String toggle) {
+        Integer id = ids.get(toggle);
+        if (id == null) {
+            return;
+        }
+        update(mode.ordinal(), id, 0);
+        int leaf = capacity + id;
+        if (trees[0][leaf] == 0 && trees[1][leaf] == 0) {
+            ids.remove(toggle);
+            names[id] = null;
+            freeIds[freeCount++] = id;
+        }
+    }
+
+    long fingerprint(ClientMode mode) {
+        return trees[mode.ordinal()][1];
+    }
+
+    boolean matches() {
+        return trees[0][1] == trees[1][1];
+    }
+
+    /** Toggles whose evaluation differs between the modes; allocates only when there are some. */
+    List<String> differing() {
+        if (matches()) {
+            return Collections.emptyList();
+        }
+        List<String> toggles = new ArrayList<>();
+        collect(1, toggles);
+        return toggles;
+    }
+
+    private void collect(int node, List<String> toggles) {
+        if (trees[0][node] == trees[1][node]) {
+            return;
+        }
+        if (node >= capacity) {
+            toggles.add(names[node - capacity]);
+            return;
+        }
+        collect(2 * node, toggles);
+        collect(2 * node + 1, toggles);
+    }
+
+    private void update(int tree, int id, long leafHash) {
+        long[] nodes = trees[tree];
+        int node = capacity + id;
+        long delta = leafHash - nodes[node];
+        if (delta == 0) {
+            return;
+        }
+        for (; node > 0; node >>>= 1) {
+            nodes[node] += delta;
+        }
+    }
+
+    private int idOf(String toggle) {
+        Integer id = ids.get(toggle);
+        if (id != null) {
+            return id;
+        }
+        int created;
+        if (freeCount > 0) {
+            created = freeIds[--freeCount];
+        } else {
+            if (highWater == capacity) {
+                grow();
+            }
+            created = highWater++;
+        }
+        ids.put(toggle, created);
+        names[created] = toggle;
+        return created;
+    }
+
+    private void grow() {
+        int grown = capacity * 2;
+        for (int t = 0; t < 2; t++) {
+            long[] nodes = new long[2 * grown];
+            System.arraycopy(trees[t], capacity, nodes, grown, capacity);
+            for (int node = grown - 1; node > 0; node--) {
+                nodes[node] = nodes[2 * node] + nodes[2 * node + 1];
+            }
+            trees[t] = nodes;
+        }
+        names = Arrays.copyOf(names, grown);
+        freeIds = Arrays.copyOf(freeIds, grown);
+        capacity = grown;
+    }
+
+    private static long leafHash(int id, boolean enabled, Variant variant) {
+        long hash = mix(id + 0x9E3779B97F4A7C15L);
+        hash = (hash ^ (enabled ? 1 : 2)) * 0x100000001B3L;
+        if (variant != null) {
+            hash = (hash ^ (variant.isEnabled() ? 3 : 4)) * 0x100000001B3L;
+            hash = hashString(hash, variant.getName());
+            Payload payload = variant.getPayload().orElse(null);
+            if (payload != null) {
+                hash = hashString(hash, payload.getType());
+                hash = hashString(hash, payload.getValue());
+            }
+        }
+        hash = mix(hash);
+        return hash == 0 ? 1 : hash; // 0 is reserved for undefined
+    }
+
+    /** FNV-1a over the characters, followed by a separator so adjacent strings can't run together. */
+    private static long hashString(long hash, String value) {
+        if (value == null) {
+            return (hash ^ 5) * 0x100000001B3L;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        return (hash ^ 0xFFFF_0000L) * 0x100000001B3L;
+    }
+
+    /** MurmurHash3 finalizer. */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,201 @@
+package com.example;
+
+import io.getunleash.Unleash;
+import io.getunleash.UnleashContext;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates a users &times; toggles matrix against both clients in parallel to catch divergences
+ * that only show up for some users (gradual rollouts, constraints, user lists).
+ *
+ * <p>By default every toggle is swept. The definition hashes only describe what the subscribers
+ * were handed, not what each engine holds, so a client that failed to apply an update or an engine
+ * that evaluates differently is only caught by evaluating. With a full sweep turned off, toggles
+ * whose definitions differ between the modes are swept along with a rotating sample of the
+ * identical ones, so every toggle is still checked every few sweeps.
+ */
+final class EvaluationMatrix {
+    private static final int USERS_PER_TASK = 512;
+    private static final int REPORTED_TOGGLES = 10;
+
+    private final SyntheticPopulation population;
+    private final ForkJoinPool pool;
+    private final boolean fullSweep;
+    private final int sampledToggles;
+    // Where the next sample of identical toggles starts; sweeps run one at a time
+    private int sampleOffset = 0;
+
+    static final class Result {
+        final int users;
+        final int toggles;
+        final int sweptToggles;
+        /** Swept although both modes have the same definition. */
+        final int sampledToggles;
+        final long evaluations;
+        final long elapsedNanos;
+        /** Mismatching users per toggle, largest first. */
+        final List<Map.Entry<String, Long>> mismatchesByToggle;
+        /** Mismatching (user, toggle) pairs per strategy signature, largest first. */
+        final List<Map.Entry<String, Long>> mismatchesByStrategy;
+        /** One mismatching user per toggle, to reproduce with. */
+        final Map<String, String> exampleUsers;
+
+        Result(int users, int toggles, int sweptToggles, int sampledToggles, long evaluations, long elapsedNanos,
+               List<Map.Entry<String, Long>> mismatchesByToggle, List<Map.Entry<String, Long>> mismatchesByStrategy,
+               Map<String, String> exampleUsers) {
+            this.users = users;
+            this.toggles = toggles;
+            this.sweptToggles = sweptToggles;
+            this.sampledToggles = sampledToggles;
+            this.evaluations = evaluations;
+            this.elapsedNanos = elapsedNanos;
+            this.mismatchesByToggle = mismatchesByToggle;
+            this.mismatchesByStrategy = mismatchesByStrategy;
+            this.exampleUsers = exampleUsers;
+        }
+
+        long mismatchingPairs() {
+            long total = 0;
+            for (Map.Entry<String, Long> entry : mismatchesByToggle) {
+                total += entry.getValue();
+            }
+            return total;
+        }
+
+        double evaluationsPerSecond() {
+            return elapsedNanos == 0 ? 0 : evaluations * 1e9 / elapsedNanos;
+        }
+
+        String summary() {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append(String.format("Matrix sweep: %d users x %d toggles (%d swept, %d of them sampled), "
+                    + "%d evaluations in %.1fms (%.0f/s)",
+                users, toggles, sweptToggles, sampledToggles, evaluations, elapsedNanos / 1e6, evaluationsPerSecond()));
+            if (mismatchesByToggle.isEmpty()) {
+                sb.append("\n  no mismatching users");
+                return sb.toString();
+            }
+            sb.append("\n  mismatching user/toggle pairs: ").append(mismatchingPairs());
+            for (int i = 0; i < mismatchesByToggle.size() && i < REPORTED_TOGGLES; i++) {
+                Map.Entry<String, Long> entry = mismatchesByToggle.get(i);
+                sb.append("\n  toggle ").append(entry.getKey()).append(": ").append(entry.getValue())
+                  .append(" users (e.g. ").append(exampleUsers.get(entry.getKey())).append(')');
+            }
+            if (mismatchesByToggle.size() > REPORTED_TOGGLES) {
+                sb.append("\n  ... and ").append(mismatchesByToggle.size() - REPORTED_TOGGLES).append(" more toggles");
+            }
+            for (Map.Entry<String, Long> entry : mismatchesByStrategy) {
+                sb.append("\n  strategy ").append(entry.getKey()).append(": ").append(entry.getValue()).append(" pairs");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @param fullSweep evaluate every toggle; otherwise differing toggles plus a sample
+     * @param sampledToggles identical toggles added to each sweep when not sweeping fully
+     */
+    EvaluationMatrix(SyntheticPopulation population, int parallelism, boolean fullSweep, int sampledToggles) {
+        this.population = population;
+        this.pool = new ForkJoinPool(parallelism);
+        this.fullSweep = fullSweep;
+        this.sampledToggles = Math.max(0, sampledToggles);
+    }
+
+    Result sweep(Unleash streamingClient, FeatureDefinitionTracker streamingDefinitions,
+                 Unleash pollingClient, FeatureDefinitionTracker pollingDefinitions) throws InterruptedException {
+        long start = System.nanoTime();
+        Set<String> known = new TreeSet<>(streamingDefinitions.toggleNames());
+        known.addAll(pollingDefinitions.toggleNames());
+
+        // A segment change can affect any toggle, so it forces a full sweep
+        boolean sweepAll = fullSweep || streamingDefinitions.segmentsHash() != pollingDefinitions.segmentsHash();
+        List<String> swept = new ArrayList<>();
+        List<String> identical = new ArrayList<>();
+        for (String toggle : known) {
+            if (sweepAll || streamingDefinitions.hashOf(toggle) != pollingDefinitions.hashOf(toggle)) {
+                swept.add(toggle);
+            } else {
+                identical.add(toggle);
+            }
+        }
+        int sampled = Math.min(sampledToggles, identical.size());
+        if (sampled > 0) {
+            int from = sampleOffset % identical.size();
+            for (int i = 0; i < sampled; i++) {
+                swept.add(identical.get((from + i) % identical.size()));
+            }
+            sampleOffset = (from + sampled) % identical.size();
+        }
+
+        String[] toggles = swept.toArray(new String[0]);
+        AtomicLongArray mismatches = new AtomicLongArray(toggles.length);
+        AtomicReferenceArray<String> examples = new AtomicReferenceArray<>(toggles.length);
+        LongAdder evaluations = new LongAdder();
+        int users = population.size();
+        int tasks = (users + USERS_PER_TASK - 1) / USERS_PER_TASK;
+
+        if (toggles.length > 0) {
+            try {
+                // Parallel streams run in the pool that invokes them rather than the common pool
+                pool.submit(() -> IntStream.range(0, tasks).parallel().forEach(task -> {
+                    int from = task * USERS_PER_TASK;
+                    int to = Math.min(users, from + USERS_PER_TASK);
+                    for (int user = from; user < to; user++) {
+                        UnleashContext context = population.context(user);
+                        for (int t = 0; t < toggles.length; t++) {
+                            boolean streaming = streamingClient.isEnabled(toggles[t], context);
+                            boolean polling = pollingClient.isEnabled(toggles[t], context);
+                            if (streaming != polling) {
+                                mismatches.incrementAndGet(t);
+                                examples.compareAndSet(t, null, SyntheticPopulation.userId(user));
+                            }
+                        }
+                    }
+                    evaluations.add(2L * (to - from) * toggles.length);
+                })).get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Matrix sweep failed", e.getCause());
+            }
+        }
+
+        Map<String, Long> byToggle = new HashMap<>();
+        Map<String, Long> byStrategy = new HashMap<>();
+        Map<String, String> exampleUsers = new HashMap<>();
+        for (int t = 0; t < toggles.length; t++) {
+            long count = mismatches.get(t);
+            if (count == 0) {
+                continue;
+            }
+            byToggle.put(toggles[t], count);
+            exampleUsers.put(toggles[t], examples.get(t));
+            byStrategy.merge(strategyKey(toggles[t], streamingDefinitions, pollingDefinitions), count, Long::sum);
+        }
+        return new Result(users, known.size(), toggles.length, sampled, evaluations.sum(), System.nanoTime() - start,
+            sortedByCount(byToggle), sortedByCount(byStrategy), exampleUsers);
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static String strategyKey(String toggle, FeatureDefinitionTracker streamingDefinitions,
+                                      FeatureDefinitionTracker pollingDefinitions) {
+        String streaming = Objects.toString(streamingDefinitions.strategiesOf(toggle), "(undefined)");
+        String polling = Objects.toString(pollingDefinitions.strategiesOf(toggle), "(undefined)");
+        return streaming.equals(polling) ? streaming : streaming + " | " + polling;
+    }
+
+    private static List<Map.Entry<String, Long>> sortedByCount(Map<String, Long> counts) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return entries;
+    }
+}
@@ -0,0 +1,390 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP proxy between the clients and an HTTP backend, normally the {@link LocalUnleashServer},
+ * that injects network faults on a schedule so that streaming and polling recover from the same
+ * conditions:
+ * <ul>
+ *   <li>{@code drop} - resets every open connection, streaming ones included</li>
+ *   <li>{@code half-open} - stops forwarding on every open connection and closes its backend
+ *       side, leaving the client with a socket that never delivers another byte</li>
+ *   <li>{@code 5xx} - resets every open connection and answers new ones with 503 for a while</li>
+ *   <li>{@code stall} - holds all traffic in both directions for a while, then lets it through</li>
+ *   <li>{@code latency} - delays every forwarded chunk by a number of milliseconds for a while</li>
+ *   <li>{@code bandwidth} - caps every connection at a number of bytes per second for a while</li>
+ * </ul>
+ * It works below HTTP, so backends behind TLS cannot be proxied.
+ */
+final class FaultInjectionProxy {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final byte[] UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n"
+        + "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    enum Fault {
+        DROP("drop", false, false),
+        HALF_OPEN("half-open", false, false),
+        ERRORS("5xx", true, false),
+        STALL("stall", true, false),
+        LATENCY("latency", true, true),
+        BANDWIDTH("bandwidth", true, true);
+
+        final String label;
+        final boolean hasDuration;
+        final boolean hasValue;
+
+        Fault(String label, boolean hasDuration, boolean hasValue) {
+            this.label = label;
+            this.hasDuration = hasDuration;
+            this.hasValue = hasValue;
+        }
+
+        static Fault of(String label) {
+            for (Fault fault : values()) {
+                if (fault.label.equals(label)) {
+                    return fault;
+                }
+            }
+            throw new IllegalArgumentException("Unknown fault '" + label + "'");
+        }
+    }
+
+    /**
+     * One entry of a schedule, written {@code <offset s>:<fault>[:<duration s>[:<value>]]}, e.g.
+     * {@code 60:drop}, {@code 300:5xx:30} or {@code 540:latency:60:2000}.
+     */
+    static final class ScheduledFault {
+        final long offsetMs;
+        final Fault fault;
+        final long durationMs;
+        final long value;
+
+        ScheduledFault(long offsetMs, Fault fault, long durationMs, long value) {
+            this.offsetMs = offsetMs;
+            this.fault = fault;
+            this.durationMs = durationMs;
+            this.value = value;
+        }
+
+        /** Parses a comma-separated schedule. */
+        static List<ScheduledFault> parse(String schedule) {
+            List<ScheduledFault> faults = new ArrayList<>();
+            for (String entry : schedule.split(",")) {
+                entry = entry.trim();
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                String[] fields = entry.split(":");
+                if (fields.length < 2) {
+                    throw new IllegalArgumentException("Expected <offset>:<fault> but got '" + entry + "'");
+                }
+                Fault fault = Fault.of(fields[1]);
+                int expected = 2 + (fault.hasDuration ? 1 : 0) + (fault.hasValue ? 1 : 0);
+                if (fields.length != expected) {
+                    throw new IllegalArgumentException("Fault " + fault.label + " takes "
+                        + (expected == 2 ? "no arguments" : expected == 3 ? "a duration" : "a duration and a value")
+                        + ": '" + entry + "'");
+                }
+                faults.add(new ScheduledFault(
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(fields[0])),
+                    fault,
+                    fault.hasDuration ? TimeUnit.SECONDS.toMillis(Long.parseLong(fields[2])) : 0,
+                    fault.hasValue ? Long.parseLong(fields[3]) : 0));
+            }
+            return faults;
+        }
+
+        @Override
+        public String toString() {
+            return fault.label + (fault.hasDuration ? " for " + durationMs / 1000 + "s" : "")
+                + (fault == Fault.LATENCY ? " of " + value + "ms" : fault == Fault.BANDWIDTH ? " at " + value + " B/s" : "");
+        }
+    }
+
+    /** Told about every fault; called on the proxy's schedule thread. */
+    interface Listener {
+        void faultStarted(Fault fault, long nanos);
+
+        void faultEnded(Fault fault, long nanos);
+    }
+
+    private final String upstreamHost;
+    private final int upstreamPort;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "fault-proxy-schedule");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    // Active fault conditions, read by every pump
+    private volatile long stalledUntilNanos = 0;
+    private volatile long errorsUntilNanos = 0;
+    private volatile long latencyMs = 0;
+    private volatile long bandwidthBytesPerSecond = 0;
+
+    final AtomicLong[] injected = new AtomicLong[Fault.values().length]; // indexed by Fault.ordinal()
+    final AtomicLong accepted = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+
+    /** Listens on {@code port} (0 for any) and forwards to {@code upstreamHost:upstreamPort}. */
+    FaultInjectionProxy(int port, String upstreamHost, int upstreamPort) throws IOException {
+        this.upstreamHost = upstreamHost;
+        this.upstreamPort = upstreamPort;
+        for (int i = 0; i < injected.length; i++) {
+            injected[i] = new AtomicLong();
+        }
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress("localhost", port));
+        this.acceptor = new Thread(this::acceptLoop, "fault-proxy-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    String upstream() {
+        return upstreamHost + ":" + upstreamPort;
+    }
+
+    int openConnections() {
+        return connections.size();
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /** Injects every fault at its offset from now, repeating the whole schedule every {@code cycleMs} unless 0. */
+    void schedule(List<ScheduledFault> faults, long cycleMs) {
+        for (ScheduledFault fault : faults) {
+            if (cycleMs > 0) {
+                timer.scheduleAtFixedRate(() -> inject(fault), fault.offsetMs, cycleMs, TimeUnit.MILLISECONDS);
+            } else {
+                timer.schedule(() -> inject(fault), fault.offsetMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    void inject(ScheduledFault scheduled) {
+        long now = System.nanoTime();
+        String timestamp = LocalDateTime.now().format(TIME_FORMAT);
+        System.out.println("[" + timestamp + "] [FAULT] " + scheduled + " on " + connections.size()
+            + " connections to " + upstream());
+        injected[scheduled.fault.ordinal()].incrementAndGet();
+        for (Listener listener : listeners) {
+            listener.faultStarted(scheduled.fault, now);
+        }
+        switch (scheduled.fault) {
+            case DROP:
+                resetAll();
+                break;
+            case HALF_OPEN:
+                for (Connection connection : connections) {
+                    connection.halfOpen();
+                }
+                break;
+            case ERRORS:
+                errorsUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(scheduled.durationMs);
+                resetAll();
+                break;
+            case STALL:
+                stalledUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(scheduled.durationMs);
+                break;
+            case LATENCY:
+                latencyMs = scheduled.value;
+                break;
+            case BANDWIDTH:
+                bandwidthBytesPerSecond = scheduled.value;
+                break;
+        }
+        if (scheduled.durationMs > 0) {
+            timer.schedule(() -> end(scheduled.fault), scheduled.durationMs, TimeUnit.MILLISECONDS);
+        } else {
+            end(scheduled.fault);
+        }
+    }
+
+    void stop() {
+        timer.shutdownNow();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        resetAll();
+    }
+
+    private void end(Fault fault) {
+        if (fault == Fault.LATENCY) {
+            latencyMs = 0;
+        } else if (fault == Fault.BANDWIDTH) {
+            bandwidthBytesPerSecond = 0;
+        }
+        long now = System.nanoTime();
+        for (Listener listener : listeners) {
+            listener.faultEnded(fault, now);
+        }
+    }
+
+    private void resetAll() {
+        for (Connection connection : connections) {
+            connection.reset();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                return; // Closed by stop()
+            }
+            accepted.incrementAndGet();
+            if (System.nanoTime() < errorsUntilNanos) {
+                rejected.incrementAndGet();
+                start(() -> reject(client), "fault-proxy-503-" + threadCount.incrementAndGet());
+                continue;
+            }
+            Socket upstream = new Socket();
+            try {
+                upstream.connect(new InetSocketAddress(upstreamHost, upstreamPort), CONNECT_TIMEOUT_MS);
+            } catch (IOException e) {
+                closeQuietly(upstream);
+                closeQuietly(client);
+                continue;
+            }
+            Connection connection = new Connection(client, upstream);
+            connections.add(connection);
+            int id = threadCount.incrementAndGet();
+            start(() -> connection.pump(true), "fault-proxy-up-" + id);
+            start(() -> connection.pump(false), "fault-proxy-down-" + id);
+        }
+    }
+
+    /** Answers with 503 once the request head has arrived, as an overloaded backend would. */
+    private static void reject(Socket client) {
+        try (Socket socket = client) {
+            socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+            InputStream in = socket.getInputStream();
+            int matched = 0;
+            int b;
+            while (matched < 4 && (b = in.read()) >= 0) {
+                matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(UNAVAILABLE);
+            out.flush();
+        } catch (IOException e) {
+            // The client gave up first
+        }
+    }
+
+    private static void start(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+
+    /** A client connection and its backend connection, pumped by one thread per direction. */
+    private final class Connection {
+        private final Socket client;
+        private final Socket upstream;
+        private volatile boolean blackholed = false;
+
+        Connection(Socket client, Socket upstream) {
+            this.client = client;
+            this.upstream = upstream;
+        }
+
+        void pump(boolean toUpstream) {
+            byte[] buffer = new byte[8192];
+            try {
+                InputStream in = (toUpstream ? client : upstream).getInputStream();
+                OutputStream out = (toUpstream ? upstream : client).getOutputStream();
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    awaitConditions();
+                    if (blackholed) {
+                        continue; // Swallowed, the client keeps waiting
+                    }
+                    out.write(buffer, 0, read);
+                    out.flush();
+                    long bandwidth = bandwidthBytesPerSecond;
+                    if (bandwidth > 0) {
+                        TimeUnit.MICROSECONDS.sleep(read * 1_000_000L / bandwidth);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // Reset, closed by either side, or shutting down
+            } finally {
+                // A half-open connection only ends when its client closes it
+                if (!blackholed || toUpstream) {
+                    close();
+                }
+            }
+        }
+
+        private void awaitConditions() throws InterruptedException {
+            long remaining;
+            while ((remaining = stalledUntilNanos - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(50)));
+            }
+            long latency = latencyMs;
+            if (latency > 0) {
+                TimeUnit.MILLISECONDS.sleep(latency);
+            }
+        }
+
+        void reset() {
+            try {
+                // RST rather than FIN, the way a dropped route or restarted balancer looks
+                client.setSoLinger(true, 0);
+            } catch (SocketException e) {
+                // Already closed
+            }
+            close();
+        }
+
+        void halfOpen() {
+            blackholed = true;
+            closeQuietly(upstream);
+        }
+
+        private void close() {
+            connections.remove(this);
+            closeQuietly(client);
+            closeQuietly(upstream);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.getunleash.event.ClientFeaturesResponse;
+
+import java.util.*;
+
+/**
+ * Keeps a per-mode view of feature definitions as content hashes and works out which toggles a
+ * {@link ClientFeaturesResponse} actually changed. Understands both payload shapes the SDK hands
+ * to subscribers: the full {@code /client/features} body (polling) and the
+ * {@code {"events":[...]}} delta body of the streaming endpoint.
+ */
+final class FeatureDefinitionTracker {
+    /** Hash used for a toggle that is not (or no longer) defined. */
+    static final long ABSENT = 0L;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Map<String, Long> definitions = new HashMap<>();
+    private final Map<String, String> strategies = new HashMap<>(); // toggle -> e.g. "flexibleRollout+default"
+    private long segmentsHash = ABSENT;
+    private long digest = 0; // sum of digestEntry over all definitions
+    private boolean baselineReceived = false;
+
+    static final class Change {
+        final String toggle;
+        final long previousHash;
+        final long hash;
+        final JsonObject definition;
+
+        Change(String toggle, long previousHash, long hash, JsonObject definition) {
+            this.toggle = toggle;
+            this.previousHash = previousHash;
+            this.hash = hash;
+            this.definition = definition;
+        }
+
+        boolean removed() {
+            return hash == ABSENT;
+        }
+    }
+
+    static final class Update {
+        final List<Change> changes;
+        /** True for the first payload of this mode, which establishes state rather than changing it. */
+        final boolean baseline;
+        /** Segment definitions changed, so any toggle of this mode may evaluate differently. */
+        final boolean segmentsChanged;
+        /** The payload was a streaming event message rather than a full feature set. */
+        final boolean events;
+
+        Update(List<Change> changes, boolean baseline, boolean segmentsChanged, boolean events) {
+            this.changes = changes;
+            this.baseline = baseline;
+            this.segmentsChanged = segmentsChanged;
+            this.events = events;
+        }
+    }
+
+    private static final Update NO_UPDATE = new Update(Collections.emptyList(), false, false, false);
+
+    synchronized Update apply(ClientFeaturesResponse response) {
+        if (response.getStatus() != ClientFeaturesResponse.Status.CHANGED) {
+            return NO_UPDATE;
+        }
+        Optional<String> body = response.getClientFeatures();
+        if (!body.isPresent()) {
+            return NO_UPDATE;
+        }
+        return apply(body.get(), true);
+    }
+
+    /**
+     * Applies the payload a client was bootstrapped with. The first fetched payload still counts
+     * as the baseline, and its changes are the difference to this one.
+     */
+    synchronized Update bootstrap(String body) {
+        return apply(body, false);
+    }
+
+    private Update apply(String body, boolean fetched) {
+        JsonObject root = JsonParser.parseString(body).getAsJsonObject();
+        List<Change> changes = new ArrayList<>();
+        long previousSegmentsHash = segmentsHash;
+        boolean segmentEvent = false;
+        boolean events = root.has("events");
+        if (events) {
+            for (JsonElement element : root.getAsJsonArray("events")) {
+                segmentEvent |= applyEvent(element.getAsJsonObject(), changes);
+            }
+        } else if (root.has("features")) {
+            replaceAll(root.getAsJsonArray("features"), changes);
+            segmentsHash = root.has("segments") ? hash(root.get("segments")) : ABSENT;
+        }
+        boolean baseline = fetched && !baselineReceived;
+        baselineReceived |= fetched;
+        return new Update(changes, baseline, segmentEvent || segmentsHash != previousSegmentsHash, events);
+    }
+
+    synchronized long hashOf(String toggle) {
+        return definitions.getOrDefault(toggle, ABSENT);
+    }
+
+    /** Strategy names of the toggle's current definition joined with '+', or null if undefined. */
+    synchronized String strategiesOf(String toggle) {
+        return strategies.get(toggle);
+    }
+
+    synchronized long segmentsHash() {
+        return segmentsHash;
+    }
+
+    /**
+     * Digest of every toggle's definition, independent of order and maintained as definitions
+     * change, so two views hold the same toggles when their digests are equal.
+     */
+    synchronized long digest() {
+        return digest;
+    }
+
+    synchronized List<String> toggleNames() {
+        return new ArrayList<>(definitions.keySet());
+    }
+
+    synchronized int size() {
+        return definitions.size();
+    }
+
+    /** Applies one streaming delta event; returns true if it touched segment definitions. */
+    private boolean applyEvent(JsonObject event, List<Change> changes) {
+        String type = event.has("type") ? event.get("type").getAsString() : "";
+        switch (type) {
+            case "hydration": {
+                replaceAll(event.getAsJsonArray("features"), changes);
+                long previous = segmentsHash;
+                segmentsHash = event.has("segments") ? hash(event.get("segments")) : ABSENT;
+                return segmentsHash != previous;
+            }
+            case "feature-updated":
+                put(event.getAsJsonObject("feature"), changes);
+                return false;
+            case "feature-removed":
+                remove(event.get("featureName").getAsString(), changes);
+                return false;
+            case "segment-updated":
+            case "segment-removed":
+                // Segment events don't name the toggles using them
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void replaceAll(JsonArray features, List<Change> changes) {
+        Set<String> seen = new HashSet<>(features.size() * 2);
+        for (JsonElement element : features) {
+            JsonObject feature = element.getAsJsonObject();
+            seen.add(feature.get("name").getAsString());
+            put(feature, changes);
+        }
+        for (String toggle : new ArrayList<>(definitions.keySet())) {
+            if (!seen.contains(toggle)) {
+                remove(toggle, changes);
+            }
+        }
+    }
+
+    private void put(JsonObject feature, List<Change> changes) {
+        String toggle = feature.get("name").getAsString();
+        long hash = hash(feature);
+        Long previous = definitions.put(toggle, hash);
+        long previousHash = previous == null ? ABSENT : previous;
+        if (previousHash != hash) {
+            digest += digestEntry(toggle, hash) - digestEntry(toggle, previousHash);
+            strategies.put(toggle, strategySignature(feature));
+            changes.add(new Change(toggle, previousHash, hash, feature));
+        }
+    }
+
+    private void remove(String toggle, List<Change> changes) {
+        Long previous = definitions.remove(toggle);
+        strategies.remove(toggle);
+        if (previous != null) {
+            digest -= digestEntry(toggle, previous);
+            changes.add(new Change(toggle, previous, ABSENT, null));
+        }
+    }
+
+    private static String strategySignature(JsonObject feature) {
+        JsonArray array = feature.has("strategies") ? feature.getAsJsonArray("strategies") : null;
+        if (array == null || array.size() == 0) {
+            return "(none)";
+        }
+        StringJoiner joiner = new StringJoiner("+");
+        for (JsonElement strategy : array) {
+            joiner.add(strategy.getAsJsonObject().get("name").getAsString());
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Content hash of a feature definition, independent of JSON key order so that the polling
+     * and streaming renderings of the same definition hash equally.
+     */
+    static long hash(JsonElement element) {
+        long hash = mix(FNV_OFFSET, element);
+        return hash == ABSENT ? 1 : hash;
+    }
+
+    private static long mix(long hash, JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            return fnv(hash, "null");
+        }
+        if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            List<String> keys = new ArrayList<>(object.keySet());
+            Collections.sort(keys);
+            hash = fnv(hash, "{");
+            for (String key : keys) {
+                JsonElement value = object.get(key);
+                if (value.isJsonNull()) {
+                    continue;
+                }
+                hash = mix(fnv(hash, key), value);
+            }
+            return fnv(hash, "}");
+        }
+        if (element.isJsonArray()) {
+            hash = fnv(hash, "[");
+            for (JsonElement value : element.getAsJsonArray()) {
+                hash = mix(hash, value);
+            }
+            return fnv(hash, "]");
+        }
+        return fnv(hash, element.getAsJsonPrimitive().getAsString());
+    }
+
+    /** One toggle's share of {@link #digest()}; 0 for an absent toggle. */
+    static long digestEntry(String toggle, long hash) {
+        if (hash == ABSENT) {
+            return 0;
+        }
+        long h = fnv(FNV_OFFSET, toggle) ^ (hash * FNV_PRIME);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        hash ^= 0xff;
+        return hash * FNV_PRIME;
+    }
+}
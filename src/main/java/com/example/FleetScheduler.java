@@ -0,0 +1,86 @@
+package com.example;
+
+import io.getunleash.util.UnleashScheduledExecutor;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link UnleashScheduledExecutor} shared by every client of a fleet. The SDK's default executor
+ * is a process-wide singleton that runs all fetches and event dispatches on one thread each and
+ * is shut down by whichever client shuts down first; neither works for thousands of clients.
+ *
+ * <p>One timer thread only fires tasks; the tasks themselves run on virtual threads when the JVM
+ * has them (looked up reflectively, the app targets Java 11) and on a fixed platform pool
+ * otherwise. Unlike the SDK executor, dispatches of one client may run concurrently.
+ */
+final class FleetScheduler implements UnleashScheduledExecutor {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "fleet-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService workers;
+    private final boolean virtual;
+
+    FleetScheduler(boolean preferVirtualThreads, int platformThreads) {
+        ExecutorService virtualWorkers = preferVirtualThreads ? newVirtualThreadExecutor() : null;
+        this.virtual = virtualWorkers != null;
+        this.workers = virtual ? virtualWorkers : Executors.newFixedThreadPool(platformThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fleet-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    boolean usesVirtualThreads() {
+        return virtual;
+    }
+
+    @Override
+    public ScheduledFuture<?> setInterval(Runnable command, long initialDelaySec, long periodSec) {
+        // A run still in progress when the next one is due is skipped, as with the SDK's
+        // single-threaded executor
+        AtomicBoolean running = new AtomicBoolean(false);
+        return timer.scheduleAtFixedRate(() -> {
+            if (running.compareAndSet(false, true)) {
+                workers.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        running.set(false);
+                    }
+                });
+            }
+        }, initialDelaySec, periodSec, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public Future<Void> scheduleOnce(Runnable runnable) {
+        return CompletableFuture.runAsync(runnable, workers);
+    }
+
+    /** Ignored: clients call this on shutdown, but the executor outlives any one client. */
+    @Override
+    public void shutdown() {
+    }
+
+    void close() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.example;
+
+import com.google.gson.JsonObject;
+import io.getunleash.DefaultUnleash;
+import io.getunleash.Unleash;
+import io.getunleash.event.ClientFeaturesResponse;
+import io.getunleash.event.UnleashSubscriber;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory profile of one client per mode for growing flag sets. Every toggle count and mode is
+ * measured in a JVM of its own, because the SDK's WASM engine is static: a client started after
+ * another reuses the engine memory the first one grew, and would look free. In the child, a
+ * client with no toggles is started first so the engine's one-off cost is reported apart from
+ * the profiled client's retained heap, and what applying an update allocates. Allocation is read
+ * from the per-thread counters of the client's threads only, so the in-process server's
+ * serialization is not charged to the client; transient garbage is what an update allocates
+ * beyond what it leaves retained.
+ *
+ * <p>Run with {@code mvn exec:java -Dexec.mainClass=com.example.FootprintProfiler}.
+ */
+public class FootprintProfiler {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    // Loading and re-reading large flag sets in the engine takes seconds per thousand toggles
+    private static final long UPDATE_TIMEOUT_MS = 60_000;
+    private static final long UPDATE_TIMEOUT_MS_PER_TOGGLE = 3;
+    private static final long SETTLE_MS = 250; // Polling applies a payload after notifying subscribers
+    private static final String RESULT_PREFIX = "FOOTPRINT-RESULT ";
+
+    private final int updates;
+    private final int changesPerUpdate;
+    private final int pollSeconds;
+    private final long seed;
+    private final com.sun.management.ThreadMXBean threads;
+
+    /** Measurements of one client; heap figures in bytes. */
+    static final class Profile {
+        final ClientMode mode;
+        final int toggles;
+        final long runtimeBytes;
+        final long retainedBytes;
+        final long allocatedPerUpdate;
+        final long retainedPerUpdate;
+        final long loadAllocated;
+
+        Profile(ClientMode mode, int toggles, long runtimeBytes, long retainedBytes, long allocatedPerUpdate,
+                long retainedPerUpdate, long loadAllocated) {
+            this.mode = mode;
+            this.toggles = toggles;
+            this.runtimeBytes = runtimeBytes;
+            this.retainedBytes = retainedBytes;
+            this.allocatedPerUpdate = allocatedPerUpdate;
+            this.retainedPerUpdate = retainedPerUpdate;
+            this.loadAllocated = loadAllocated;
+        }
+
+        long garbagePerUpdate() {
+            return allocatedPerUpdate - Math.max(0, retainedPerUpdate);
+        }
+
+        /** One line for the parent process to parse. */
+        String toLine() {
+            return RESULT_PREFIX + mode.name() + " " + toggles + " " + runtimeBytes + " " + retainedBytes + " "
+                + allocatedPerUpdate + " " + retainedPerUpdate + " " + loadAllocated;
+        }
+
+        static Profile parse(String line) {
+            String[] fields = line.substring(RESULT_PREFIX.length()).split(" ");
+            return new Profile(ClientMode.valueOf(fields[0]), Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+                Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]), Long.parseLong(fields[6]));
+        }
+
+        String summary() {
+            return String.format("%-9s %6d toggles: engine %5.1f MB, retained %7.1f MB (%5d B/toggle), load allocated %7.1f MB | "
+                    + "per update: allocated %8.1f KB, retained %+8.1f KB, garbage %8.1f KB",
+                mode.label, toggles, runtimeBytes / 1048576.0, retainedBytes / 1048576.0, retainedBytes / Math.max(1, toggles),
+                loadAllocated / 1048576.0, allocatedPerUpdate / 1024.0, retainedPerUpdate / 1024.0,
+                garbagePerUpdate() / 1024.0);
+        }
+    }
+
+    /** Releases a permit for every payload the client reports as changed. */
+    private static final class UpdateSignal implements UnleashSubscriber {
+        private final Semaphore changed = new Semaphore(0);
+        private final long timeoutMs;
+
+        UpdateSignal(int toggleCount) {
+            this.timeoutMs = Math.max(UPDATE_TIMEOUT_MS, toggleCount * UPDATE_TIMEOUT_MS_PER_TOGGLE);
+        }
+
+        @Override
+        public void togglesFetched(ClientFeaturesResponse response) {
+            if (response.getStatus() == ClientFeaturesResponse.Status.CHANGED) {
+                changed.release();
+            }
+        }
+
+        boolean await() throws InterruptedException {
+            return changed.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        void reset() {
+            changed.drainPermits();
+        }
+    }
+
+    FootprintProfiler(int updates, int changesPerUpdate, int pollSeconds, long seed) {
+        this.updates = updates;
+        this.changesPerUpdate = changesPerUpdate;
+        this.pollSeconds = pollSeconds;
+        this.seed = seed;
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            log("Per-thread allocation counters are not supported by this JVM; allocation figures will be 0");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = UnleashComparisonApp.getOrElse("FOOTPRINT_TOGGLE_COUNTS", "1000,10000,50000").split(",");
+        int updates = Integer.parseInt(UnleashComparisonApp.getOrElse("FOOTPRINT_UPDATES", "5"));
+        int changesPerUpdate = Integer.parseInt(UnleashComparisonApp.getOrElse("FOOTPRINT_CHANGES_PER_UPDATE", "10"));
+        int pollSeconds = Integer.parseInt(UnleashComparisonApp.getOrElse("FOOTPRINT_POLL_SECONDS", "1"));
+        long seed = Long.parseLong(UnleashComparisonApp.getOrElse("FOOTPRINT_SEED", "42"));
+        int attempts = Integer.parseInt(UnleashComparisonApp.getOrElse("FOOTPRINT_ATTEMPTS", "3"));
+
+        if (args.length == 2) {
+            // Child: profile one configuration, print the result and exit without waiting for the SDK
+            try {
+                FootprintProfiler profiler = new FootprintProfiler(updates, changesPerUpdate, pollSeconds, seed);
+                System.out.println(profiler.profile(ClientMode.valueOf(args[0]), Integer.parseInt(args[1])).toLine());
+                System.exit(0);
+            } catch (Throwable e) {
+                log(args[0].toLowerCase() + " with " + args[1] + " toggles failed: " + e);
+                System.exit(1);
+            }
+        }
+
+        log("Footprint: " + String.join(", ", sizes) + " toggles, " + updates + " updates of "
+            + changesPerUpdate + " changes, polling every " + pollSeconds + "s, one JVM per measurement");
+        List<String> report = new ArrayList<>();
+        for (String size : sizes) {
+            for (ClientMode mode : new ClientMode[]{ClientMode.STREAMING, ClientMode.POLLING}) {
+                int toggleCount = Integer.parseInt(size.trim());
+                Profile profile = null;
+                int attempt = 0;
+                // A child can still fail at random, e.g. when the engine traps on a large flag set
+                while (profile == null && attempt < attempts) {
+                    attempt++;
+                    profile = fork(mode, toggleCount);
+                }
+                String line = profile != null ? profile.summary()
+                    : String.format("%-9s %6d toggles: no result", mode.label, toggleCount);
+                if (attempt > 1) {
+                    line += " (" + (profile == null ? attempt : attempt - 1) + " of " + attempt + " attempts failed)";
+                }
+                log(line);
+                report.add(line);
+            }
+        }
+
+        log("Report");
+        for (String line : report) {
+            log("  " + line);
+        }
+    }
+
+    /** Runs one measurement in a child JVM with this JVM's options and classpath. */
+    private static Profile fork(ClientMode mode, int toggleCount) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        // C2 has been seen to miscompile the engine's generated code and trap on large flag sets
+        String jvmOptions = UnleashComparisonApp.getOrElse("FOOTPRINT_JVM_OPTIONS", "-XX:TieredStopAtLevel=1");
+        command.addAll(Arrays.asList(jvmOptions.trim().split("\\s+")));
+        command.add("-cp");
+        command.add(classPath());
+        command.add(FootprintProfiler.class.getName());
+        command.add(mode.name());
+        command.add(String.valueOf(toggleCount));
+
+        Process child = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Profile profile = null;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = out.readLine(); line != null; line = out.readLine()) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    profile = Profile.parse(line);
+                } else if (line.matches("\\[\\d{2}:.*")) {
+                    System.out.println(line); // The child's own log lines; SDK logging is dropped
+                }
+            }
+        }
+        int exit = child.waitFor();
+        if (profile == null && exit != 1) { // Exit code 1 was already explained by the child
+            log(mode.label + " with " + toggleCount + " toggles failed (exit code " + exit + ")");
+        }
+        return profile;
+    }
+
+    /** Under {@code mvn exec:java} the project classpath lives in a class loader, not java.class.path. */
+    private static String classPath() {
+        ClassLoader loader = FootprintProfiler.class.getClassLoader();
+        if (!(loader instanceof URLClassLoader)) {
+            return System.getProperty("java.class.path");
+        }
+        StringJoiner path = new StringJoiner(File.pathSeparator);
+        for (URL url : ((URLClassLoader) loader).getURLs()) {
+            try {
+                path.add(new File(url.toURI()).getPath());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                path.add(url.getPath());
+            }
+        }
+        return path.toString();
+    }
+
+    /** Profiles one client; meant to run in a fresh JVM, and leaves its clients running. */
+    Profile profile(ClientMode mode, int toggleCount) throws IOException, InterruptedException {
+        Random random = new Random(seed);
+        LocalUnleashServer server = new LocalUnleashServer(0);
+        server.seed(toggleCount, random);
+        server.start();
+        warmServerPayload(server);
+        Path backupDir = Files.createTempDirectory("unleash-footprint");
+        try {
+            // Pays for the engine, class initialization and the SDK's shared state
+            long heapEmpty = ClientFleet.settledHeapUsed();
+            LocalUnleashServer emptyServer = new LocalUnleashServer(0);
+            emptyServer.start();
+            // Its constructor fetches synchronously; an empty payload is never reported as changed
+            startClient(mode, emptyServer, new File(backupDir.toFile(), "warm-up.json"), 3600, new UpdateSignal(0));
+            Thread.sleep(SETTLE_MS);
+
+            Set<Long> excluded = serverThreads();
+            UpdateSignal signal = new UpdateSignal(toggleCount);
+            long heapBefore = ClientFleet.settledHeapUsed();
+            Map<Long, Long> allocationBefore = allocatedBytes(excluded);
+            startClient(mode, server, new File(backupDir.toFile(), "backup.json"), pollSeconds, signal);
+            if (!signal.await()) {
+                log(mode.label + " client did not load " + toggleCount + " toggles within " + signal.timeoutMs + "ms");
+            }
+            Thread.sleep(SETTLE_MS);
+            // The constructor fetches on this thread, so the load is charged to every client thread
+            excluded = serverThreads();
+            long loadAllocated = allocatedSince(allocationBefore, excluded);
+            long heapLoaded = ClientFleet.settledHeapUsed();
+
+            long allocated = 0;
+            List<String> names = server.featureNames();
+            excluded.add(Thread.currentThread().getId()); // From here on this thread only publishes
+            for (int i = 0; i < updates; i++) {
+                List<JsonObject> changed = new ArrayList<>(changesPerUpdate);
+                for (int c = 0; c < changesPerUpdate; c++) {
+                    changed.add(SyntheticFeatures.mutate(server.feature(names.get(random.nextInt(names.size()))), random));
+                }
+                signal.reset();
+                Map<Long, Long> before = allocatedBytes(excluded);
+                server.upsert(changed);
+                if (!signal.await()) {
+                    log(mode.label + " client missed update " + (i + 1));
+                }
+                Thread.sleep(SETTLE_MS);
+                allocated += allocatedSince(before, excluded);
+            }
+            long heapUpdated = ClientFleet.settledHeapUsed();
+
+            return new Profile(mode, toggleCount, heapBefore - heapEmpty, heapLoaded - heapBefore,
+                allocated / Math.max(1, updates), (heapUpdated - heapLoaded) / Math.max(1, updates), loadAllocated);
+        } finally {
+            File[] backups = backupDir.toFile().listFiles();
+            if (backups != null) {
+                for (File backup : backups) {
+                    backup.delete();
+                }
+            }
+            backupDir.toFile().delete();
+        }
+    }
+
+    private static Unleash startClient(ClientMode mode, LocalUnleashServer server, File backup, int pollSeconds,
+                                       UpdateSignal signal) {
+        // Platform workers, so that every task's allocation lands on a thread we can attribute
+        return new DefaultUnleash(UnleashComparisonApp
+            .clientConfig(mode, server.url(), "*:development.footprint")
+            .appName("comparison-footprint-" + mode.label)
+            .fetchTogglesInterval(pollSeconds)
+            .backupFile(backup.getPath())
+            .scheduledExecutor(new FleetScheduler(false, 2))
+            .disableMetrics()
+            .subscriber(signal)
+            .build());
+    }
+
+    /** Builds the server's cached payload up front so it is not counted as client heap. */
+    private static void warmServerPayload(LocalUnleashServer server) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(server.url() + "/client/features").openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) >= 0) {
+                // Discard
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /** Ids of threads whose allocations belong to the in-process server rather than a client. */
+    private Set<Long> serverThreads() {
+        Set<Long> ids = new HashSet<>();
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && (info.getThreadName().startsWith("local-unleash")
+                    || info.getThreadName().startsWith("HTTP-Dispatcher"))) {
+                ids.add(info.getThreadId());
+            }
+        }
+        return ids;
+    }
+
+    private Map<Long, Long> allocatedBytes(Set<Long> excluded) {
+        Map<Long, Long> allocated = new HashMap<>();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return allocated;
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0 && !excluded.contains(ids[i])) {
+                allocated.put(ids[i], bytes[i]);
+            }
+        }
+        return allocated;
+    }
+
+    /** Bytes allocated since {@code before}; threads that exited in between are not counted. */
+    private long allocatedSince(Map<Long, Long> before, Set<Long> excluded) {
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : allocatedBytes(excluded).entrySet()) {
+            total += entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+        }
+        return total;
+    }
+
+    private static void log(String message) {
+        System.out.println("[" + LocalDateTime.now().format(TIME_FORMAT) + "] " + message);
+    }
+}
@@ -0,0 +1,410 @@
+package com.example;
+
+import io.getunleash.Unleash;
+import io.getunleash.UnleashContext;
+import io.getunleash.variant.Variant;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Change-driven comparison state. Instead of re-evaluating every toggle on every update, callers
+ * mark the toggles whose definitions changed in one mode and {@link #refresh(ClientMode)}
+ * evaluates just those, once, on that mode's client. The diff between the modes (mismatched
+ * values, toggles known to only one mode) is maintained incrementally, so the cost of an update
+ * follows the size of the change rather than the number of flags.
+ *
+ * <p>Every change to a toggle's observable state (either mode's value, where it is defined, or
+ * its removal) gets the next value of a monotonic version, so consumers can ask for just the
+ * toggles that changed since the version they last saw. The changed toggles are also all that
+ * {@link #snapshot} rebuilds.
+ *
+ * <p>Each evaluation also feeds the mode's {@link EvaluationFingerprint}, which covers variants
+ * as well as values. While the fingerprints match, a check needs nothing per toggle; when they
+ * don't, bisection finds the toggles whose variants differ although their values agree.
+ */
+final class IncrementalComparator {
+    private final Unleash[] clients = new Unleash[2];
+    private final UnleashContext[] contexts = new UnleashContext[2];
+    private final FeatureDefinitionTracker[] definitions = new FeatureDefinitionTracker[2];
+    private final List<Map<String, Boolean>> values = List.of(new HashMap<>(), new HashMap<>());
+
+    // Marked without taking the evaluation lock, so marking never waits for a refresh
+    private final List<Set<String>> dirty = List.of(ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet());
+    private final List<Set<String>> onlyIn = List.of(new TreeSet<>(), new TreeSet<>());
+    private final Set<String> mismatched = new TreeSet<>();
+    private final Set<String> variantMismatched = new TreeSet<>();
+    private final Set<String> resolved = new HashSet<>();
+    private final EvaluationFingerprint fingerprint = new EvaluationFingerprint(1024);
+    private long evaluations = 0;
+    /** isEnabled latency per mode, indexed by {@link ClientMode#ordinal()}. */
+    final LatencyHistogram[] evaluationLatency = {new LatencyHistogram(), new LatencyHistogram()};
+
+    private static final int MAX_TOMBSTONES = 10_000;
+    private long version = 0;
+    private final Map<String, Long> versionOf = new HashMap<>();
+    // Removed toggles still reported to deltas, oldest first; older ones force a full snapshot
+    private final LinkedHashMap<String, Long> tombstones = new LinkedHashMap<>();
+    private long tombstoneFloor = 0;
+
+    // Toggles changed since the last snapshot, sorted so they merge into its chunks in one pass
+    private final TreeSet<String> unpublished = new TreeSet<>();
+    private boolean tombstonesChanged = false;
+    private ComparisonSnapshot.Toggles published = ComparisonSnapshot.Toggles.EMPTY;
+
+    IncrementalComparator(UnleashContext streamingContext, FeatureDefinitionTracker streamingDefinitions,
+                          UnleashContext pollingContext, FeatureDefinitionTracker pollingDefinitions) {
+        contexts[ClientMode.STREAMING.ordinal()] = streamingContext;
+        contexts[ClientMode.POLLING.ordinal()] = pollingContext;
+        definitions[ClientMode.STREAMING.ordinal()] = streamingDefinitions;
+        definitions[ClientMode.POLLING.ordinal()] = pollingDefinitions;
+    }
+
+    /**
+     * Connects a mode's client once it is constructed. Changes marked before this (the clients
+     * notify subscribers during construction) are evaluated by the first refresh afterwards.
+     */
+    synchronized void attach(ClientMode mode, Unleash client) {
+        clients[mode.ordinal()] = client;
+    }
+
+    void markChanged(ClientMode mode, List<FeatureDefinitionTracker.Change> changes) {
+        Set<String> modeDirty = dirty.get(mode.ordinal());
+        for (FeatureDefinitionTracker.Change change : changes) {
+            modeDirty.add(change.toggle);
+        }
+    }
+
+    /** Marks every toggle known to {@code mode}, e.g. after a segment change. */
+    void markAll(ClientMode mode) {
+        dirty.get(mode.ordinal()).addAll(definitions[mode.ordinal()].toggleNames());
+        dirty.get(mode.ordinal()).addAll(values.get(mode.ordinal()).keySet());
+    }
+
+    /** Re-evaluates the toggles marked for {@code mode}; returns how many were evaluated. */
+    synchronized int refresh(ClientMode mode) {
+        if (clients[mode.ordinal()] == null || dirty.get(mode.ordinal()).isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        Iterator<String> it = dirty.get(mode.ordinal()).iterator();
+        while (it.hasNext()) {
+            String toggle = it.next();
+            it.remove();
+            evaluate(mode, toggle);
+            count++;
+        }
+        return count;
+    }
+
+    synchronized int refreshAll() {
+        return refresh(ClientMode.STREAMING) + refresh(ClientMode.POLLING);
+    }
+
+    private void evaluate(ClientMode mode, String toggle) {
+        int m = mode.ordinal();
+        int o = mode.other().ordinal();
+        boolean defined = definitions[m].hashOf(toggle) != FeatureDefinitionTracker.ABSENT;
+        boolean definedInOther = definitions[o].hashOf(toggle) != FeatureDefinitionTracker.ABSENT;
+        if (!defined && !definedInOther) {
+            boolean known = values.get(m).remove(toggle) != null;
+            known |= values.get(o).remove(toggle) != null;
+            onlyIn.get(m).remove(toggle);
+            onlyIn.get(o).remove(toggle);
+            if (mismatched.remove(toggle) | variantMismatched.remove(toggle)) {
+                resolved.add(toggle);
+            }
+            fingerprint.clear(mode, toggle);
+            fingerprint.clear(mode.other(), toggle);
+            if (known) {
+                bumpVersion(toggle, true);
+            }
+            return;
+        }
+
+        // An undefined toggle evaluates to false, exactly like isEnabled would report it
+        boolean value = false;
+        if (defined) {
+            long start = System.nanoTime();
+            value = clients[m].isEnabled(toggle, contexts[m]);
+            evaluationLatency[m].recordNanos(System.nanoTime() - start);
+            fingerprint.set(mode, toggle, value, clients[m].getVariant(toggle, contexts[m]));
+        } else {
+            fingerprint.clear(mode, toggle);
+        }
+        evaluations++;
+        boolean changed = !Boolean.valueOf(value).equals(values.get(m).put(toggle, value));
+        Boolean otherValue = values.get(o).get(toggle);
+        if (otherValue == null) {
+            otherValue = false;
+            values.get(o).put(toggle, false);
+        }
+
+        changed |= setMembership(onlyIn.get(m), toggle, defined && !definedInOther);
+        changed |= setMembership(onlyIn.get(o), toggle, definedInOther && !defined);
+        if (changed) {
+            bumpVersion(toggle, false);
+        }
+        if (value != otherValue) {
+            mismatched.add(toggle);
+            resolved.remove(toggle);
+        } else if (mismatched.remove(toggle) && !variantMismatched.contains(toggle)) {
+            resolved.add(toggle);
+        }
+    }
+
+    /** Returns true if membership changed. */
+    private static boolean setMembership(Set<String> set, String toggle, boolean member) {
+        return member ? set.add(toggle) : set.remove(toggle);
+    }
+
+    private void bumpVersion(String toggle, boolean removed) {
+        version++;
+        versionOf.put(toggle, version);
+        unpublished.add(toggle);
+        tombstonesChanged |= tombstones.remove(toggle) != null;
+        if (removed) {
+            tombstones.put(toggle, version);
+            tombstonesChanged = true;
+            if (tombstones.size() > MAX_TOMBSTONES) {
+                Iterator<Map.Entry<String, Long>> oldest = tombstones.entrySet().iterator();
+                Map.Entry<String, Long> entry = oldest.next();
+                oldest.remove();
+                versionOf.remove(entry.getKey());
+                tombstoneFloor = entry.getValue();
+            }
+        }
+    }
+
+    synchronized long version() {
+        return version;
+    }
+
+    /** True when both modes define the same toggles with the same values and variants; O(1). */
+    synchronized boolean fingerprintsMatch() {
+        return fingerprint.matches();
+    }
+
+    synchronized long fingerprint(ClientMode mode) {
+        return fingerprint.fingerprint(mode);
+    }
+
+    /**
+     * True when the modes agree and nothing changed after {@code sinceVersion} or is waiting in
+     * {@link #drainResolved()} or {@link #drainVariantMismatches()}; O(1).
+     */
+    synchronized boolean unchangedSince(long sinceVersion) {
+        return version == sinceVersion && fingerprint.matches() && mismatched.isEmpty()
+            && variantMismatched.isEmpty() && resolved.isEmpty();
+    }
+
+    /**
+     * Toggles defined in both modes with the same value but a different variant, found by
+     * bisecting the fingerprints. Only looks; see {@link #drainVariantMismatches()}.
+     */
+    synchronized List<String> variantMismatchedToggles() {
+        if (fingerprint.matches()) {
+            return Collections.emptyList();
+        }
+        List<String> current = new ArrayList<>();
+        for (String toggle : fingerprint.differing()) {
+            if (!mismatched.contains(toggle) && !onlyIn.get(ClientMode.STREAMING.ordinal()).contains(toggle)
+                    && !onlyIn.get(ClientMode.POLLING.ordinal()).contains(toggle)) {
+                current.add(toggle);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Records the current {@link #variantMismatchedToggles()} and returns them. Toggles recorded
+     * by the previous call that no longer differ count as resolved.
+     */
+    synchronized List<String> drainVariantMismatches() {
+        if (fingerprint.matches() && variantMismatched.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> current = variantMismatchedToggles();
+        Set<String> stillDiffering = new HashSet<>(current);
+        for (String toggle : variantMismatched) {
+            if (!stillDiffering.contains(toggle) && !mismatched.contains(toggle)) {
+                resolved.add(toggle);
+            }
+        }
+        variantMismatched.clear();
+        variantMismatched.addAll(current);
+        resolved.removeAll(current);
+        return current;
+    }
+
+    synchronized int variantMismatchedCount() {
+        return variantMismatched.size();
+    }
+
+    /** What {@code mode} returns from getVariant for {@code toggle}, for reporting a mismatch. */
+    synchronized Variant variant(ClientMode mode, String toggle) {
+        Unleash client = clients[mode.ordinal()];
+        return client == null ? Variant.DISABLED_VARIANT : client.getVariant(toggle, contexts[mode.ordinal()]);
+    }
+
+    /**
+     * Immutable view for publishing to readers. Only the chunks holding toggles that changed
+     * since the previous snapshot are rebuilt; the others are shared with it.
+     */
+    synchronized ComparisonSnapshot snapshot(String comparisonTime, List<String> discrepancies,
+                                             long comparisons, long mismatches) {
+        if (!unpublished.isEmpty()) {
+            published = new ComparisonSnapshot.Toggles(patch(published.chunks), published.removed,
+                published.removedVersions, published.removedFloor);
+            unpublished.clear();
+        }
+        if (tombstonesChanged) {
+            String[] removed = new String[tombstones.size()];
+            long[] removedVersions = new long[removed.length];
+            int i = 0;
+            for (Map.Entry<String, Long> tombstone : tombstones.entrySet()) {
+                removed[i] = tombstone.getKey();
+                removedVersions[i++] = tombstone.getValue();
+            }
+            published = published.withRemoved(removed, removedVersions, tombstoneFloor);
+            tombstonesChanged = false;
+        }
+        return new ComparisonSnapshot(version, comparisonTime, Collections.unmodifiableList(new ArrayList<>(discrepancies)),
+            published, mismatched.size(), variantMismatched.size(),
+            onlyIn.get(ClientMode.STREAMING.ordinal()).size(), onlyIn.get(ClientMode.POLLING.ordinal()).size(),
+            evaluations, comparisons, mismatches);
+    }
+
+    /** Merges the {@link #unpublished} toggles' current state into {@code chunks}. */
+    private ComparisonSnapshot.Chunk[] patch(ComparisonSnapshot.Chunk[] chunks) {
+        if (chunks.length == 0) {
+            chunks = new ComparisonSnapshot.Chunk[]{new ComparisonSnapshot.Chunk(new String[0], new byte[0], new long[0])};
+        }
+        List<ComparisonSnapshot.Chunk> patched = new ArrayList<>(chunks.length + 1);
+        for (int c = 0; c < chunks.length; c++) {
+            ComparisonSnapshot.Chunk chunk = chunks[c];
+            // A chunk covers the names from its first toggle to the next chunk's; the first
+            // chunk also takes any before it
+            String from = c == 0 ? null : chunk.toggles[0];
+            String to = c + 1 < chunks.length ? chunks[c + 1].toggles[0] : null;
+            SortedSet<String> changed = from == null
+                ? (to == null ? unpublished : unpublished.headSet(to))
+                : (to == null ? unpublished.tailSet(from) : unpublished.subSet(from, to));
+            if (changed.isEmpty()) {
+                patched.add(chunk);
+                continue;
+            }
+            int capacity = chunk.size() + changed.size();
+            String[] toggles = new String[capacity];
+            byte[] flags = new byte[capacity];
+            long[] versions = new long[capacity];
+            int size = 0;
+            int i = 0;
+            Iterator<String> it = changed.iterator();
+            String next = it.next();
+            while (i < chunk.size() || next != null) {
+                int order = next == null ? -1 : i == chunk.size() ? 1 : chunk.toggles[i].compareTo(next);
+                if (order < 0) {
+                    toggles[size] = chunk.toggles[i];
+                    flags[size] = chunk.flags[i];
+                    versions[size++] = chunk.versions[i++];
+                    continue;
+                }
+                if (order == 0) {
+                    i++; // replaced by, or removed with, its current state
+                }
+                if (values.get(ClientMode.STREAMING.ordinal()).containsKey(next)) {
+                    toggles[size] = next;
+                    flags[size] = flags(next);
+                    versions[size++] = versionOf.getOrDefault(next, 0L);
+                }
+                next = it.hasNext() ? it.next() : null;
+            }
+            addChunks(patched, toggles, flags, versions, size);
+        }
+        return patched.toArray(new ComparisonSnapshot.Chunk[0]);
+    }
+
+    /**
+     * Appends {@code size} merged toggles as one chunk, or several of {@link
+     * ComparisonSnapshot#CHUNK_SIZE} once they outgrow two; a small result is folded into the
+     * chunk before it so removals don't leave a trail of tiny chunks.
+     */
+    private static void addChunks(List<ComparisonSnapshot.Chunk> patched, String[] toggles, byte[] flags,
+                                  long[] versions, int size) {
+        if (size == 0) {
+            return;
+        }
+        int from = 0;
+        if (size < ComparisonSnapshot.CHUNK_SIZE / 2 && !patched.isEmpty()
+                && patched.get(patched.size() - 1).size() + size <= ComparisonSnapshot.CHUNK_SIZE * 2) {
+            ComparisonSnapshot.Chunk previous = patched.remove(patched.size() - 1);
+            int merged = previous.size() + size;
+            String[] mergedToggles = Arrays.copyOf(previous.toggles, merged);
+            byte[] mergedFlags = Arrays.copyOf(previous.flags, merged);
+            long[] mergedVersions = Arrays.copyOf(previous.versions, merged);
+            System.arraycopy(toggles, 0, mergedToggles, previous.size(), size);
+            System.arraycopy(flags, 0, mergedFlags, previous.size(), size);
+            System.arraycopy(versions, 0, mergedVersions, previous.size(), size);
+            patched.add(new ComparisonSnapshot.Chunk(mergedToggles, mergedFlags, mergedVersions));
+            return;
+        }
+        int step = size > ComparisonSnapshot.CHUNK_SIZE * 2 ? ComparisonSnapshot.CHUNK_SIZE : size;
+        while (from < size) {
+            int to = Math.min(size, from + step);
+            patched.add(new ComparisonSnapshot.Chunk(Arrays.copyOfRange(toggles, from, to),
+                Arrays.copyOfRange(flags, from, to), Arrays.copyOfRange(versions, from, to)));
+            from = to;
+        }
+    }
+
+    private byte flags(String toggle) {
+        int s = ClientMode.STREAMING.ordinal();
+        int p = ClientMode.POLLING.ordinal();
+        return (byte) (ComparisonSnapshot.flag(ClientMode.STREAMING, values.get(s).get(toggle), !onlyIn.get(p).contains(toggle))
+            | ComparisonSnapshot.flag(ClientMode.POLLING, Boolean.TRUE.equals(values.get(p).get(toggle)), !onlyIn.get(s).contains(toggle)));
+    }
+
+    synchronized List<String> mismatchedToggles() {
+        return new ArrayList<>(mismatched);
+    }
+
+    synchronized int mismatchedCount() {
+        return mismatched.size();
+    }
+
+    synchronized int onlyInCount(ClientMode mode) {
+        return onlyIn.get(mode.ordinal()).size();
+    }
+
+    synchronized List<String> onlyIn(ClientMode mode) {
+        return new ArrayList<>(onlyIn.get(mode.ordinal()));
+    }
+
+    /** Returns and forgets the toggles that went from mismatched back to matching. */
+    synchronized List<String> drainResolved() {
+        if (resolved.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> drained = new ArrayList<>(resolved);
+        resolved.clear();
+        return drained;
+    }
+
+    synchronized boolean value(ClientMode mode, String toggle) {
+        Boolean value = values.get(mode.ordinal()).get(toggle);
+        return value != null && value;
+    }
+
+    synchronized int toggleCount() {
+        return values.get(ClientMode.STREAMING.ordinal()).size();
+    }
+
+    int pendingCount(ClientMode mode) {
+        return dirty.get(mode.ordinal()).size();
+    }
+
+    synchronized long evaluations() {
+        return evaluations;
+    }
+}
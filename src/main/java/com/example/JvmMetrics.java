@@ -0,0 +1,71 @@
+package com.example;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Heap, GC, thread and per-thread allocation metrics from the platform MXBeans. Threads are
+ * grouped by name with digits replaced ({@code pool-N-thread-N}) to keep label cardinality
+ * bounded; a group's allocation counter drops when one of its threads exits, which
+ * {@code rate()} treats as a counter reset.
+ */
+final class JvmMetrics {
+    private JvmMetrics() {
+    }
+
+    static void write(PrometheusWriter metrics) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        metrics.family("jvm_memory_bytes_used", "gauge", "Used bytes of a JVM memory area.")
+            .sample("jvm_memory_bytes_used", heap.getUsed(), "area", "heap")
+            .sample("jvm_memory_bytes_used", nonHeap.getUsed(), "area", "nonheap");
+        metrics.family("jvm_memory_bytes_committed", "gauge", "Committed bytes of a JVM memory area.")
+            .sample("jvm_memory_bytes_committed", heap.getCommitted(), "area", "heap")
+            .sample("jvm_memory_bytes_committed", nonHeap.getCommitted(), "area", "nonheap");
+        metrics.family("jvm_memory_bytes_max", "gauge", "Max bytes of a JVM memory area (-1 if undefined).")
+            .sample("jvm_memory_bytes_max", heap.getMax(), "area", "heap")
+            .sample("jvm_memory_bytes_max", nonHeap.getMax(), "area", "nonheap");
+
+        metrics.family("jvm_gc_collection_seconds", "summary", "Time spent in a given JVM garbage collector.");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            metrics.sample("jvm_gc_collection_seconds_count", gc.getCollectionCount(), "gc", gc.getName())
+                .sample("jvm_gc_collection_seconds_sum", gc.getCollectionTime() / 1000.0, "gc", gc.getName());
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        metrics.family("jvm_threads_current", "gauge", "Current thread count of the JVM.")
+            .sample("jvm_threads_current", threads.getThreadCount());
+        metrics.family("jvm_threads_daemon", "gauge", "Daemon thread count of the JVM.")
+            .sample("jvm_threads_daemon", threads.getDaemonThreadCount());
+        writeAllocations(metrics, threads);
+    }
+
+    private static void writeAllocations(PrometheusWriter metrics, ThreadMXBean threads) {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        long[] ids = hotspot.getAllThreadIds();
+        long[] allocated = hotspot.getThreadAllocatedBytes(ids);
+        ThreadInfo[] infos = hotspot.getThreadInfo(ids);
+        Map<String, Long> byGroup = new TreeMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (infos[i] != null && allocated[i] >= 0) {
+                byGroup.merge(infos[i].getThreadName().replaceAll("\\d+", "N"), allocated[i], Long::sum);
+            }
+        }
+        metrics.family("jvm_thread_allocated_bytes_total", "counter",
+            "Bytes allocated by live threads, grouped by thread name pattern.");
+        for (Map.Entry<String, Long> entry : byGroup.entrySet()) {
+            metrics.sample("jvm_thread_allocated_bytes_total", entry.getValue(), "thread", entry.getKey());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram in the style of HdrHistogram: values below 128 are counted
+ * exactly, larger values land in buckets with about 1.6% relative width. Values are recorded in
+ * microseconds; recording never allocates.
+ */
+final class LatencyHistogram {
+    private static final int LINEAR_BITS = 7;
+    private static final int LINEAR_COUNT = 1 << LINEAR_BITS;
+    private static final int SUB_BITS = LINEAR_BITS - 1;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKET_COUNT = LINEAR_COUNT + (63 - LINEAR_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(index(value));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(value);
+        long max;
+        while (value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value)) {
+            // retry
+        }
+    }
+
+    /** Adds everything {@code other} recorded, e.g. to aggregate several targets. */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        totalSum.addAndGet(other.totalSum.get());
+        long value = other.maxValue.get();
+        long max;
+        while (value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value)) {
+            // retry
+        }
+    }
+
+    long count() {
+        return totalCount.get();
+    }
+
+    long sumMicros() {
+        return totalSum.get();
+    }
+
+    long maxMicros() {
+        return maxValue.get();
+    }
+
+    double meanMicros() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalSum.get() / count;
+    }
+
+    /** Returns the value at {@code percentile} (0-100), reported as the upper edge of its bucket. */
+    long percentileMicros(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * Cumulative counts at each of the ascending {@code boundsMicros} in one pass, e.g. for
+     * Prometheus {@code le} buckets. A bucket straddling a bound is counted below it.
+     */
+    long[] cumulativeCounts(long[] boundsMicros) {
+        long[] cumulative = new long[boundsMicros.length];
+        long seen = 0;
+        int bound = 0;
+        for (int i = 0; i < BUCKET_COUNT && bound < boundsMicros.length; i++) {
+            while (bound < boundsMicros.length && lowerBound(i) > boundsMicros[bound]) {
+                cumulative[bound++] = seen;
+            }
+            seen += counts.get(i);
+        }
+        while (bound < boundsMicros.length) {
+            cumulative[bound++] = seen;
+        }
+        return cumulative;
+    }
+
+    String summary() {
+        return String.format("p50=%.1fms p99=%.1fms p999=%.1fms max=%.1fms (n=%d)",
+            percentileMicros(50) / 1000.0, percentileMicros(99) / 1000.0,
+            percentileMicros(99.9) / 1000.0, maxMicros() / 1000.0, count());
+    }
+
+    private static int index(long value) {
+        if (value < LINEAR_COUNT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (magnitude - SUB_BITS)) - SUB_COUNT;
+        return LINEAR_COUNT + (magnitude - LINEAR_BITS) * SUB_COUNT + sub;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < LINEAR_COUNT) {
+            return index;
+        }
+        int offset = index - LINEAR_COUNT;
+        int magnitude = offset / SUB_COUNT + LINEAR_BITS;
+        long sub = offset % SUB_COUNT + SUB_COUNT;
+        return sub << (magnitude - SUB_BITS);
+    }
+
+    private static long upperBound(int index) {
+        return index + 1 < BUCKET_COUNT ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+}
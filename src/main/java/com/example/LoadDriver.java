@@ -0,0 +1,468 @@
+package com.example;
+
+import io.getunleash.Unleash;
+import io.getunleash.UnleashContext;
+import io.getunleash.event.ToggleEvaluated;
+import io.getunleash.variant.Variant;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Calls {@code isEnabled} and {@code getVariant} on both clients of one target from several
+ * threads, at a target rate or as fast as they can, while updates keep arriving and the target
+ * keeps comparing. This is the load a service puts on the SDK, including its metrics and
+ * impression bookkeeping, which an idle comparison never exercises.
+ *
+ * <p>Each thread evaluates every toggle for its own slice of a {@link SyntheticPopulation} over
+ * and over, and remembers what each (toggle, user) probe last returned per mode. Evaluation is
+ * deterministic, so a probe may only change when the toggle's definition (or a segment) changed
+ * in that mode, and it needs one change per transition: a value that flips without a change, or
+ * flips back after a single one, was neither the old nor the new state. Transitions are checked
+ * once the target's lane has processed that mode's callbacks up to them. Changes are timed by
+ * their {@code togglesFetched} callback, which streaming sends after applying and polling before,
+ * so each side of a transition gets {@code slackMs} of tolerance.
+ *
+ * <p>Latencies are service times per call. With a target rate, each thread also records the time
+ * from when a call was due, so falling behind shows up instead of being hidden by the pacing.
+ *
+ * <p>The SDK hands a {@code ToggleEvaluated} event for every call, and an impression event for
+ * toggles with impression data, to a single dispatcher thread that also delivers
+ * {@code togglesFetched}. Once a second each client evaluates a probe toggle, and the time until
+ * its event reaches the subscriber is the dispatch lag, i.e. how far that thread is behind.
+ */
+final class LoadDriver {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    private static final long REPORT_INTERVAL_MS = 10_000;
+    private static final long VERIFY_INTERVAL_MS = 1000;
+    // Checked anyway once this old, e.g. when a mode stopped receiving callbacks
+    private static final long VERIFY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long CHANGE_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final String SEGMENTS = ""; // change log key of segment changes, which affect every toggle
+    private static final int REPORTED_INCONSISTENCIES = 10;
+    private static final String DISPATCH_PROBE = "load-driver-dispatch-probe";
+
+    enum Call {
+        IS_ENABLED("isEnabled"), GET_VARIANT("getVariant");
+
+        final String label;
+
+        Call(String label) {
+            this.label = label;
+        }
+    }
+
+    /** A probe that returned something else than on its previous evaluation. */
+    private static final class Transition {
+        final ClientMode mode;
+        final String toggle;
+        final int user;
+        final long previousAt;
+        final long at;
+        final long from;
+        final long to;
+
+        Transition(ClientMode mode, String toggle, int user, long previousAt, long at, long from, long to) {
+            this.mode = mode;
+            this.toggle = toggle;
+            this.user = user;
+            this.previousAt = previousAt;
+            this.at = at;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final ComparisonTarget target;
+    private final SyntheticPopulation population;
+    private final double callsPerSecond; // 0 for as fast as possible
+    private final long slackNanos;
+    private final Worker[] workers;
+
+    // Definition change times per mode and toggle, on the lane's clock; written by the lane
+    private final List<Map<String, ConcurrentLinkedDeque<Long>>> changes = List.of(new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+    // Callback time of the latest response each mode's lane has processed
+    private final AtomicLongArray processedUpTo = new AtomicLongArray(2);
+
+    // When each mode's outstanding dispatch probe was evaluated, 0 when none is
+    private final AtomicLongArray probeSentAt = new AtomicLongArray(2);
+    final LatencyHistogram[] dispatchLag = {new LatencyHistogram(), new LatencyHistogram()};
+
+    private final Queue<Transition> transitions = new ConcurrentLinkedQueue<>();
+    // Verifier thread only: per probe, the change that explained its last transition
+    private final Map<String, Long> explainedBy = new HashMap<>();
+    final AtomicLong verified = new AtomicLong();
+    final AtomicLong inconsistent = new AtomicLong();
+    private final List<String> inconsistencies = new ArrayList<>(); // the first few, guarded by itself
+
+    private final ScheduledExecutorService verifier = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "load-driver-verify");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running = false;
+    private long startNanos;
+    private long stopNanos;
+    private long lastReportNanos;
+    private long lastReportCalls;
+
+    LoadDriver(ComparisonTarget target, SyntheticPopulation population, int threads, double callsPerSecond, long slackMs) {
+        this.target = target;
+        this.population = population;
+        this.callsPerSecond = callsPerSecond;
+        this.slackNanos = TimeUnit.MILLISECONDS.toNanos(slackMs);
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i, threads);
+        }
+    }
+
+    void start() {
+        running = true;
+        startNanos = System.nanoTime();
+        lastReportNanos = startNanos;
+        for (Worker worker : workers) {
+            Thread thread = new Thread(worker, "load-driver-" + worker.index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        verifier.scheduleWithFixedDelay(() -> verify(false), VERIFY_INTERVAL_MS, VERIFY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        verifier.scheduleWithFixedDelay(this::probeDispatch, 0, VERIFY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        verifier.scheduleAtFixedRate(this::report, REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        System.out.println("Load driver: " + workers.length + " threads on target " + target.name + ", "
+            + (callsPerSecond > 0 ? String.format("%.0f calls/s", callsPerSecond) : "unthrottled")
+            + ", " + population.size() + " users");
+    }
+
+    /** Stops the threads and checks every transition they saw; call once the modes converged. */
+    void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        stopNanos = System.nanoTime();
+        verifier.shutdownNow();
+        try {
+            for (Worker worker : workers) {
+                worker.stopped.await(5, TimeUnit.SECONDS);
+            }
+            verifier.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        verify(true);
+    }
+
+    /** A response of {@code mode} was processed on the lane; {@code nanos} is its callback time. */
+    void changed(ClientMode mode, FeatureDefinitionTracker.Update update, long nanos) {
+        Map<String, ConcurrentLinkedDeque<Long>> log = changes.get(mode.ordinal());
+        for (FeatureDefinitionTracker.Change change : update.changes) {
+            log.computeIfAbsent(change.toggle, t -> new ConcurrentLinkedDeque<>()).add(nanos);
+        }
+        if (update.segmentsChanged) {
+            log.computeIfAbsent(SEGMENTS, t -> new ConcurrentLinkedDeque<>()).add(nanos);
+        }
+        processedUpTo.accumulateAndGet(mode.ordinal(), nanos, Math::max);
+    }
+
+    /** An SDK {@code ToggleEvaluated} event of {@code mode} reached the subscriber; dispatcher thread. */
+    void evaluated(ClientMode mode, ToggleEvaluated event) {
+        if (DISPATCH_PROBE.equals(event.getToggleName())) {
+            long sentAt = probeSentAt.getAndSet(mode.ordinal(), 0);
+            if (sentAt != 0) {
+                dispatchLag[mode.ordinal()].recordNanos(System.nanoTime() - sentAt);
+            }
+        }
+    }
+
+    private void probeDispatch() {
+        for (ClientMode mode : ClientMode.values()) {
+            // One at a time, so a backlog shows as one long lag rather than a pile of probes
+            if (probeSentAt.compareAndSet(mode.ordinal(), 0, System.nanoTime())) {
+                (mode == ClientMode.STREAMING ? target.streamingClient : target.pollingClient).isEnabled(DISPATCH_PROBE);
+            }
+        }
+    }
+
+    /** How long the oldest outstanding dispatch probe of {@code mode} has been waiting, in nanoseconds. */
+    long dispatchBacklogNanos(ClientMode mode) {
+        long sentAt = probeSentAt.get(mode.ordinal());
+        return sentAt == 0 ? 0 : Math.max(0, System.nanoTime() - sentAt);
+    }
+
+    private final class Worker implements Runnable {
+        final int index;
+        private final int[] users;
+        private final UnleashContext[] contexts;
+        // Service time per mode and call, and the time from when a call was due; recorded by this thread only
+        final LatencyHistogram[][] latency = new LatencyHistogram[2][Call.values().length];
+        final LatencyHistogram scheduled = new LatencyHistogram();
+        // Per toggle, the last value and evaluation time of each user at mode * users.length + slot
+        private final Map<String, long[][]> probes = new HashMap<>();
+        final CountDownLatch stopped = new CountDownLatch(1);
+
+        Worker(int index, int threads) {
+            this.index = index;
+            int count = (population.size() - index + threads - 1) / threads;
+            users = new int[Math.max(0, count)];
+            contexts = new UnleashContext[users.length];
+            for (int slot = 0; slot < users.length; slot++) {
+                users[slot] = index + slot * threads;
+                contexts[slot] = population.context(users[slot]);
+            }
+            for (LatencyHistogram[] byCall : latency) {
+                for (int c = 0; c < byCall.length; c++) {
+                    byCall[c] = new LatencyHistogram();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                double nanosPerCall = callsPerSecond > 0 ? 1e9 * workers.length / callsPerSecond : 0;
+                long calls = 0;
+                while (running) {
+                    // Toggles the streaming client knows; polling may not have them yet, which is fine
+                    List<String> toggles = target.streamingDefinitions.toggleNames();
+                    if (toggles.isEmpty() || users.length == 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                        continue;
+                    }
+                    long passStart = System.nanoTime();
+                    for (int slot = 0; slot < users.length && running; slot++) {
+                        for (String toggle : toggles) {
+                            long[][] probe = probes.computeIfAbsent(toggle, t -> new long[2][2 * users.length]);
+                            for (ClientMode mode : ClientMode.values()) {
+                                long due = nanosPerCall > 0 ? passStart + (long) (calls * nanosPerCall) : 0;
+                                evaluate(mode, toggle, slot, probe, due, due == 0 ? 0 : due + (long) nanosPerCall);
+                                calls += 2;
+                            }
+                        }
+                    }
+                    if (nanosPerCall > 0) {
+                        // Schedule relative to each pass, so a slow pass is not made up with a burst
+                        calls = 0;
+                    }
+                }
+            } finally {
+                stopped.countDown();
+            }
+        }
+
+        private void evaluate(ClientMode mode, String toggle, int slot, long[][] probe, long due, long variantDue) {
+            Unleash client = mode == ClientMode.STREAMING ? target.streamingClient : target.pollingClient;
+            UnleashContext context = contexts[slot];
+            int m = mode.ordinal();
+
+            long begin = pace(due);
+            boolean enabled = client.isEnabled(toggle, context);
+            long end = System.nanoTime();
+            latency[m][Call.IS_ENABLED.ordinal()].recordNanos(end - begin);
+            if (due > 0) {
+                scheduled.recordNanos(end - Math.min(begin, due));
+            }
+
+            begin = pace(variantDue);
+            Variant variant = client.getVariant(toggle, context);
+            end = System.nanoTime();
+            latency[m][Call.GET_VARIANT.ordinal()].recordNanos(end - begin);
+            if (variantDue > 0) {
+                scheduled.recordNanos(end - Math.min(begin, variantDue));
+            }
+
+            long value = code(enabled, variant);
+            int at = m * users.length + slot;
+            long previousAt = probe[1][at];
+            if (previousAt != 0 && probe[0][at] != value) {
+                transitions.add(new Transition(mode, toggle, users[slot], previousAt, end, probe[0][at], value));
+            }
+            probe[0][at] = value;
+            probe[1][at] = end;
+        }
+    }
+
+    /** Waits until {@code due} and returns the time the call starts. */
+    private static long pace(long due) {
+        long now = System.nanoTime();
+        if (due > now) {
+            LockSupport.parkNanos(due - now);
+            now = System.nanoTime();
+        }
+        return now;
+    }
+
+    private static long code(boolean enabled, Variant variant) {
+        long hash = enabled ? 1 : 0;
+        hash = hash * 31 + variant.getName().hashCode();
+        hash = hash * 31 + (variant.isEnabled() ? 1 : 0);
+        hash = hash * 31 + variant.getPayload().map(payload -> payload.getValue() == null ? 0 : payload.getValue().hashCode()).orElse(-1);
+        return hash;
+    }
+
+    /** Checks the transitions the lane has caught up with, or all of them when {@code all}. */
+    private void verify(boolean all) {
+        long now = System.nanoTime();
+        Iterator<Transition> pending = transitions.iterator();
+        while (pending.hasNext()) {
+            Transition transition = pending.next();
+            boolean processed = processedUpTo.get(transition.mode.ordinal()) - transition.at >= slackNanos;
+            if (!all && !processed && now - transition.at < VERIFY_TIMEOUT_NANOS) {
+                // A probe's later transitions are no further along, so they stay queued in order
+                continue;
+            }
+            pending.remove();
+            check(transition);
+        }
+        long horizon = now - CHANGE_RETENTION_NANOS;
+        for (Map<String, ConcurrentLinkedDeque<Long>> log : changes) {
+            for (ConcurrentLinkedDeque<Long> times : log.values()) {
+                Long oldest;
+                while ((oldest = times.peekFirst()) != null && oldest < horizon) {
+                    times.pollFirst();
+                }
+            }
+        }
+    }
+
+    private void check(Transition transition) {
+        String probe = transition.mode.label + '/' + transition.toggle + '/' + transition.user;
+        long after = explainedBy.getOrDefault(probe, Long.MIN_VALUE);
+        long from = transition.previousAt - slackNanos;
+        long to = transition.at + slackNanos;
+        long change = earliestChange(transition.mode, transition.toggle, Math.max(from, after + 1), to);
+        long segmentChange = earliestChange(transition.mode, SEGMENTS, Math.max(from, after + 1), to);
+        long explaining = Math.min(change, segmentChange);
+        if (explaining != Long.MAX_VALUE) {
+            explainedBy.put(probe, explaining);
+            verified.incrementAndGet();
+            return;
+        }
+        inconsistent.incrementAndGet();
+        String description = String.format("%s %s for %s changed (%x -> %x) with no definition change between %s and %s",
+            transition.mode.label, transition.toggle, SyntheticPopulation.userId(transition.user), transition.from, transition.to,
+            clockTime(transition.previousAt), clockTime(transition.at));
+        synchronized (inconsistencies) {
+            if (inconsistencies.size() < REPORTED_INCONSISTENCIES) {
+                inconsistencies.add(description);
+            }
+        }
+        System.err.println("[" + LocalDateTime.now().format(TIME_FORMAT) + "] [" + target.name + "] Inconsistent evaluation: " + description);
+    }
+
+    /** The earliest change of {@code key} in {@code [from, to]}, or Long.MAX_VALUE. */
+    private long earliestChange(ClientMode mode, String key, long from, long to) {
+        ConcurrentLinkedDeque<Long> times = changes.get(mode.ordinal()).get(key);
+        if (times == null) {
+            return Long.MAX_VALUE;
+        }
+        for (long time : times) {
+            if (time > to) {
+                break;
+            }
+            if (time >= from) {
+                return time;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static String clockTime(long nanos) {
+        return LocalDateTime.now().minusNanos(System.nanoTime() - nanos).format(TIME_FORMAT);
+    }
+
+    private void report() {
+        long now = System.nanoTime();
+        long calls = calls();
+        double rate = (calls - lastReportCalls) * 1e9 / (now - lastReportNanos);
+        lastReportNanos = now;
+        lastReportCalls = calls;
+        StringBuilder out = new StringBuilder(256);
+        out.append('[').append(LocalDateTime.now().format(TIME_FORMAT)).append("] [").append(target.name)
+            .append("] Load: ").append(String.format("%.0f", rate)).append(" calls/s");
+        if (callsPerSecond > 0) {
+            out.append(String.format(" of %.0f", callsPerSecond));
+        }
+        for (ClientMode mode : ClientMode.values()) {
+            out.append("; ").append(mode.label).append(" isEnabled ").append(latency(mode, Call.IS_ENABLED).summary());
+        }
+        out.append("; dispatch lag");
+        for (ClientMode mode : ClientMode.values()) {
+            out.append(' ').append(mode.label).append(' ').append(dispatchLag[mode.ordinal()].summary());
+        }
+        out.append("; transitions ").append(verified.get()).append(" explained, ").append(inconsistent.get())
+            .append(" inconsistent, ").append(transitions.size()).append(" unchecked");
+        System.out.println(out);
+    }
+
+    /** Calls made so far by all threads. */
+    long calls() {
+        long calls = 0;
+        for (Worker worker : workers) {
+            for (LatencyHistogram[] byCall : worker.latency) {
+                for (LatencyHistogram histogram : byCall) {
+                    calls += histogram.count();
+                }
+            }
+        }
+        return calls;
+    }
+
+    /** Calls per second from start until now, or until stopped. */
+    double callsPerSecondAchieved() {
+        long end = running || stopNanos == 0 ? System.nanoTime() : stopNanos;
+        return end == startNanos ? 0 : calls() * 1e9 / (end - startNanos);
+    }
+
+    double callsPerSecondTarget() {
+        return callsPerSecond;
+    }
+
+    int threads() {
+        return workers.length;
+    }
+
+    /** Service times of {@code call} on {@code mode}, merged over all threads. */
+    LatencyHistogram latency(ClientMode mode, Call call) {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (Worker worker : workers) {
+            merged.add(worker.latency[mode.ordinal()][call.ordinal()]);
+        }
+        return merged;
+    }
+
+    /** Time from when each call was due until it returned; empty when unthrottled. */
+    LatencyHistogram scheduledLatency() {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (Worker worker : workers) {
+            merged.add(worker.scheduled);
+        }
+        return merged;
+    }
+
+    long uncheckedTransitions() {
+        return transitions.size();
+    }
+
+    List<String> inconsistencies() {
+        synchronized (inconsistencies) {
+            return new ArrayList<>(inconsistencies);
+        }
+    }
+}
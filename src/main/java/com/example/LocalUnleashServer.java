@@ -0,0 +1,329 @@
+package com.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the Unleash client API. Serves {@code /api/client/features} with
+ * ETag/304 support for polling clients and {@code /api/client/streaming} (SSE) for streaming
+ * clients, and accepts the SDK's register and metrics posts.
+ */
+class LocalUnleashServer implements PropagationTracker.ChangeOrigin {
+    static final String API_PATH = "/api";
+    private static final int DIGEST_HISTORY = 4096;
+
+    private int port; // guarded by this; the bound port once started, so a restart reuses it
+    private final Map<String, JsonObject> features = new TreeMap<>(); // guarded by this
+    private long revision = 0; // guarded by this
+    private final Map<String, long[]> publishedAt = new HashMap<>(); // toggle -> {hash, nanoTime}, guarded by this
+    private long digest = 0; // FeatureDefinitionTracker digest of the served definitions, guarded by this
+    // Digest -> latest revision with it, for the last DIGEST_HISTORY revisions; guarded by this
+    private final LinkedHashMap<Long, Long> digestRevisions = new LinkedHashMap<Long, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > DIGEST_HISTORY;
+        }
+    };
+    private volatile CachedPayload cachedPayload = new CachedPayload(-1, new byte[0]);
+    private final AtomicLong featureRequests = new AtomicLong();
+    private final AtomicLong streamingRequests = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService httpExecutor;
+    private volatile SseBroadcaster broadcaster;
+
+    private static final class CachedPayload {
+        final long revision;
+        final byte[] body;
+        final String etag;
+
+        CachedPayload(long revision, byte[] body) {
+            this.revision = revision;
+            this.body = body;
+            this.etag = "\"rev-" + revision + "\"";
+        }
+    }
+
+    LocalUnleashServer(int port) {
+        this.port = port;
+    }
+
+    synchronized void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        port = server.getAddress().getPort();
+        server.createContext(API_PATH + "/client/features", this::handleFeatures);
+        server.createContext(API_PATH + "/client/streaming", this::handleStreaming);
+        server.createContext(API_PATH + "/client/register", LocalUnleashServer::handleAccepted);
+        server.createContext(API_PATH + "/client/metrics", LocalUnleashServer::handleAccepted);
+        // Named so that profiling can tell the server's allocations from the clients'
+        AtomicInteger threadCount = new AtomicInteger();
+        httpExecutor = Executors.newFixedThreadPool(8, r -> new Thread(r, "local-unleash-http-" + threadCount.incrementAndGet()));
+        server.setExecutor(httpExecutor);
+        broadcaster = new SseBroadcaster("local-unleash-sse");
+        server.start();
+    }
+
+    synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        broadcaster.shutdown();
+        server.stop(0);
+        httpExecutor.shutdownNow();
+        server = null;
+        // Changes made while stopped are served after a restart, like a backend coming back
+        broadcaster = null;
+    }
+
+    /** Base API URL; with port 0 this is only known once the server is started. */
+    synchronized String url() {
+        return "http://localhost:" + port + API_PATH;
+    }
+
+    /** Populates the server with {@code count} synthetic toggles, replacing any existing ones. */
+    void seed(int count, Random random) {
+        List<JsonObject> seeded = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            seeded.add(SyntheticFeatures.feature(SyntheticFeatures.name(i), random));
+        }
+        synchronized (this) {
+            features.clear();
+            publishedAt.clear();
+            digest = 0;
+        }
+        upsert(seeded);
+    }
+
+    /** Adds or replaces feature definitions and pushes them to streaming clients as one event. */
+    void upsert(Collection<JsonObject> updated) {
+        if (updated.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            revision++;
+            JsonArray events = new JsonArray();
+            long now = System.nanoTime();
+            for (JsonObject feature : updated) {
+                String name = feature.get("name").getAsString();
+                long hash = FeatureDefinitionTracker.hash(feature);
+                features.put(name, feature);
+                long[] previous = publishedAt.put(name, new long[]{hash, now});
+                digest += FeatureDefinitionTracker.digestEntry(name, hash)
+                    - (previous == null ? 0 : FeatureDefinitionTracker.digestEntry(name, previous[0]));
+                JsonObject event = new JsonObject();
+                event.addProperty("type", "feature-updated");
+                event.addProperty("eventId", revision);
+                event.add("feature", feature);
+                events.add(event);
+            }
+            recordDigest();
+            publish(events);
+        }
+    }
+
+    /**
+     * Makes the served definitions exactly {@code replacement}, publishing only the features that
+     * differ from what is served now, the way a backend's next delta would.
+     */
+    void replaceAll(Collection<JsonObject> replacement) {
+        List<JsonObject> changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        synchronized (this) {
+            Set<String> names = new HashSet<>(replacement.size() * 2);
+            for (JsonObject feature : replacement) {
+                String name = feature.get("name").getAsString();
+                names.add(name);
+                JsonObject current = features.get(name);
+                if (current == null || FeatureDefinitionTracker.hash(current) != FeatureDefinitionTracker.hash(feature)) {
+                    changed.add(feature);
+                }
+            }
+            for (String name : features.keySet()) {
+                if (!names.contains(name)) {
+                    removed.add(name);
+                }
+            }
+        }
+        upsert(changed);
+        if (!removed.isEmpty()) {
+            remove(removed);
+        }
+    }
+
+    void remove(Collection<String> names) {
+        synchronized (this) {
+            // A removal of nothing served publishes nothing, so it must not take a revision
+            if (Collections.disjoint(features.keySet(), names)) {
+                return;
+            }
+            revision++;
+            JsonArray events = new JsonArray();
+            long now = System.nanoTime();
+            for (String name : names) {
+                if (features.remove(name) == null) {
+                    continue;
+                }
+                long[] previous = publishedAt.put(name, new long[]{FeatureDefinitionTracker.ABSENT, now});
+                if (previous != null) {
+                    digest -= FeatureDefinitionTracker.digestEntry(name, previous[0]);
+                }
+                JsonObject event = new JsonObject();
+                event.addProperty("type", "feature-removed");
+                event.addProperty("eventId", revision);
+                event.addProperty("featureName", name);
+                event.addProperty("project", "default");
+                events.add(event);
+            }
+            recordDigest();
+            publish(events);
+        }
+    }
+
+    private void recordDigest() {
+        // Re-inserted so that a state seen again counts as recent
+        digestRevisions.remove(digest);
+        digestRevisions.put(digest, revision);
+    }
+
+    @Override
+    public synchronized long revisionOf(long digest) {
+        return digestRevisions.getOrDefault(digest, -1L);
+    }
+
+    @Override
+    public synchronized long publishedAtNanos(String toggle, long hash) {
+        long[] published = publishedAt.get(toggle);
+        return published != null && published[0] == hash ? published[1] : -1;
+    }
+
+    synchronized JsonObject feature(String name) {
+        return features.get(name);
+    }
+
+    synchronized List<String> featureNames() {
+        return new ArrayList<>(features.keySet());
+    }
+
+    @Override
+    public synchronized long revision() {
+        return revision;
+    }
+
+    /** Requests to {@code /client/features}, including those answered with 304. */
+    long featureRequests() {
+        return featureRequests.get();
+    }
+
+    /** Connection attempts to {@code /client/streaming}. */
+    long streamingRequests() {
+        return streamingRequests.get();
+    }
+
+    int streamingConnections() {
+        SseBroadcaster current = broadcaster;
+        return current == null ? 0 : current.size();
+    }
+
+    /** Streaming clients disconnected for not keeping up with the published events. */
+    long droppedStreams() {
+        SseBroadcaster current = broadcaster;
+        return current == null ? 0 : current.dropped();
+    }
+
+    private void publish(JsonArray events) {
+        if (broadcaster != null && events.size() > 0) {
+            JsonObject delta = new JsonObject();
+            delta.add("events", events);
+            broadcaster.broadcast("unleash-updated", String.valueOf(revision), delta.toString());
+        }
+    }
+
+    private void handleFeatures(HttpExchange exchange) throws IOException {
+        featureRequests.incrementAndGet();
+        drain(exchange);
+        CachedPayload payload = currentPayload();
+        exchange.getResponseHeaders().set("ETag", payload.etag);
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (payload.etag.equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, payload.body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(payload.body);
+        }
+    }
+
+    private void handleStreaming(HttpExchange exchange) throws IOException {
+        streamingRequests.incrementAndGet();
+        drain(exchange);
+        // Holding the lock while queueing the hydration event guarantees no update published
+        // after the snapshot can reach this stream before it.
+        synchronized (this) {
+            JsonObject hydration = new JsonObject();
+            hydration.addProperty("type", "hydration");
+            hydration.addProperty("eventId", revision);
+            hydration.add("features", featureArray());
+            hydration.add("segments", new JsonArray());
+            JsonArray events = new JsonArray();
+            events.add(hydration);
+            JsonObject delta = new JsonObject();
+            delta.add("events", events);
+            broadcaster.open(exchange,
+                SseBroadcaster.event("unleash-connected", String.valueOf(revision), delta.toString()));
+        }
+    }
+
+    private CachedPayload currentPayload() {
+        CachedPayload payload = cachedPayload;
+        synchronized (this) {
+            if (payload.revision != revision) {
+                JsonObject body = new JsonObject();
+                body.addProperty("version", 2);
+                body.add("features", featureArray());
+                body.add("segments", new JsonArray());
+                payload = new CachedPayload(revision, body.toString().getBytes(StandardCharsets.UTF_8));
+                cachedPayload = payload;
+            }
+        }
+        return payload;
+    }
+
+    private JsonArray featureArray() {
+        JsonArray array = new JsonArray(features.size());
+        for (JsonObject feature : features.values()) {
+            array.add(feature);
+        }
+        return array;
+    }
+
+    private static void handleAccepted(HttpExchange exchange) throws IOException {
+        drain(exchange);
+        exchange.sendResponseHeaders(202, -1);
+        exchange.close();
+    }
+
+    private static void drain(HttpExchange exchange) throws IOException {
+        try (InputStream is = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            while (is.read(buffer) != -1) {
+                // discard
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example;
+
+import java.math.BigDecimal;
+
+/**
+ * Writes the Prometheus text exposition format (0.0.4). Each metric family is introduced with
+ * {@link #family} and followed by its samples; label values are escaped here.
+ */
+final class PrometheusWriter {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // Seconds; spans sub-millisecond evaluations up to propagation delays of several polls
+    private static final double[] LATENCY_BUCKETS_SECONDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+        1, 2.5, 5, 10, 15, 30, 60
+    };
+    private static final long[] LATENCY_BUCKETS_MICROS = new long[LATENCY_BUCKETS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < LATENCY_BUCKETS_SECONDS.length; i++) {
+            LATENCY_BUCKETS_MICROS[i] = Math.round(LATENCY_BUCKETS_SECONDS[i] * 1_000_000);
+        }
+    }
+
+    private final StringBuilder out = new StringBuilder(16 * 1024);
+
+    PrometheusWriter family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /** {@code labels} alternates names and values, e.g. {@code "mode", "polling"}. */
+    PrometheusWriter sample(String name, double value, String... labels) {
+        out.append(name);
+        appendLabels(labels, null, null);
+        out.append(' ').append(format(value)).append('\n');
+        return this;
+    }
+
+    /** Writes the buckets, sum and count of {@code histogram} in seconds. */
+    PrometheusWriter histogram(String name, LatencyHistogram histogram, String... labels) {
+        long count = histogram.count();
+        long[] cumulative = histogram.cumulativeCounts(LATENCY_BUCKETS_MICROS);
+        for (int i = 0; i < cumulative.length; i++) {
+            out.append(name).append("_bucket");
+            appendLabels(labels, "le", format(LATENCY_BUCKETS_SECONDS[i]));
+            out.append(' ').append(cumulative[i]).append('\n');
+        }
+        out.append(name).append("_bucket");
+        appendLabels(labels, "le", "+Inf");
+        // Recording is not atomic across fields; never let +Inf fall below a finite bucket
+        out.append(' ').append(Math.max(count, cumulative[cumulative.length - 1])).append('\n');
+        sample(name + "_sum", histogram.sumMicros() / 1e6, labels);
+        sample(name + "_count", count, labels);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void appendLabels(String[] labels, String extraName, String extraValue) {
+        if (labels.length == 0 && extraName == null) {
+            return;
+        }
+        out.append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            appendLabel(labels[i], labels[i + 1]);
+        }
+        if (extraName != null) {
+            if (labels.length > 0) {
+                out.append(',');
+            }
+            appendLabel(extraName, extraValue);
+        }
+        out.append('}');
+    }
+
+    private void appendLabel(String name, String value) {
+        out.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return Double.isNaN(value) ? "NaN" : value > 0 ? "+Inf" : "-Inf";
+        }
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+}
@@ -0,0 +1,161 @@
+package com.example;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Follows each toggle definition change from the moment one client sees it until both clients
+ * hold the same definition, and keeps the resulting latencies in histograms per mode.
+ */
+final class PropagationTracker {
+
+    /** Source of the time a definition was published, when the backend is observable. */
+    interface ChangeOrigin {
+        /** Returns the {@link System#nanoTime()} at which {@code hash} was published, or -1. */
+        long publishedAtNanos(String toggle, long hash);
+
+        /** Revision of the current definitions, increasing with every publication. */
+        long revision();
+
+        /**
+         * Latest recent revision whose definitions have {@code digest} (see
+         * {@link FeatureDefinitionTracker#digest()}), or -1.
+         */
+        long revisionOf(long digest);
+    }
+
+    private static final class Pending {
+        final long hash;
+        final long originNanos;
+        final long[] seenNanos = {-1, -1};
+
+        Pending(long hash, long originNanos) {
+            this.hash = hash;
+            this.originNanos = originNanos;
+        }
+
+        long firstSeenNanos() {
+            long streaming = seenNanos[ClientMode.STREAMING.ordinal()];
+            long polling = seenNanos[ClientMode.POLLING.ordinal()];
+            if (streaming < 0) return polling;
+            if (polling < 0) return streaming;
+            return Math.min(streaming, polling);
+        }
+    }
+
+    private final ChangeOrigin origin;
+    private final long abandonAfterNanos;
+    private final Map<String, Pending> pending = new HashMap<>(); // guarded by this
+
+    // Origin to first sighting, per mode (only when the origin is known)
+    final LatencyHistogram streamingPropagation = new LatencyHistogram();
+    final LatencyHistogram pollingPropagation = new LatencyHistogram();
+    // How far one mode was ahead of the other for the same change
+    final LatencyHistogram streamingLead = new LatencyHistogram();
+    final LatencyHistogram pollingLead = new LatencyHistogram();
+    // Origin (or first sighting) until both modes agree
+    final LatencyHistogram convergence = new LatencyHistogram();
+
+    private long convergedCount = 0;
+    private long supersededCount = 0;
+    private long abandonedCount = 0;
+
+    PropagationTracker(ChangeOrigin origin, long abandonAfterMs) {
+        this.origin = origin;
+        this.abandonAfterNanos = abandonAfterMs * 1_000_000;
+    }
+
+    /**
+     * Records that {@code mode} now holds the given definitions. Returns how many toggles became
+     * consistent between the two modes as a result.
+     */
+    synchronized int observe(ClientMode mode, List<FeatureDefinitionTracker.Change> changes,
+                             FeatureDefinitionTracker otherMode, long nowNanos) {
+        int converged = 0;
+        for (FeatureDefinitionTracker.Change change : changes) {
+            Pending current = pending.get(change.toggle);
+            if (current != null && current.hash != change.hash) {
+                if (current.seenNanos[mode.ordinal()] < 0) {
+                    // This mode is passing through an older definition on its way to current.hash
+                    continue;
+                }
+                supersededCount++;
+                current = null;
+            }
+            if (current == null) {
+                if (otherMode.hashOf(change.toggle) == change.hash) {
+                    // The other mode already held this definition (e.g. a revert); nothing to measure
+                    pending.remove(change.toggle);
+                    converged++;
+                    continue;
+                }
+                long publishedAt = origin == null ? -1 : origin.publishedAtNanos(change.toggle, change.hash);
+                current = new Pending(change.hash, publishedAt);
+                pending.put(change.toggle, current);
+            }
+            if (current.seenNanos[mode.ordinal()] < 0) {
+                current.seenNanos[mode.ordinal()] = nowNanos;
+                if (current.originNanos >= 0) {
+                    (mode == ClientMode.STREAMING ? streamingPropagation : pollingPropagation)
+                        .recordNanos(nowNanos - current.originNanos);
+                }
+            }
+            long otherSeen = current.seenNanos[mode.other().ordinal()];
+            if (otherSeen >= 0) {
+                pending.remove(change.toggle);
+                convergedCount++;
+                converged++;
+                (mode == ClientMode.POLLING ? streamingLead : pollingLead).recordNanos(nowNanos - otherSeen);
+                long start = current.originNanos >= 0 ? current.originNanos : current.firstSeenNanos();
+                convergence.recordNanos(nowNanos - start);
+            }
+        }
+        return converged;
+    }
+
+    /** Drops changes one mode never caught up with, counting them as never converged. */
+    synchronized void abandonStale(long nowNanos) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Iterator<Pending> it = pending.values().iterator();
+        while (it.hasNext()) {
+            if (nowNanos - it.next().firstSeenNanos() > abandonAfterNanos) {
+                it.remove();
+                abandonedCount++;
+            }
+        }
+    }
+
+    synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    synchronized long convergedCount() {
+        return convergedCount;
+    }
+
+    synchronized long supersededCount() {
+        return supersededCount;
+    }
+
+    synchronized long abandonedCount() {
+        return abandonedCount;
+    }
+
+    String summary() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("Propagation latency (converged=").append(convergedCount())
+          .append(", in flight=").append(pendingCount())
+          .append(", superseded=").append(supersededCount())
+          .append(", never converged=").append(abandonedCount()).append(")\n");
+        sb.append("  origin -> streaming: ").append(streamingPropagation.summary()).append('\n');
+        sb.append("  origin -> polling:   ").append(pollingPropagation.summary()).append('\n');
+        sb.append("  streaming ahead by:  ").append(streamingLead.summary()).append('\n');
+        sb.append("  polling ahead by:    ").append(pollingLead.summary()).append('\n');
+        sb.append("  until converged:     ").append(convergence.summary());
+        return sb.toString();
+    }
+}
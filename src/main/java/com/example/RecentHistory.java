@@ -0,0 +1,28 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Fixed-size ring of the most recent comparison cycles for the dashboard. */
+final class RecentHistory {
+    private final ComparisonHistoryLog.Cycle[] ring;
+    private long added = 0; // guarded by this
+
+    RecentHistory(int capacity) {
+        this.ring = new ComparisonHistoryLog.Cycle[capacity];
+    }
+
+    synchronized void add(ComparisonHistoryLog.Cycle cycle) {
+        ring[(int) (added++ % ring.length)] = cycle;
+    }
+
+    /** Up to {@code limit} cycles, newest first. */
+    synchronized List<ComparisonHistoryLog.Cycle> newest(int limit) {
+        int count = (int) Math.min(Math.min(added, ring.length), limit);
+        List<ComparisonHistoryLog.Cycle> cycles = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            cycles.add(ring[(int) ((added - i) % ring.length)]);
+        }
+        return cycles;
+    }
+}
@@ -0,0 +1,181 @@
+package com.example;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times how each mode of one target recovers from an injected network fault:
+ * <ul>
+ *   <li>detect - fault start until the mode reports an error or an unavailable response</li>
+ *   <li>reconnect - fault end until the mode gets a response from the backend again</li>
+ *   <li>reconverge - fault end until the mode holds the definitions the backend had when the
+ *       fault ended (or any later ones); without an observable backend, until both modes agree</li>
+ * </ul>
+ * A mode that reconnects without ever reporting anything counts as undetected; one that has not
+ * reconverged when the next fault starts or {@link #TIMEOUT_MS} after the end counts as
+ * unrecovered. Only the target's lane calls the mutators.
+ */
+final class RecoveryTracker implements FaultInjectionProxy.Listener {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    static final long TIMEOUT_MS = 300_000;
+
+    enum Phase {
+        DETECT("detect"), RECONNECT("reconnect"), RECONVERGE("reconverge");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private final String target;
+    private final ComparisonScheduler.Lane lane;
+    private final PropagationTracker.ChangeOrigin origin; // null when the backend is not observable
+    private final FeatureDefinitionTracker[] definitions; // indexed by ClientMode.ordinal()
+    private final IncrementalComparator comparator;
+
+    // Indexed by ClientMode.ordinal(), then Phase.ordinal()
+    final LatencyHistogram[][] durations = new LatencyHistogram[2][Phase.values().length];
+    final AtomicLong[] undetected = {new AtomicLong(), new AtomicLong()};
+    final AtomicLong[] unrecovered = {new AtomicLong(), new AtomicLong()};
+    final AtomicLong faults = new AtomicLong();
+
+    private Episode episode; // lane only
+
+    private static final class Episode {
+        final FaultInjectionProxy.Fault fault;
+        final long startNanos;
+        long endNanos = -1;
+        long originRevision = -1;
+        // Indexed by ClientMode.ordinal(); -1 until reached
+        final long[] detected = {-1, -1};
+        final long[] reconnected = {-1, -1};
+        final long[] reconverged = {-1, -1};
+
+        Episode(FaultInjectionProxy.Fault fault, long startNanos) {
+            this.fault = fault;
+            this.startNanos = startNanos;
+        }
+    }
+
+    RecoveryTracker(String target, ComparisonScheduler.Lane lane, PropagationTracker.ChangeOrigin origin,
+                    FeatureDefinitionTracker streamingDefinitions, FeatureDefinitionTracker pollingDefinitions,
+                    IncrementalComparator comparator) {
+        this.target = target;
+        this.lane = lane;
+        this.origin = origin;
+        this.definitions = new FeatureDefinitionTracker[]{streamingDefinitions, pollingDefinitions};
+        this.comparator = comparator;
+        for (LatencyHistogram[] mode : durations) {
+            for (int phase = 0; phase < mode.length; phase++) {
+                mode[phase] = new LatencyHistogram();
+            }
+        }
+    }
+
+    @Override
+    public void faultStarted(FaultInjectionProxy.Fault fault, long nanos) {
+        lane.execute(() -> {
+            if (episode != null) {
+                finish("interrupted by " + fault.label);
+            }
+            episode = new Episode(fault, nanos);
+            faults.incrementAndGet();
+        });
+    }
+
+    @Override
+    public void faultEnded(FaultInjectionProxy.Fault fault, long nanos) {
+        lane.execute(() -> {
+            if (episode != null && episode.fault == fault && episode.endNanos < 0) {
+                episode.endNanos = nanos;
+                episode.originRevision = origin == null ? -1 : origin.revision();
+                progress(nanos);
+            }
+        });
+    }
+
+    /** The mode reported an error or an unavailable response. */
+    void error(ClientMode mode, long nanos) {
+        Episode current = episode;
+        int m = mode.ordinal();
+        if (current != null && current.detected[m] < 0 && current.reconnected[m] < 0 && nanos >= current.startNanos) {
+            current.detected[m] = nanos;
+            durations[m][Phase.DETECT.ordinal()].recordNanos(nanos - current.startNanos);
+        }
+    }
+
+    /** The mode got a response from the backend. */
+    void response(ClientMode mode, long nanos) {
+        Episode current = episode;
+        int m = mode.ordinal();
+        if (current == null || current.endNanos < 0 || nanos < current.endNanos || current.reconnected[m] >= 0) {
+            return;
+        }
+        current.reconnected[m] = nanos;
+        durations[m][Phase.RECONNECT.ordinal()].recordNanos(nanos - current.endNanos);
+        if (current.detected[m] < 0) {
+            undetected[m].incrementAndGet();
+        }
+        progress(nanos);
+    }
+
+    /** Checks for reconvergence and timeouts; called after every evaluation. */
+    void progress(long nanos) {
+        Episode current = episode;
+        if (current == null || current.endNanos < 0) {
+            return;
+        }
+        for (ClientMode mode : ClientMode.values()) {
+            int m = mode.ordinal();
+            if (current.reconnected[m] >= 0 && current.reconverged[m] < 0 && caughtUp(mode, current)) {
+                current.reconverged[m] = nanos;
+                durations[m][Phase.RECONVERGE.ordinal()].recordNanos(nanos - current.endNanos);
+            }
+        }
+        if (current.reconverged[0] >= 0 && current.reconverged[1] >= 0) {
+            finish(null);
+        } else if (nanos - current.endNanos > TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS)) {
+            finish("timed out");
+        }
+    }
+
+    private boolean caughtUp(ClientMode mode, Episode current) {
+        if (origin == null) {
+            return comparator.fingerprintsMatch();
+        }
+        return origin.revisionOf(definitions[mode.ordinal()].digest()) >= current.originRevision;
+    }
+
+    private void finish(String reason) {
+        Episode current = episode;
+        episode = null;
+        StringBuilder line = new StringBuilder(160);
+        line.append('[').append(LocalDateTime.now().format(TIME_FORMAT)).append("] [").append(target)
+            .append("] Recovery from ").append(current.fault.label);
+        if (reason != null) {
+            line.append(" (").append(reason).append(')');
+        }
+        for (ClientMode mode : ClientMode.values()) {
+            int m = mode.ordinal();
+            if (current.reconverged[m] < 0) {
+                unrecovered[m].incrementAndGet();
+            }
+            line.append(m == 0 ? ": " : "; ").append(mode.label)
+                .append(" detect ").append(elapsed(current.startNanos, current.detected[m]))
+                .append(", reconnect ").append(elapsed(current.endNanos, current.reconnected[m]))
+                .append(", reconverge ").append(elapsed(current.endNanos, current.reconverged[m]));
+        }
+        System.out.println(line);
+    }
+
+    private static String elapsed(long fromNanos, long toNanos) {
+        if (fromNanos < 0 || toNanos < 0) {
+            return "-";
+        }
+        return TimeUnit.NANOSECONDS.toMillis(toNanos - fromNanos) + "ms";
+    }
+}
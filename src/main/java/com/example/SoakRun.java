@@ -0,0 +1,421 @@
+package com.example;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.getunleash.DefaultUnleash;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A headless soak for CI: runs for a fixed time or until the local stand-in has published a
+ * number of changes, lets the modes converge, then writes a JSON report and checks it against
+ * thresholds. Heap usage and per-thread allocation are sampled once per second while it runs,
+ * so heap peaks between samples are missed.
+ *
+ * <p>A threshold is {@code path<=value} (also {@code <}, {@code >=}, {@code >}) where the path
+ * names a number in the report, e.g. {@code propagation.polling.p99Ms<=20000} or
+ * {@code targets.default.persistentDiscrepancies<=0}. A path that is not in the report fails.
+ */
+final class SoakRun {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    private static final long SAMPLE_INTERVAL_MS = 1000;
+
+    static final class Threshold {
+        private static final Pattern FORMAT = Pattern.compile("([A-Za-z0-9_.-]+)\\s*(<=|>=|<|>)\\s*(-?[0-9]+(?:\\.[0-9]+)?)");
+
+        final String path;
+        final String operator;
+        final double limit;
+
+        private Threshold(String path, String operator, double limit) {
+            this.path = path;
+            this.operator = operator;
+            this.limit = limit;
+        }
+
+        /** Parses comma-separated thresholds such as {@code totals.neverConverged<=0,jvm.threadsPeak<=80}. */
+        static List<Threshold> parse(String spec) {
+            List<Threshold> thresholds = new ArrayList<>();
+            for (String entry : spec.split(",")) {
+                String trimmed = entry.trim();
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                Matcher matcher = FORMAT.matcher(trimmed);
+                if (!matcher.matches()) {
+                    throw new IllegalArgumentException("expected path<=number, got '" + trimmed + "'");
+                }
+                thresholds.add(new Threshold(matcher.group(1), matcher.group(2), Double.parseDouble(matcher.group(3))));
+            }
+            return thresholds;
+        }
+
+        boolean test(double actual) {
+            switch (operator) {
+                case "<=":
+                    return actual <= limit;
+                case "<":
+                    return actual < limit;
+                case ">=":
+                    return actual >= limit;
+                default:
+                    return actual > limit;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return path + operator + (limit == Math.rint(limit) ? Long.toString((long) limit) : Double.toString(limit));
+        }
+    }
+
+    private final long durationMs; // 0 when only the update count ends the run
+    private final long maxUpdates; // 0 when only the duration ends the run
+    private final List<Threshold> thresholds;
+    private final File reportFile;
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "soak-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Sampler thread only, until it has stopped
+    private final Map<Long, long[]> allocations = new HashMap<>(); // thread id -> {baseline, latest}
+    private long peakHeapBytes = 0;
+
+    private long startNanos;
+    private long startMillis;
+    private long startRevision;
+    private long startEvaluations;
+    private long startGcCount;
+    private long startGcMillis;
+
+    SoakRun(long durationMs, long maxUpdates, List<Threshold> thresholds, File reportFile) {
+        this.durationMs = durationMs;
+        this.maxUpdates = maxUpdates;
+        this.thresholds = thresholds;
+        this.reportFile = reportFile;
+    }
+
+    /** Starts measuring; call once the clients are up, so startup is not part of the rates. */
+    void start(LocalUnleashServer server, List<ComparisonTarget> targets) {
+        startNanos = System.nanoTime();
+        startMillis = System.currentTimeMillis();
+        startRevision = server.revision();
+        startEvaluations = evaluations(targets);
+        startGcCount = gcCount();
+        startGcMillis = gcMillis();
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        sampler.execute(() -> sampleAllocations(true));
+        sampler.scheduleAtFixedRate(this::sample, 0, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        System.out.println("Headless soak: " + (durationMs > 0 ? durationMs / 1000 + "s" : "no time limit")
+            + (maxUpdates > 0 ? ", up to " + maxUpdates + " updates" : "") + ", thresholds " + thresholds);
+    }
+
+    /** Blocks until the run is over; returns what ended it. */
+    String awaitEnd(LocalUnleashServer server) throws InterruptedException {
+        while (true) {
+            if (maxUpdates > 0 && server.revision() - startRevision >= maxUpdates) {
+                return "updates";
+            }
+            if (durationMs > 0 && System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(durationMs)) {
+                return "duration";
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /** Waits for every target's modes to agree once updates have stopped; returns whether they did. */
+    boolean drain(List<ComparisonTarget> targets, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            boolean converged = true;
+            for (ComparisonTarget target : targets) {
+                converged &= target.comparator.fingerprintsMatch() && target.propagation.pendingCount() == 0;
+            }
+            if (converged || System.nanoTime() >= deadline) {
+                return converged;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Writes the report and prints the threshold results.
+     *
+     * @return the process exit code: 0 if every threshold held, 1 otherwise
+     */
+    int finish(List<ComparisonTarget> targets, LocalUnleashServer server, ComparisonEventStream events,
+               LoadDriver load, String stoppedBy, boolean converged) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        sampler.shutdown();
+        try {
+            sampler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sample();
+
+        JsonObject report = report(targets, server, events, load, stoppedBy, converged, elapsedNanos / 1e9);
+        JsonArray results = new JsonArray();
+        boolean passed = true;
+        StringBuilder out = new StringBuilder(256);
+        out.append('[').append(LocalDateTime.now().format(TIME_FORMAT)).append("] Soak finished (")
+            .append(stoppedBy).append(converged ? ", converged" : ", NOT converged").append(")\n");
+        for (Threshold threshold : thresholds) {
+            JsonElement value = lookup(report, threshold.path);
+            boolean held = value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber()
+                && threshold.test(value.getAsDouble());
+            passed &= held;
+            JsonObject result = new JsonObject();
+            result.addProperty("check", threshold.toString());
+            if (value != null) {
+                result.add("actual", value);
+            }
+            result.addProperty("passed", held);
+            results.add(result);
+            out.append(held ? "  PASS " : "  FAIL ").append(threshold)
+                .append(" (actual ").append(value == null ? "missing" : value.toString()).append(")\n");
+        }
+        report.add("thresholds", results);
+        report.addProperty("passed", passed);
+
+        try {
+            File parent = reportFile.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create report directory " + parent);
+            }
+            Files.write(reportFile.toPath(),
+                new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(report).getBytes(StandardCharsets.UTF_8));
+            out.append("Report written to ").append(reportFile);
+        } catch (IOException e) {
+            out.append("Failed to write report ").append(reportFile).append(": ").append(e.getMessage());
+            passed = false;
+        }
+        System.out.println(out);
+        return passed ? 0 : 1;
+    }
+
+    private JsonObject report(List<ComparisonTarget> targets, LocalUnleashServer server, ComparisonEventStream events,
+                              LoadDriver load, String stoppedBy, boolean converged, double seconds) {
+        JsonObject report = new JsonObject();
+        String sdkVersion = DefaultUnleash.class.getPackage().getImplementationVersion();
+        report.addProperty("sdkVersion", sdkVersion == null ? "unknown" : sdkVersion);
+        report.addProperty("startedAt", Instant.ofEpochMilli(startMillis).toString());
+        report.addProperty("durationSeconds", round(seconds));
+        report.addProperty("stoppedBy", stoppedBy);
+        report.addProperty("updates", server.revision() - startRevision);
+        report.addProperty("converged", converged);
+
+        long evaluations = evaluations(targets) - startEvaluations;
+        LatencyHistogram streaming = new LatencyHistogram();
+        LatencyHistogram polling = new LatencyHistogram();
+        LatencyHistogram convergence = new LatencyHistogram();
+        LatencyHistogram evaluation = new LatencyHistogram();
+        JsonObject totals = new JsonObject();
+        JsonObject perTarget = new JsonObject();
+        long comparisons = 0, checksWithDiscrepancies = 0, persistent = 0, neverConverged = 0, superseded = 0, skipped = 0;
+        for (ComparisonTarget target : targets) {
+            PropagationTracker propagation = target.propagation;
+            streaming.add(propagation.streamingPropagation);
+            polling.add(propagation.pollingPropagation);
+            convergence.add(propagation.convergence);
+            for (LatencyHistogram latency : target.comparator.evaluationLatency) {
+                evaluation.add(latency);
+            }
+            comparisons += target.comparisonCount.get();
+            checksWithDiscrepancies += target.mismatchCount.get();
+            persistent += target.persistentDiscrepancies.get();
+            neverConverged += propagation.abandonedCount();
+            superseded += propagation.supersededCount();
+            skipped += target.skippedCycles();
+
+            JsonObject json = new JsonObject();
+            json.addProperty("comparisons", target.comparisonCount.get());
+            json.addProperty("checksWithDiscrepancies", target.mismatchCount.get());
+            json.addProperty("persistentDiscrepancies", target.persistentDiscrepancies.get());
+            json.addProperty("openDiscrepancies", target.snapshot().discrepancies.size());
+            json.addProperty("neverConverged", propagation.abandonedCount());
+            json.add("convergence", percentiles(propagation.convergence));
+            json.addProperty("startupConsistentMs", target.startup.consistentMillis());
+            perTarget.add(target.name, json);
+        }
+        totals.addProperty("comparisons", comparisons);
+        totals.addProperty("checksWithDiscrepancies", checksWithDiscrepancies);
+        totals.addProperty("persistentDiscrepancies", persistent);
+        totals.addProperty("neverConverged", neverConverged);
+        totals.addProperty("superseded", superseded);
+        totals.addProperty("skippedCycles", skipped);
+        totals.addProperty("evaluations", evaluations);
+        totals.addProperty("evaluationsPerSecond", round(evaluations / seconds));
+        report.add("totals", totals);
+
+        JsonObject propagation = new JsonObject();
+        propagation.add("streaming", percentiles(streaming));
+        propagation.add("polling", percentiles(polling));
+        propagation.add("convergence", percentiles(convergence));
+        report.add("propagation", propagation);
+        report.add("evaluationLatency", percentiles(evaluation));
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        for (long[] thread : allocations.values()) {
+            allocated += thread[1] - thread[0];
+        }
+        JsonObject jvm = new JsonObject();
+        jvm.addProperty("heapPeakBytes", peakHeapBytes);
+        jvm.addProperty("allocatedBytes", allocated);
+        jvm.addProperty("allocationBytesPerSecond", Math.round(allocated / seconds));
+        jvm.addProperty("gcCount", gcCount() - startGcCount);
+        jvm.addProperty("gcSeconds", round((gcMillis() - startGcMillis) / 1000.0));
+        jvm.addProperty("threadsPeak", threads.getPeakThreadCount());
+        jvm.addProperty("threadsFinal", threads.getThreadCount());
+        report.add("jvm", jvm);
+
+        if (load != null) {
+            JsonObject json = new JsonObject();
+            json.addProperty("threads", load.threads());
+            json.addProperty("targetCallsPerSecond", load.callsPerSecondTarget());
+            json.addProperty("callsPerSecond", round(load.callsPerSecondAchieved()));
+            json.addProperty("calls", load.calls());
+            for (ClientMode mode : ClientMode.values()) {
+                for (LoadDriver.Call call : LoadDriver.Call.values()) {
+                    json.add(mode.label + "." + call.label, percentiles(load.latency(mode, call)));
+                }
+                json.add("dispatchLag." + mode.label, percentiles(load.dispatchLag[mode.ordinal()]));
+            }
+            if (load.callsPerSecondTarget() > 0) {
+                json.add("fromDueTime", percentiles(load.scheduledLatency()));
+            }
+            json.addProperty("transitionsExplained", load.verified.get());
+            json.addProperty("inconsistent", load.inconsistent.get());
+            JsonArray examples = new JsonArray();
+            for (String inconsistency : load.inconsistencies()) {
+                examples.add(inconsistency);
+            }
+            json.add("inconsistencies", examples);
+            report.add("load", json);
+        }
+
+        if (events != null) {
+            // Whole run including startup, unlike the rates above
+            JsonObject jfr = new JsonObject();
+            for (ComparisonEventStream.Series series : events.series()) {
+                jfr.add(series.mode == null ? series.event : series.event + "." + series.mode, percentiles(series.durations));
+            }
+            for (ClientMode mode : ClientMode.values()) {
+                jfr.add("queueTime." + mode.label, percentiles(events.queueTime[mode.ordinal()]));
+            }
+            jfr.add("gcPauses", percentiles(events.gcPauses));
+            jfr.addProperty("cancelledComparisons", events.cancelledComparisons.get());
+            jfr.addProperty("droppedRenders", events.droppedRenders.get());
+            report.add("jfr", jfr);
+        }
+
+        report.add("targets", perTarget);
+        return report;
+    }
+
+    private static JsonObject percentiles(LatencyHistogram histogram) {
+        JsonObject json = new JsonObject();
+        json.addProperty("count", histogram.count());
+        json.addProperty("p50Ms", histogram.percentileMicros(50) / 1000.0);
+        json.addProperty("p99Ms", histogram.percentileMicros(99) / 1000.0);
+        json.addProperty("p999Ms", histogram.percentileMicros(99.9) / 1000.0);
+        json.addProperty("maxMs", histogram.maxMicros() / 1000.0);
+        return json;
+    }
+
+    /** The element at a dot-separated path, or null. */
+    private static JsonElement lookup(JsonObject root, String path) {
+        JsonElement current = root;
+        for (String key : path.split("\\.")) {
+            if (current == null || !current.isJsonObject()) {
+                return null;
+            }
+            current = current.getAsJsonObject().get(key);
+        }
+        return current;
+    }
+
+    private void sample() {
+        peakHeapBytes = Math.max(peakHeapBytes, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        sampleAllocations(false);
+    }
+
+    /**
+     * Tracks what each thread allocated since the run started. Threads that exist at the start
+     * count from there, later ones from zero; a thread that exits loses what it allocated since
+     * the previous sample.
+     */
+    private void sampleAllocations(boolean baseline) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        long[] ids = hotspot.getAllThreadIds();
+        long[] allocated = hotspot.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (allocated[i] < 0) {
+                continue;
+            }
+            long[] thread = allocations.computeIfAbsent(ids[i], id -> new long[2]);
+            if (baseline) {
+                thread[0] = allocated[i];
+            }
+            thread[1] = allocated[i];
+        }
+    }
+
+    private static long evaluations(List<ComparisonTarget> targets) {
+        long evaluations = 0;
+        for (ComparisonTarget target : targets) {
+            evaluations += target.comparator.evaluations();
+        }
+        return evaluations;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,245 @@
+package com.example;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds open server-sent-event streams on a {@link com.sun.net.httpserver.HttpServer}, so an open
+ * stream does not pin an HTTP worker thread. Each stream has its own bounded queue, written in
+ * submission order by a pooled writer that only runs while the queue is non-empty; broadcasting
+ * just enqueues, so a client that stops reading delays nobody else. A stream whose queue fills up,
+ * whose write blocks longer than {@link #WRITE_TIMEOUT_MS}, or whose write fails is dropped.
+ */
+final class SseBroadcaster {
+    private static final long HEARTBEAT_INTERVAL_MS = 15_000;
+    private static final long STALL_CHECK_INTERVAL_MS = 1_000;
+    // Events a stream may have waiting before it counts as fallen behind
+    private static final int MAX_QUEUED_EVENTS = 64;
+    private static final long WRITE_TIMEOUT_MS = 10_000;
+    private static final byte[] HEARTBEAT = ":heartbeat\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Set<Stream> streams = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timer;
+    // Unbounded, so a write blocked until its timeout holds only its own stream's thread
+    private final ExecutorService writers;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** One open stream and the events not yet written to it. */
+    private final class Stream {
+        final HttpExchange exchange;
+        private final ArrayDeque<byte[]> queue = new ArrayDeque<>(); // guarded by this
+        private boolean draining = false; // guarded by this
+        private boolean closed = false; // guarded by this
+        volatile boolean connected = false; // the initial event (if any) is written
+        volatile long writeStartNanos = 0; // nonzero while a write is in progress
+
+        Stream(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        void offer(byte[] bytes) {
+            boolean full;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                full = queue.size() >= MAX_QUEUED_EVENTS;
+                if (!full) {
+                    queue.add(bytes);
+                    if (draining) {
+                        return;
+                    }
+                    draining = true;
+                }
+            }
+            if (full) {
+                drop(this, "fell " + MAX_QUEUED_EVENTS + " events behind");
+                return;
+            }
+            try {
+                writers.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                byte[] bytes;
+                synchronized (this) {
+                    bytes = queue.poll();
+                    if (bytes == null || closed) {
+                        draining = false;
+                        return;
+                    }
+                }
+                writeStartNanos = System.nanoTime();
+                boolean written = write(exchange, bytes);
+                writeStartNanos = 0;
+                if (!written) {
+                    drop(this, null);
+                    return;
+                }
+                connected = true;
+            }
+        }
+
+        /** Returns true the first time, so a stream is closed and counted once. */
+        synchronized boolean close() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            queue.clear();
+            return true;
+        }
+
+        boolean stalled(long now) {
+            long start = writeStartNanos;
+            return start != 0 && now - start > TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MS);
+        }
+    }
+
+    SseBroadcaster(String threadName) {
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger writerCount = new AtomicInteger();
+        this.writers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, threadName + "-writer-" + writerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(() -> offerToAll(HEARTBEAT),
+            HEARTBEAT_INTERVAL_MS, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        timer.scheduleAtFixedRate(this::dropStalled,
+            STALL_CHECK_INTERVAL_MS, STALL_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the SSE response headers and registers the stream. {@code initialEvent} (may be null)
+     * is queued ahead of any event submitted after this call returns.
+     */
+    void open(HttpExchange exchange, byte[] initialEvent) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        Stream stream = new Stream(exchange);
+        if (initialEvent != null) {
+            stream.offer(initialEvent);
+        } else {
+            stream.connected = true;
+        }
+        streams.add(stream);
+    }
+
+    void broadcast(String eventName, String id, String data) {
+        offerToAll(event(eventName, id, data));
+    }
+
+    static byte[] event(String eventName, String id, String data) {
+        StringBuilder sb = new StringBuilder(data.length() + 64);
+        if (id != null) {
+            sb.append("id: ").append(id).append('\n');
+        }
+        sb.append("event: ").append(eventName).append('\n');
+        for (String line : data.split("\n", -1)) {
+            sb.append("data: ").append(line).append('\n');
+        }
+        sb.append('\n');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Open streams that have received their initial event. */
+    int size() {
+        int connected = 0;
+        for (Stream stream : streams) {
+            if (stream.connected) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    /** Streams dropped for falling behind or blocking a write, since start. */
+    long dropped() {
+        return dropped.get();
+    }
+
+    /** Closes every open stream, e.g. to simulate a backend restart. */
+    void closeAll() {
+        for (Stream stream : streams) {
+            streams.remove(stream);
+            close(stream);
+        }
+    }
+
+    void shutdown() {
+        closeAll();
+        timer.shutdown();
+        writers.shutdown();
+    }
+
+    private void offerToAll(byte[] bytes) {
+        for (Stream stream : streams) {
+            stream.offer(bytes);
+        }
+    }
+
+    private void dropStalled() {
+        long now = System.nanoTime();
+        for (Stream stream : streams) {
+            if (stream.stalled(now)) {
+                drop(stream, "blocked a write for over " + WRITE_TIMEOUT_MS + "ms");
+            }
+        }
+    }
+
+    /** Removes a stream; {@code reason} is null for a failed write, which is not counted. */
+    private void drop(Stream stream, String reason) {
+        streams.remove(stream);
+        if (close(stream) && reason != null) {
+            dropped.incrementAndGet();
+            System.err.println("Dropped SSE stream to " + stream.exchange.getRemoteAddress() + ": " + reason);
+        }
+    }
+
+    private boolean close(Stream stream) {
+        if (!stream.close()) {
+            return false;
+        }
+        // Closing flushes, which can block on a client that stopped reading
+        try {
+            writers.execute(stream.exchange::close);
+        } catch (RejectedExecutionException e) {
+            stream.exchange.close();
+        }
+        return true;
+    }
+
+    private static boolean write(HttpExchange exchange, byte[] bytes) {
+        try {
+            OutputStream os = exchange.getResponseBody();
+            os.write(bytes);
+            os.flush();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
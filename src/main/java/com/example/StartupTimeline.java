@@ -0,0 +1,167 @@
+package com.example;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Milestones of one target's startup, measured from JVM start, per mode:
+ * <ul>
+ *   <li>constructed - the client's constructor returned</li>
+ *   <li>first_evaluation - the first evaluation of any state, possibly a bootstrap snapshot</li>
+ *   <li>first_update - the first SSE event (streaming) or poll response (polling)</li>
+ *   <li>live_evaluation - the first evaluation of a payload fetched from the backend, i.e. the
+ *       first one known to be correct</li>
+ * </ul>
+ * and once for the target, the first comparison in which both modes evaluated live state and
+ * agreed. Milestones are recorded once; all but construction are recorded on the target's lane,
+ * which also logs a summary once all of them were reached.
+ */
+final class StartupTimeline {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    /** JVM start on the {@link System#nanoTime()} scale. */
+    static final long JVM_START_NANOS = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(
+        System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+
+    enum Phase {
+        CONSTRUCTED("constructed"), FIRST_EVALUATION("first_evaluation"),
+        FIRST_UPDATE("first_update"), LIVE_EVALUATION("live_evaluation");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private final String target;
+    private final IncrementalComparator comparator;
+
+    // Nanoseconds since JVM start, at ClientMode.ordinal() * phases + Phase.ordinal(); 0 until reached
+    private final AtomicLongArray reached = new AtomicLongArray(2 * Phase.values().length);
+    private volatile long consistent = 0;
+    private volatile boolean bootstrapped = false;
+
+    // Lane only, indexed by ClientMode.ordinal()
+    private final boolean[] hasState = new boolean[2];
+    private final long[] liveFrom = {-1, -1}; // evaluations from here on see fetched state
+    private boolean reported = false;
+
+    StartupTimeline(String target, IncrementalComparator comparator) {
+        this.target = target;
+        this.comparator = comparator;
+    }
+
+    void constructed(ClientMode mode, long nanos) {
+        mark(mode, Phase.CONSTRUCTED, nanos);
+    }
+
+    /** Both clients start from a snapshot, so they have state before their first fetch. */
+    void bootstrapped() {
+        bootstrapped = true;
+        hasState[0] = true;
+        hasState[1] = true;
+    }
+
+    /**
+     * The mode got a response with {@code update}; {@code appliedAt} is when its payload is live
+     * in the client, which for polling is after subscribers were notified.
+     */
+    void received(ClientMode mode, FeatureDefinitionTracker.Update update, long nanos, long appliedAt) {
+        int m = mode.ordinal();
+        if (mode == ClientMode.POLLING || update.events) {
+            mark(mode, Phase.FIRST_UPDATE, nanos);
+            report();
+        }
+        if (update.baseline) {
+            hasState[m] = true;
+            liveFrom[m] = appliedAt;
+            if (update.changes.isEmpty() && !update.segmentsChanged && reached(mode, Phase.FIRST_EVALUATION)) {
+                // The backend served what was already evaluated, so those evaluations are live
+                long evaluatedAt = JVM_START_NANOS + reached.get(index(mode, Phase.FIRST_EVALUATION));
+                mark(mode, Phase.LIVE_EVALUATION, Math.max(nanos, evaluatedAt));
+                checkConsistent(nanos);
+            }
+        }
+    }
+
+    /** The mode's evaluations are up to date with its client. */
+    void evaluated(ClientMode mode, long nanos) {
+        int m = mode.ordinal();
+        if (!reached(mode, Phase.CONSTRUCTED)) {
+            return; // Nothing was evaluated without a client
+        }
+        if (hasState[m]) {
+            mark(mode, Phase.FIRST_EVALUATION, nanos);
+        }
+        if (liveFrom[m] >= 0 && nanos >= liveFrom[m]) {
+            mark(mode, Phase.LIVE_EVALUATION, nanos);
+        }
+        checkConsistent(nanos);
+    }
+
+    private void checkConsistent(long nanos) {
+        if (consistent != 0 || !reached(ClientMode.STREAMING, Phase.LIVE_EVALUATION)
+                || !reached(ClientMode.POLLING, Phase.LIVE_EVALUATION) || !comparator.fingerprintsMatch()) {
+            return;
+        }
+        consistent = nanos - JVM_START_NANOS;
+        report();
+    }
+
+    private void report() {
+        if (reported || consistent == 0) {
+            return;
+        }
+        for (int i = 0; i < reached.length(); i++) {
+            if (reached.get(i) == 0) {
+                return;
+            }
+        }
+        reported = true;
+        StringBuilder line = new StringBuilder(256);
+        line.append('[').append(LocalDateTime.now().format(TIME_FORMAT)).append("] [").append(target)
+            .append("] Startup").append(bootstrapped ? " (bootstrapped)" : "");
+        for (ClientMode mode : ClientMode.values()) {
+            line.append(mode.ordinal() == 0 ? ": " : "; ").append(mode.label);
+            for (Phase phase : Phase.values()) {
+                long millis = millis(mode, phase);
+                line.append(phase.ordinal() == 0 ? " " : ", ").append(phase.label).append(' ')
+                    .append(millis < 0 ? "-" : millis + "ms");
+            }
+        }
+        line.append("; first consistent comparison ").append(consistentMillis()).append("ms after JVM start");
+        System.out.println(line);
+    }
+
+    private void mark(ClientMode mode, Phase phase, long nanos) {
+        reached.compareAndSet(index(mode, phase), 0, Math.max(1, nanos - JVM_START_NANOS));
+    }
+
+    private boolean reached(ClientMode mode, Phase phase) {
+        return reached.get(index(mode, phase)) != 0;
+    }
+
+    private static int index(ClientMode mode, Phase phase) {
+        return mode.ordinal() * Phase.values().length + phase.ordinal();
+    }
+
+    boolean isBootstrapped() {
+        return bootstrapped;
+    }
+
+    /** Milliseconds from JVM start to the milestone, or -1 while not reached. */
+    long millis(ClientMode mode, Phase phase) {
+        long nanos = reached.get(index(mode, phase));
+        return nanos == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /** Milliseconds from JVM start to the first consistent comparison, or -1 while not reached. */
+    long consistentMillis() {
+        long nanos = consistent;
+        return nanos == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
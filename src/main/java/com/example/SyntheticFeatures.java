@@ -0,0 +1,143 @@
+package com.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.Random;
+
+/**
+ * Generates Unleash client-API feature definitions with realistic shapes (rollouts, user lists,
+ * constraints and weighted variants) for the local stand-in server.
+ */
+final class SyntheticFeatures {
+    // Shared with SyntheticPopulation so constraints and user lists actually match some users
+    static final String[] COUNTRIES = {"NO", "SE", "DK", "FI", "DE", "PL", "US", "GB"};
+    static final String[] PLANS = {"free", "pro", "team", "enterprise"};
+    static final int USER_ID_SPACE = 100_000;
+    private static final String[] VARIANT_NAMES = {"control", "blue", "green", "red"};
+
+    private SyntheticFeatures() {
+    }
+
+    static String name(int index) {
+        return String.format("synthetic-toggle-%05d", index);
+    }
+
+    static JsonObject feature(String name, Random random) {
+        JsonObject feature = new JsonObject();
+        feature.addProperty("name", name);
+        feature.addProperty("type", random.nextInt(4) == 0 ? "experiment" : "release");
+        feature.addProperty("project", "default");
+        feature.addProperty("enabled", random.nextInt(5) != 0);
+        feature.addProperty("stale", false);
+        feature.addProperty("impressionData", false);
+
+        JsonArray strategies = new JsonArray();
+        int strategyCount = 1 + random.nextInt(2);
+        for (int i = 0; i < strategyCount; i++) {
+            strategies.add(strategy(name, random));
+        }
+        feature.add("strategies", strategies);
+        feature.add("variants", variants(random));
+        return feature;
+    }
+
+    /**
+     * Returns a copy of {@code feature} with one property changed, the way a flag edit in the
+     * Unleash UI would: flip the environment, move a rollout, or edit a variant payload.
+     */
+    static JsonObject mutate(JsonObject feature, Random random) {
+        JsonObject copy = feature.deepCopy();
+        switch (random.nextInt(4)) {
+            case 0:
+                copy.addProperty("enabled", !copy.get("enabled").getAsBoolean());
+                break;
+            case 1: {
+                JsonArray strategies = copy.getAsJsonArray("strategies");
+                JsonObject strategy = strategies.get(random.nextInt(strategies.size())).getAsJsonObject();
+                if ("flexibleRollout".equals(strategy.get("name").getAsString())) {
+                    strategy.getAsJsonObject("parameters").addProperty("rollout", String.valueOf(random.nextInt(101)));
+                } else {
+                    strategies.set(strategies.size() - 1, strategy(copy.get("name").getAsString(), random));
+                }
+                break;
+            }
+            case 2:
+                copy.add("variants", variants(random));
+                break;
+            default: {
+                JsonArray strategies = copy.getAsJsonArray("strategies");
+                strategies.get(0).getAsJsonObject().add("constraints", constraints(random));
+                break;
+            }
+        }
+        return copy;
+    }
+
+    private static JsonObject strategy(String featureName, Random random) {
+        JsonObject strategy = new JsonObject();
+        JsonObject parameters = new JsonObject();
+        switch (random.nextInt(3)) {
+            case 0:
+                strategy.addProperty("name", "default");
+                break;
+            case 1:
+                strategy.addProperty("name", "userWithId");
+                StringBuilder userIds = new StringBuilder();
+                for (int i = 0; i < 5; i++) {
+                    if (i > 0) userIds.append(',');
+                    userIds.append(SyntheticPopulation.userId(random.nextInt(USER_ID_SPACE)));
+                }
+                parameters.addProperty("userIds", userIds.toString());
+                break;
+            default:
+                strategy.addProperty("name", "flexibleRollout");
+                parameters.addProperty("rollout", String.valueOf(random.nextInt(101)));
+                parameters.addProperty("stickiness", "default");
+                parameters.addProperty("groupId", featureName);
+                break;
+        }
+        strategy.add("parameters", parameters);
+        strategy.add("constraints", random.nextBoolean() ? constraints(random) : new JsonArray());
+        return strategy;
+    }
+
+    private static JsonArray constraints(Random random) {
+        JsonArray constraints = new JsonArray();
+        JsonObject constraint = new JsonObject();
+        JsonArray values = new JsonArray();
+        if (random.nextBoolean()) {
+            constraint.addProperty("contextName", "country");
+            for (int i = 0; i < 3; i++) {
+                values.add(COUNTRIES[random.nextInt(COUNTRIES.length)]);
+            }
+        } else {
+            constraint.addProperty("contextName", "plan");
+            values.add(PLANS[random.nextInt(PLANS.length)]);
+        }
+        constraint.addProperty("operator", random.nextInt(4) == 0 ? "NOT_IN" : "IN");
+        constraint.add("values", values);
+        constraint.addProperty("caseInsensitive", false);
+        constraint.addProperty("inverted", false);
+        constraints.add(constraint);
+        return constraints;
+    }
+
+    private static JsonArray variants(Random random) {
+        JsonArray variants = new JsonArray();
+        int count = random.nextInt(3) == 0 ? 0 : 2 + random.nextInt(2);
+        for (int i = 0; i < count; i++) {
+            JsonObject variant = new JsonObject();
+            variant.addProperty("name", VARIANT_NAMES[i]);
+            variant.addProperty("weight", 1000 / count);
+            variant.addProperty("weightType", "variable");
+            variant.addProperty("stickiness", "default");
+            JsonObject payload = new JsonObject();
+            payload.addProperty("type", "json");
+            payload.addProperty("value", "{\"color\":\"" + VARIANT_NAMES[i] + "\",\"rev\":" + random.nextInt(1_000_000) + "}");
+            variant.add("payload", payload);
+            variants.add(variant);
+        }
+        return variants;
+    }
+}
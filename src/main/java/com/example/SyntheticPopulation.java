@@ -0,0 +1,43 @@
+package com.example;
+
+import io.getunleash.UnleashContext;
+
+/**
+ * A deterministic population of synthetic users for matrix evaluation. Contexts are derived from
+ * {@code (seed, index)} on demand rather than stored, so a population of 100k users costs no
+ * memory and every worker thread sees exactly the same context for the same index.
+ */
+final class SyntheticPopulation {
+    private final int size;
+    private final long seed;
+
+    SyntheticPopulation(int size, long seed) {
+        this.size = size;
+        this.seed = seed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    static String userId(int index) {
+        return "user-" + index;
+    }
+
+    UnleashContext context(int index) {
+        long bits = mix(seed + index);
+        return UnleashContext.builder()
+            .userId(userId(index))
+            .sessionId("session-" + Long.toHexString(bits >>> 16))
+            .addProperty("country", SyntheticFeatures.COUNTRIES[(int) ((bits & 0xffff) % SyntheticFeatures.COUNTRIES.length)])
+            .addProperty("plan", SyntheticFeatures.PLANS[(int) (((bits >>> 32) & 0xffff) % SyntheticFeatures.PLANS.length)])
+            .build();
+    }
+
+    // SplitMix64 finalizer: cheap, stateless and well distributed for consecutive inputs
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,82 @@
+package com.example;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mutates a configurable number of toggles per second on a {@link LocalUnleashServer}. Changes are
+ * spread over 100 ms ticks and each tick's changes go out as one streaming event.
+ */
+class ToggleChurnGenerator {
+    private static final long TICK_MS = 100;
+
+    private final LocalUnleashServer server;
+    private final double changesPerSecond;
+    private final Random random;
+    private final AtomicLong changesApplied = new AtomicLong(0);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "toggle-churn");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private double carry = 0;
+
+    ToggleChurnGenerator(LocalUnleashServer server, double changesPerSecond, long seed) {
+        this.server = server;
+        this.changesPerSecond = changesPerSecond;
+        this.random = new Random(seed);
+    }
+
+    void start() {
+        if (changesPerSecond <= 0) {
+            return;
+        }
+        executor.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    long changesApplied() {
+        return changesApplied.get();
+    }
+
+    private void tick() {
+        try {
+            carry += changesPerSecond * TICK_MS / 1000.0;
+            int changes = (int) carry;
+            carry -= changes;
+            if (changes == 0) {
+                return;
+            }
+            List<String> names = server.featureNames();
+            if (names.isEmpty()) {
+                return;
+            }
+            // Distinct toggles, by a partial shuffle: a toggle picked twice would be published
+            // once but counted as two changes
+            changes = Math.min(changes, names.size());
+            List<JsonObject> updated = new ArrayList<>(changes);
+            for (int i = 0; i < changes; i++) {
+                Collections.swap(names, i, i + random.nextInt(names.size() - i));
+                JsonObject current = server.feature(names.get(i));
+                if (current != null) {
+                    updated.add(SyntheticFeatures.mutate(current, random));
+                }
+            }
+            server.upsert(updated);
+            changesApplied.addAndGet(updated.size());
+        } catch (RuntimeException e) {
+            System.err.println("Toggle churn tick failed: " + e.getMessage());
+        }
+    }
+}
@@ -1,292 +1,1130 @@
 package com.example;
 
-import io.getunleash.DefaultUnleash;
-import io.getunleash.Unleash;
-import io.getunleash.UnleashContext;
-import io.getunleash.UnleashException;
-import io.getunleash.event.ClientFeaturesResponse;
-import io.getunleash.event.UnleashSubscriber;
 import io.getunleash.util.UnleashConfig;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
 import java.lang.ref.WeakReference;
 
 public class UnleashComparisonApp {
     private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
-    private static final long POLLING_INTERVAL_MS = 15000; // 15 seconds polling interval
-    private static final long COMPARISON_DELAY_MS = POLLING_INTERVAL_MS + 5000; // Wait extra 5s for polling to catch up
-    private static final long CHECK_INTERVAL_MS = 30000; // Check every 30 seconds
-    
-    private static Unleash streamingClient;
-    private static Unleash pollingClient;
-    private static final AtomicLong comparisonCount = new AtomicLong(0);
-    private static final AtomicLong mismatchCount = new AtomicLong(0);
-    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
-    private static volatile ScheduledFuture<?> pendingComparisonTask = null;
-    
-    // Reusable context objects to avoid creating new ones on every update
-    private static final UnleashContext STREAMING_CONTEXT = UnleashContext.builder()
-            .userId("comparison-test-user-123")
-            .sessionId("comparison-session-456")
-            .addProperty("mode", "streaming")
-            .build();
-    
-    private static final UnleashContext POLLING_CONTEXT = UnleashContext.builder()
-            .userId("comparison-test-user-123")
-            .sessionId("comparison-session-456")
-            .addProperty("mode", "polling")
-            .build();
-    
-    // Memory monitoring
-    private static final Runtime runtime = Runtime.getRuntime();
-    private static long lastUsedMemory = 0;
-    
-    // Store latest comparison data for HTTP server - use final collections to avoid recreating
-    private static final Map<String, Boolean> lastStreamingValues = new ConcurrentHashMap<>();
-    private static final Map<String, Boolean> lastPollingValues = new ConcurrentHashMap<>();
-    private static volatile String lastComparisonTime = "";
-    private static final List<String> lastDiscrepancies = new CopyOnWriteArrayList<>();
-    
-    // Track persistent discrepancies (only count those lasting longer than refresh interval)
-    // Use bounded map to prevent unbounded growth
-    private static final int MAX_DISCREPANCY_ENTRIES = 1000;
-    private static final Map<String, Long> discrepancyTimestamps = new ConcurrentHashMap<>();
-    private static final long DISCREPANCY_THRESHOLD_MS = POLLING_INTERVAL_MS + 2000; // Wait longer than polling interval
+    static final long POLLING_INTERVAL_MS = 15000; // 15 seconds polling interval
+    static final long CHECK_INTERVAL_MS = 30000; // Check every 30 seconds
+    static final long RESYNC_INTERVAL_MS = 300000; // Re-evaluate every toggle every 5 minutes as a safety net
+    private static final String DEMO_API_URL = "https://app.unleash-hosted.com/demo/api";
+    private static final String DEMO_API_TOKEN = "*:development.25a06b75248528f8ca93ce179dcdd141aedfb632231e0d21fd8ff349";
+    
+    // Every watched project/environment; each evaluates on its own lane of the shared scheduler
+    private static final List<ComparisonTarget> targets = new CopyOnWriteArrayList<>();
+    private static final ComparisonScheduler scheduler = new ComparisonScheduler(Integer.parseInt(
+        getOrElse("EVALUATOR_THREADS", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+    
+    private static LocalUnleashServer localServer;
+    private static ToggleChurnGenerator churnGenerator;
+    private static UpdateReplayer replayer;
+    private static UpdateRecorder recorder;
+    // JFR events streamed back into the statistics, null unless enabled
+    private static ComparisonEventStream eventStream;
+    // Fault-injecting proxies in front of the backends, one per upstream host:port
+    private static final Map<String, FaultInjectionProxy> faultProxies = new LinkedHashMap<>();
+    private static final String DEFAULT_SOAK_THRESHOLDS = "totals.checksWithDiscrepancies<=0,totals.neverConverged<=0";
+    private static final String DEFAULT_FAULT_SCHEDULE =
+        "60:drop,180:half-open,300:5xx:30,420:stall:30,540:latency:60:2000,660:bandwidth:60:2048";
+    
+    // Optional users x toggles sweep; runs on its own thread so it never delays comparisons
+    private static EvaluationMatrix matrix;
+    private static ScheduledExecutorService matrixScheduler;
+    private static volatile EvaluationMatrix.Result lastMatrixResult;
+    // Optional isEnabled/getVariant load against the first target
+    private static LoadDriver loadDriver;
+    
+    // Dashboard rendered once per state change and pushed to open browsers
+    private static final long DASHBOARD_RENDER_INTERVAL_MS = 250;
+    private static final ComparisonScheduler.Lane dashboardLane = scheduler.lane("dashboard");
+    private static final AtomicBoolean dashboardRenderScheduled = new AtomicBoolean(false);
+    private static final SseBroadcaster dashboardStreams = new SseBroadcaster("dashboard-sse");
+    private static volatile RenderedDashboard renderedDashboard = renderDashboardPage(0, "");
+    // Flag columns of each target, re-rendered only when its snapshot changed; render lane only
+    private static final Map<String, RenderedColumns> renderedColumns = new HashMap<>();
+    private static final int DASHBOARD_HISTORY_ROWS = 20;
     
     // Bounded HTTP executor to prevent thread accumulation
     private static final ExecutorService httpExecutor = Executors.newFixedThreadPool(10);
     
-    private static class StreamingEventSubscriber implements UnleashSubscriber {
+    /** One {@code name,url,token} entry of the target list. */
+    static final class TargetSpec {
+        final String name;
+        final String apiUrl;
+        final String apiToken;
+        
+        TargetSpec(String name, String apiUrl, String apiToken) {
+            // Names end up in metric labels, file names, HTML and JSON unescaped
+            if (!name.matches("[A-Za-z0-9._-]+")) {
+                throw new IllegalArgumentException("Target name may only contain letters, digits, '.', '_' and '-': " + name);
+            }
+            this.name = name;
+            this.apiUrl = apiUrl;
+            this.apiToken = apiToken;
+        }
+        
+        /** Parses entries separated by ';' or line breaks; blank lines and '#' comments are skipped. */
+        static List<TargetSpec> parse(String text) {
+            List<TargetSpec> specs = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+            for (String entry : text.split("[;\\n]")) {
+                entry = entry.trim();
+                if (entry.isEmpty() || entry.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = entry.split(",", 3);
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException("Expected name,url,token but got: " + entry);
+                }
+                TargetSpec spec = new TargetSpec(fields[0].trim(), fields[1].trim(), fields[2].trim());
+                if (!names.add(spec.name)) {
+                    throw new IllegalArgumentException("Duplicate target name: " + spec.name);
+                }
+                specs.add(spec);
+            }
+            return specs;
+        }
+    }
+    
+    /**
+     * Rendered dashboard, rebuilt once per state change rather than once per request. Viewers get
+     * the page with ETag/304 (gzip when accepted); later renders are announced over server-sent
+     * events and fetched from {@code /dashboard/body} the same way, so their number does not
+     * multiply the rendering work.
+     */
+    private static final class RenderedDashboard {
+        final long version;
+        final String body;
+        final byte[] html;
+        final byte[] gzip;
+        final String etag;
+        final byte[] bodyHtml;
+        final byte[] bodyGzip;
+        final String bodyEtag;
+        
+        RenderedDashboard(long version, String body, byte[] html, byte[] gzip, byte[] bodyHtml, byte[] bodyGzip) {
+            this.version = version;
+            this.body = body;
+            this.html = html;
+            this.gzip = gzip;
+            this.etag = "\"dashboard-" + version + "\"";
+            this.bodyHtml = bodyHtml;
+            this.bodyGzip = bodyGzip;
+            this.bodyEtag = "\"dashboard-body-" + version + "\"";
+        }
+    }
+    
+    private static final class RenderedColumns {
+        final ComparisonSnapshot snapshot;
+        final String html;
+        
+        RenderedColumns(ComparisonSnapshot snapshot, String html) {
+            this.snapshot = snapshot;
+            this.html = html;
+        }
+    }
+    
+    private static class ComparisonHttpHandler implements HttpHandler {
         @Override
-        public void togglesFetched(ClientFeaturesResponse toggleResponse) {
-            String timestamp = LocalDateTime.now().format(TIME_FORMAT);
-            System.out.println("[" + timestamp + "] [STREAMING] Features updated");
-            
-            // Update UI immediately for streaming side
-            updateUIImmediate();
+        public void handle(HttpExchange exchange) throws IOException {
+            RenderedDashboard page = renderedDashboard;
+            if (exchange.getRequestURI().getPath().equals("/dashboard/body")) {
+                sendRendered(exchange, page.bodyEtag, page.bodyHtml, page.bodyGzip);
+            } else {
+                sendRendered(exchange, page.etag, page.html, page.gzip);
+            }
+        }
+        
+        private static void sendRendered(HttpExchange exchange, String etag, byte[] html, byte[] compressed) throws IOException {
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
             
-            // Cancel any existing pending comparison task to prevent task accumulation
-            if (pendingComparisonTask != null && !pendingComparisonTask.isDone()) {
-                pendingComparisonTask.cancel(true); // Use true to interrupt if running
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            byte[] bytes = gzip ? compressed : html;
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
             }
+            exchange.sendResponseHeaders(200, bytes.length);
             
-            // Schedule a new comparison after giving polling time to catch up
-            pendingComparisonTask = scheduler.schedule(
-                UnleashComparisonApp::compareClientsForDiscrepancies, 
-                COMPARISON_DELAY_MS, 
-                TimeUnit.MILLISECONDS
-            );
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
         }
-
+    }
+    
+    private static class DashboardEventsHandler implements HttpHandler {
         @Override
-        public void onError(UnleashException unleashException) {
-            String timestamp = LocalDateTime.now().format(TIME_FORMAT);
-            System.err.println("[" + timestamp + "] [STREAMING ERROR] " + unleashException.getMessage());
+        public void handle(HttpExchange exchange) throws IOException {
+            // Only the version: a tab that already shows it fetches nothing
+            String version = String.valueOf(renderedDashboard.version);
+            dashboardStreams.open(exchange, SseBroadcaster.event("changed", version, version));
         }
     }
     
-    private static class PollingEventSubscriber implements UnleashSubscriber {
-        @Override
-        public void togglesFetched(ClientFeaturesResponse toggleResponse) {
-            String timestamp = LocalDateTime.now().format(TIME_FORMAT);
-            System.out.println("[" + timestamp + "] [POLLING] Features updated");
+    /**
+     * JSON view of the comparison state for tooling: {@code /api/snapshot} returns every toggle,
+     * {@code /api/delta?sinceVersion=N} only the toggles whose state changed after version N
+     * (plus removals). Responses carry the version to pass as {@code sinceVersion} next time and
+     * are answered from the target's published snapshot alone. Versions restart with the process,
+     * so every response also carries the process's {@code epoch}, which the delta requires back; a
+     * delta for another epoch gets every toggle.
+     * Both take {@code target=<name>} and default to the first target; {@code /api/targets} lists
+     * the targets with their current counts.
+     */
+    static class ComparisonApiHandler implements HttpHandler {
+        private static final String EPOCH = UUID.randomUUID().toString();
+        
+        /** What the API reads from a comparison target. */
+        interface Target {
+            String name();
             
-            // Update UI immediately for polling side
-            updateUIImmediate();
+            /** The latest published snapshot. */
+            ComparisonSnapshot snapshot();
         }
-
+        
+        private final String epoch;
+        private final List<? extends Target> targets;
+        
+        ComparisonApiHandler(String epoch, List<? extends Target> targets) {
+            this.epoch = epoch;
+            this.targets = targets;
+        }
+        
         @Override
-        public void onError(UnleashException unleashException) {
-            String timestamp = LocalDateTime.now().format(TIME_FORMAT);
-            System.err.println("[" + timestamp + "] [POLLING ERROR] " + unleashException.getMessage());
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendJson(exchange, 405, error("Only GET is supported"));
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getRawQuery();
+            if (path.equals("/api/targets")) {
+                sendJson(exchange, 200, targetsJson());
+                return;
+            }
+            String targetName = queryParameter(query, "target");
+            Target target = targetName != null ? target(targetName) : targets.isEmpty() ? null : targets.get(0);
+            if (target == null) {
+                sendJson(exchange, 404, error(targetName == null ? "No targets" : "Unknown target " + targetName));
+            } else if (path.equals("/api/snapshot")) {
+                sendJson(exchange, 200, comparisonJson(target, -1));
+            } else if (path.equals("/api/delta")) {
+                String epoch = queryParameter(query, "epoch");
+                String sinceVersion = queryParameter(query, "sinceVersion");
+                if (epoch == null) {
+                    sendJson(exchange, 400, error("epoch is required; pass the one from the previous response"));
+                    return;
+                }
+                try {
+                    long since = sinceVersion == null ? -1 : Long.parseLong(sinceVersion);
+                    sendJson(exchange, 200, comparisonJson(target, this.epoch.equals(epoch) ? since : -1));
+                } catch (NumberFormatException e) {
+                    sendJson(exchange, 400, error("sinceVersion must be a number"));
+                }
+            } else {
+                sendJson(exchange, 404, error("Unknown endpoint " + path));
+            }
+        }
+        
+        private Target target(String name) {
+            for (Target target : targets) {
+                if (target.name().equals(name)) {
+                    return target;
+                }
+            }
+            return null;
+        }
+        
+        private JsonObject targetsJson() {
+            JsonArray list = new JsonArray();
+            for (Target target : targets) {
+                ComparisonSnapshot current = target.snapshot();
+                JsonObject json = new JsonObject();
+                json.addProperty("name", target.name());
+                json.addProperty("version", current.version);
+                json.addProperty("lastComparison", current.comparisonTime);
+                json.addProperty("toggles", current.size());
+                json.addProperty("mismatched", current.mismatchedCount);
+                json.addProperty("variantMismatched", current.variantMismatchedCount);
+                json.addProperty("discrepancies", current.discrepancies.size());
+                list.add(json);
+            }
+            JsonObject json = new JsonObject();
+            json.add("targets", list);
+            return json;
+        }
+        
+        private static JsonObject comparisonJson(Target target, long sinceVersion) {
+            // Everything comes from the one snapshot, so readers never wait for the evaluator
+            ComparisonSnapshot current = target.snapshot();
+            ComparisonSnapshot.StateChanges changes = current.changesSince(sinceVersion);
+            JsonObject json = new JsonObject();
+            json.addProperty("target", target.name());
+            json.addProperty("version", changes.version);
+            json.addProperty("full", changes.full);
+            if (sinceVersion >= 0) {
+                json.addProperty("sinceVersion", sinceVersion);
+            }
+            json.addProperty("lastComparison", current.comparisonTime);
+            
+            JsonObject counters = new JsonObject();
+            counters.addProperty("comparisons", current.comparisons);
+            counters.addProperty("mismatches", current.mismatches);
+            counters.addProperty("evaluations", current.evaluations);
+            counters.addProperty("streamingToggles", current.definedCount(ClientMode.STREAMING));
+            counters.addProperty("pollingToggles", current.definedCount(ClientMode.POLLING));
+            json.add("counters", counters);
+            
+            JsonArray discrepancies = new JsonArray();
+            for (String discrepancy : current.discrepancies) {
+                discrepancies.add(discrepancy);
+            }
+            json.add("discrepancies", discrepancies);
+            
+            JsonObject toggles = new JsonObject();
+            JsonArray removed = new JsonArray();
+            for (ComparisonSnapshot.ToggleState state : changes.toggles) {
+                if (state.removed) {
+                    removed.add(state.toggle);
+                    continue;
+                }
+                JsonObject toggle = new JsonObject();
+                toggle.addProperty("streaming", state.streaming);
+                toggle.addProperty("polling", state.polling);
+                toggle.addProperty("mismatch", state.mismatch());
+                toggle.addProperty("version", state.version);
+                toggles.add(state.toggle, toggle);
+            }
+            json.add("toggles", toggles);
+            if (!changes.full) {
+                json.add("removed", removed);
+            }
+            return json;
+        }
+        
+        private static JsonObject error(String message) {
+            JsonObject json = new JsonObject();
+            json.addProperty("error", message);
+            return json;
+        }
+        
+        private static String queryParameter(String query, String name) {
+            if (query == null) {
+                return null;
+            }
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                    return pair.substring(eq + 1);
+                }
+            }
+            return null;
+        }
+        
+        private void sendJson(HttpExchange exchange, int status, JsonObject json) throws IOException {
+            json.addProperty("epoch", epoch);
+            byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
         }
     }
     
-    private static class ComparisonHttpHandler implements HttpHandler {
+    private static class MetricsHttpHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String html = generateHTML();
-            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
-            exchange.getResponseHeaders().set("Refresh", "1"); // Auto-refresh every 1 second
-            byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = metricsText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", PrometheusWriter.CONTENT_TYPE);
             exchange.sendResponseHeaders(200, bytes.length);
-            
             try (OutputStream os = exchange.getResponseBody()) {
                 os.write(bytes);
             }
         }
         
-        private String generateHTML() {
-            StringBuilder html = new StringBuilder();
-            html.append("<!DOCTYPE html>\n");
-            html.append("<html>\n<head>\n");
-            html.append("<title>Unleash SDK Comparison</title>\n");
-            html.append("<style>\n");
-            html.append("body { font-family: Arial, sans-serif; margin: 20px; background: #f5f5f5; }\n");
-            html.append("h1 { color: #333; }\n");
-            html.append(".container { display: flex; gap: 20px; }\n");
-            html.append(".column { flex: 1; background: white; padding: 20px; border-radius: 8px; box-shadow: 0 2px 4px rgba(0,0,0,0.1); }\n");
-            html.append(".flag { padding: 8px; margin: 4px 0; border-radius: 4px; }\n");
-            html.append(".enabled { background: #d4edda; color: #155724; }\n");
-            html.append(".disabled { background: #e2e3e5; color: #383d41; }\n");
-            html.append(".mismatch { border: 3px solid #dc3545; font-weight: bold; }\n");
-            html.append(".stats { background: white; padding: 20px; margin-bottom: 20px; border-radius: 8px; box-shadow: 0 2px 4px rgba(0,0,0,0.1); }\n");
-            html.append(".discrepancy { color: #d73027; font-weight: bold; }\n");
-            html.append("</style>\n");
-            html.append("</head>\n<body>\n");
-            
-            html.append("<h1>🔄 Unleash SDK Comparison Dashboard</h1>\n");
-            
-            // Stats section
-            html.append("<div class='stats'>\n");
-            html.append("<h2>Statistics</h2>\n");
-            html.append("<p><strong>Last Comparison:</strong> ").append(lastComparisonTime).append("</p>\n");
-            html.append("<p><strong>Total Comparisons:</strong> ").append(comparisonCount.get()).append("</p>\n");
-            html.append("<p><strong>Mismatches:</strong> ").append(mismatchCount.get()).append("</p>\n");
-            double successRate = comparisonCount.get() > 0 ? 
-                ((comparisonCount.get() - mismatchCount.get()) * 100.0 / comparisonCount.get()) : 100.0;
-            html.append("<p><strong>Success Rate:</strong> ").append(String.format("%.2f%%", successRate)).append("</p>\n");
+        private static String metricsText() {
+            PrometheusWriter metrics = new PrometheusWriter();
+            metrics.family("unleash_comparison_toggles_fetched_total", "counter", "togglesFetched callbacks received.");
+            for (ComparisonTarget target : targets) {
+                for (ClientMode mode : ClientMode.values()) {
+                    metrics.sample("unleash_comparison_toggles_fetched_total", target.togglesFetched[mode.ordinal()].get(),
+                        "target", target.name, "mode", mode.label);
+                }
+            }
+            metrics.family("unleash_comparison_toggle_changes_total", "counter", "Toggle definition changes seen in togglesFetched.");
+            for (ComparisonTarget target : targets) {
+                for (ClientMode mode : ClientMode.values()) {
+                    metrics.sample("unleash_comparison_toggle_changes_total", target.toggleChanges[mode.ordinal()].get(),
+                        "target", target.name, "mode", mode.label);
+                }
+            }
+            metrics.family("unleash_comparison_client_errors_total", "counter", "onError callbacks received.");
+            for (ComparisonTarget target : targets) {
+                for (ClientMode mode : ClientMode.values()) {
+                    metrics.sample("unleash_comparison_client_errors_total", target.clientErrors[mode.ordinal()].get(),
+                        "target", target.name, "mode", mode.label);
+                }
+            }
             
-            if (!lastDiscrepancies.isEmpty()) {
-                html.append("<p class='discrepancy'>⚠️ Current Discrepancies:</p>\n");
-                html.append("<ul>\n");
-                for (String discrepancy : lastDiscrepancies) {
-                    html.append("<li class='discrepancy'>").append(discrepancy).append("</li>\n");
+            metrics.family("unleash_comparison_check_duration_seconds", "histogram", "Duration of a persistent-discrepancy check.");
+            for (ComparisonTarget target : targets) {
+                metrics.histogram("unleash_comparison_check_duration_seconds", target.checkDuration, "target", target.name);
+            }
+            metrics.family("unleash_comparison_update_duration_seconds", "histogram", "Duration of re-evaluating one mode after an update.");
+            for (ComparisonTarget target : targets) {
+                for (ClientMode mode : ClientMode.values()) {
+                    metrics.histogram("unleash_comparison_update_duration_seconds", target.updateDuration[mode.ordinal()],
+                        "target", target.name, "mode", mode.label);
+                }
+            }
+            metrics.family("unleash_comparison_evaluation_duration_seconds", "histogram", "Latency of one isEnabled call.");
+            for (ComparisonTarget target : targets) {
+                for (ClientMode mode : ClientMode.values()) {
+                    metrics.histogram("unleash_comparison_evaluation_duration_seconds", target.comparator.evaluationLatency[mode.ordinal()],
+                        "target", target.name, "mode", mode.label);
                 }
-                html.append("</ul>\n");
             }
-            html.append("</div>\n");
+            metrics.family("unleash_comparison_evaluations_total", "counter", "isEnabled evaluations made by the comparison.");
+            for (ComparisonTarget target : targets) {
+                metrics.sample("unleash_comparison_evaluations_total", target.snapshot().evaluations, "target", target.name);
+            }
             
-            // Flags comparison
-            html.append("<div class='container'>\n");
+            metrics.family("unleash_comparison_checks_total", "counter", "Persistent-discrepancy checks run.");
+            for (ComparisonTarget target : targets) {
+                metrics.sample("unleash_comparison_checks_total", target.comparisonCount.get(), "target", target.name);
+            }
+            metrics.family("unleash_comparison_checks_with_discrepancies_total", "counter", "Checks that found persistent discrepancies.");
+            for (ComparisonTarget target : targets) {
+                metrics.sample("unleash_comparison_checks_with_discrepancies_total", target.mismatchCount.get(), "target", target.name);
+            }
+            metrics.family("unleash_comparison_persistent_discrepancies_total", "counter", "Persistent discrepancies reported, summed over checks.");
+            for (ComparisonTarget target : targets) {
+                metrics.sample("unleash_comparison_persistent_discrepancies_total", target.persistentDiscrepancies.get(), "target", target.name);
+            }
+            metrics.family("unleash_comparison_skipped_cycles_total", "counter", "Checks and resyncs skipped because the previous one was still running.");
+            for (ComparisonTarget target : targets) {
+                metrics.sample("unleash_comparison_skipped_cycles_total", target.skippedCycles(), "target", target.name);
+            }
+            metrics.family("unleash_comparison_startup_seconds", "gauge", "Time from JVM start to each startup milestone of a mode.");
+            for (ComparisonTarget target : targets) {
+                for (ClientMode mode : ClientMode.values()) {
+                    for (StartupTimeline.Phase phase : StartupTimeline.Phase.values()) {
+                        long millis = target.startup.millis(mode, phase);
+                        if (millis >= 0) {
+                            metrics.sample("unleash_comparison_startup_seconds", millis / 1000.0,
+                                "target", target.name, "mode", mode.label, "phase", phase.label);
+                        }
+                    }
+                }
+            }
+            metrics.family("unleash_comparison_startup_consistent_seconds", "gauge", "Time from JVM start to the first comparison of live state in which the modes agreed.");
+            for (ComparisonTarget target : targets) {
+                long millis = target.startup.consistentMillis();
+                if (millis >= 0) {
+                    metrics.sample("unleash_comparison_startup_consistent_seconds", millis / 1000.0, "target", target.name);
+                }
+            }
+            metrics.family("unleash_comparison_bootstrapped", "gauge", "1 if the clients started from a bootstrap snapshot.");
+            for (ComparisonTarget target : targets) {
+                metrics.sample("unleash_comparison_bootstrapped", target.startup.isBootstrapped() ? 1 : 0, "target", target.name);
+            }
+            metrics.family("unleash_comparison_impressions_total", "counter", "Impression events the SDK delivered to the subscriber.");
+            for (ComparisonTarget target : targets) {
+                for (ClientMode mode : ClientMode.values()) {
+                    metrics.sample("unleash_comparison_impressions_total", target.impressions[mode.ordinal()].get(), "target", target.name, "mode", mode.label);
+                }
+            }
+            metrics.family("unleash_comparison_mismatched_toggles", "gauge", "Toggles whose values currently differ between the modes.");
+            for (ComparisonTarget target : targets) {
+                metrics.sample("unleash_comparison_mismatched_toggles", target.snapshot().mismatchedCount, "target", target.name);
+            }
+            metrics.family("unleash_comparison_variant_mismatched_toggles", "gauge", "Toggles with equal values but different variants.");
+            for (ComparisonTarget target : targets) {
+                metrics.sample("unleash_comparison_variant_mismatched_toggles", target.snapshot().variantMismatchedCount, "target", target.name);
+            }
+            metrics.family("unleash_comparison_only_in_toggles", "gauge", "Toggles currently defined in only one mode.");
+            for (ComparisonTarget target : targets) {
+                ComparisonSnapshot current = target.snapshot();
+                for (ClientMode mode : ClientMode.values()) {
+                    metrics.sample("unleash_comparison_only_in_toggles", current.onlyInCount(mode), "target", target.name, "mode", mode.label);
+                }
+            }
+            metrics.family("unleash_comparison_discrepancies", "gauge", "Discrepancies currently shown on the dashboard.");
+            for (ComparisonTarget target : targets) {
+                metrics.sample("unleash_comparison_discrepancies", target.snapshot().discrepancies.size(), "target", target.name);
+            }
+            metrics.family("unleash_comparison_tracked_discrepancies", "gauge", "Discrepancies waiting to become persistent.");
+            for (ComparisonTarget target : targets) {
+                metrics.sample("unleash_comparison_tracked_discrepancies", target.discrepancies.size(), "target", target.name);
+            }
             
-            // Streaming column
-            html.append("<div class='column'>\n");
-            html.append("<h2>🌊 Streaming Mode</h2>\n");
-            html.append("<p>Total flags: ").append(lastStreamingValues.size()).append("</p>\n");
-            for (Map.Entry<String, Boolean> entry : new TreeMap<>(lastStreamingValues).entrySet()) {
-                String flagName = entry.getKey();
-                boolean enabled = entry.getValue();
-                boolean hasMismatch = lastPollingValues.containsKey(flagName) && 
-                                     !lastPollingValues.get(flagName).equals(enabled);
-                String cssClass = enabled ? "enabled" : "disabled";
-                if (hasMismatch) cssClass += " mismatch";
-                html.append("<div class='flag ").append(cssClass).append("'>")
-                    .append(flagName).append(": ").append(enabled ? "✅ ENABLED" : "❌ DISABLED")
-                    .append("</div>\n");
-            }
-            html.append("</div>\n");
+            metrics.family("unleash_comparison_propagation_seconds", "histogram", "Publish to togglesFetched per mode (local server only).");
+            for (ComparisonTarget target : targets) {
+                metrics.histogram("unleash_comparison_propagation_seconds", target.propagation.streamingPropagation, "target", target.name, "mode", "streaming")
+                    .histogram("unleash_comparison_propagation_seconds", target.propagation.pollingPropagation, "target", target.name, "mode", "polling");
+            }
+            metrics.family("unleash_comparison_convergence_seconds", "histogram", "Publish (or first sighting) until both modes agree.");
+            for (ComparisonTarget target : targets) {
+                metrics.histogram("unleash_comparison_convergence_seconds", target.propagation.convergence, "target", target.name);
+            }
+            metrics.family("unleash_comparison_propagation_pending", "gauge", "Changes seen by one mode only.");
+            for (ComparisonTarget target : targets) {
+                metrics.sample("unleash_comparison_propagation_pending", target.propagation.pendingCount(), "target", target.name);
+            }
             
-            // Polling column
-            html.append("<div class='column'>\n");
-            html.append("<h2>📊 Polling Mode</h2>\n");
-            html.append("<p>Total flags: ").append(lastPollingValues.size()).append("</p>\n");
-            for (Map.Entry<String, Boolean> entry : new TreeMap<>(lastPollingValues).entrySet()) {
-                String flagName = entry.getKey();
-                boolean enabled = entry.getValue();
-                boolean hasMismatch = lastStreamingValues.containsKey(flagName) && 
-                                     !lastStreamingValues.get(flagName).equals(enabled);
-                String cssClass = enabled ? "enabled" : "disabled";
-                if (hasMismatch) cssClass += " mismatch";
-                html.append("<div class='flag ").append(cssClass).append("'>")
-                    .append(flagName).append(": ").append(enabled ? "✅ ENABLED" : "❌ DISABLED")
-                    .append("</div>\n");
-            }
-            html.append("</div>\n");
+            if (!faultProxies.isEmpty()) {
+                writeRecoveryMetrics(metrics);
+            }
+            if (eventStream != null) {
+                writeEventStreamMetrics(metrics);
+            }
+            if (loadDriver != null) {
+                writeLoadMetrics(metrics);
+            }
             
-            html.append("</div>\n"); // container
-            html.append("</body>\n</html>");
+            metrics.family("unleash_comparison_evaluator_threads", "gauge", "Threads shared by the evaluation of all targets.")
+                .sample("unleash_comparison_evaluator_threads", scheduler.threads());
+            metrics.family("unleash_comparison_cycle_lag_seconds", "histogram", "Delay between a check or resync falling due and starting.")
+                .histogram("unleash_comparison_cycle_lag_seconds", scheduler.cycleLag);
             
-            return html.toString();
+            JvmMetrics.write(metrics);
+            return metrics.toString();
+        }
+        
+        private static void writeLoadMetrics(PrometheusWriter metrics) {
+            metrics.family("unleash_comparison_load_call_seconds", "histogram", "Service time of the load driver's SDK calls.");
+            for (ClientMode mode : ClientMode.values()) {
+                for (LoadDriver.Call call : LoadDriver.Call.values()) {
+                    metrics.histogram("unleash_comparison_load_call_seconds", loadDriver.latency(mode, call), "mode", mode.label, "call", call.label);
+                }
+            }
+            metrics.family("unleash_comparison_load_scheduled_seconds", "histogram", "Time from when a paced call was due until it returned.")
+                .histogram("unleash_comparison_load_scheduled_seconds", loadDriver.scheduledLatency());
+            metrics.family("unleash_comparison_load_target_calls_per_second", "gauge", "Rate the load driver aims for, 0 when unthrottled.")
+                .sample("unleash_comparison_load_target_calls_per_second", loadDriver.callsPerSecondTarget());
+            metrics.family("unleash_comparison_load_dispatch_lag_seconds", "histogram", "Evaluation until its ToggleEvaluated event reached the subscriber.");
+            for (ClientMode mode : ClientMode.values()) {
+                metrics.histogram("unleash_comparison_load_dispatch_lag_seconds", loadDriver.dispatchLag[mode.ordinal()], "mode", mode.label);
+            }
+            metrics.family("unleash_comparison_load_transitions_total", "counter", "Probe values that changed, by whether a definition change explains them.")
+                .sample("unleash_comparison_load_transitions_total", loadDriver.verified.get(), "result", "explained")
+                .sample("unleash_comparison_load_transitions_total", loadDriver.inconsistent.get(), "result", "inconsistent");
+        }
+        
+        private static void writeEventStreamMetrics(PrometheusWriter metrics) {
+            metrics.family("unleash_comparison_jfr_event_seconds", "histogram", "Duration of the app's JFR events, streamed in-process.");
+            for (ComparisonEventStream.Series series : eventStream.series()) {
+                if (series.mode == null) {
+                    metrics.histogram("unleash_comparison_jfr_event_seconds", series.durations, "event", series.event);
+                } else {
+                    metrics.histogram("unleash_comparison_jfr_event_seconds", series.durations, "event", series.event, "mode", series.mode);
+                }
+            }
+            metrics.family("unleash_comparison_jfr_queue_seconds", "histogram", "togglesFetched callback until its target's lane processed it.");
+            for (ClientMode mode : ClientMode.values()) {
+                metrics.histogram("unleash_comparison_jfr_queue_seconds", eventStream.queueTime[mode.ordinal()], "mode", mode.label);
+            }
+            metrics.family("unleash_comparison_jfr_gc_pause_seconds", "histogram", "Pauses of each garbage collection, from the same event stream.")
+                .histogram("unleash_comparison_jfr_gc_pause_seconds", eventStream.gcPauses);
+            metrics.family("unleash_comparison_jfr_cancelled_comparisons_total", "counter", "Pending comparisons replaced by a newer one.")
+                .sample("unleash_comparison_jfr_cancelled_comparisons_total", eventStream.cancelledComparisons.get());
+            metrics.family("unleash_comparison_jfr_dropped_renders_total", "counter", "Dashboard renders identical to the previous one.")
+                .sample("unleash_comparison_jfr_dropped_renders_total", eventStream.droppedRenders.get());
+        }
+        
+        private static void writeRecoveryMetrics(PrometheusWriter metrics) {
+            metrics.family("unleash_comparison_faults_injected_total", "counter", "Faults injected by the proxies.");
+            for (FaultInjectionProxy.Fault fault : FaultInjectionProxy.Fault.values()) {
+                long injected = 0;
+                for (FaultInjectionProxy proxy : faultProxies.values()) {
+                    injected += proxy.injected[fault.ordinal()].get();
+                }
+                metrics.sample("unleash_comparison_faults_injected_total", injected, "fault", fault.label);
+            }
+            metrics.family("unleash_comparison_proxy_connections", "gauge", "Connections open through the fault proxies.");
+            for (FaultInjectionProxy proxy : faultProxies.values()) {
+                metrics.sample("unleash_comparison_proxy_connections", proxy.openConnections(), "upstream", proxy.upstream());
+            }
+            metrics.family("unleash_comparison_recovery_seconds", "histogram", "Fault start to detection, fault end to reconnect and to reconvergence.");
+            for (ComparisonTarget target : targets) {
+                for (ClientMode mode : ClientMode.values()) {
+                    for (RecoveryTracker.Phase phase : RecoveryTracker.Phase.values()) {
+                        metrics.histogram("unleash_comparison_recovery_seconds", target.recovery.durations[mode.ordinal()][phase.ordinal()],
+                            "target", target.name, "mode", mode.label, "phase", phase.label);
+                    }
+                }
+            }
+            metrics.family("unleash_comparison_recovery_undetected_total", "counter", "Faults a mode recovered from without reporting an error.");
+            for (ComparisonTarget target : targets) {
+                for (ClientMode mode : ClientMode.values()) {
+                    metrics.sample("unleash_comparison_recovery_undetected_total", target.recovery.undetected[mode.ordinal()].get(),
+                        "target", target.name, "mode", mode.label);
+                }
+            }
+            metrics.family("unleash_comparison_recovery_unrecovered_total", "counter", "Faults a mode had not reconverged from by the next fault or timeout.");
+            for (ComparisonTarget target : targets) {
+                for (ClientMode mode : ClientMode.values()) {
+                    metrics.sample("unleash_comparison_recovery_unrecovered_total", target.recovery.unrecovered[mode.ordinal()].get(),
+                        "target", target.name, "mode", mode.label);
+                }
+            }
+        }
+    }
+    
+    /** Coalesces state changes into at most one render per {@link #DASHBOARD_RENDER_INTERVAL_MS}. */
+    private static void dashboardChanged() {
+        if (dashboardRenderScheduled.compareAndSet(false, true)) {
+            dashboardLane.schedule(UnleashComparisonApp::renderDashboard, 
+                DASHBOARD_RENDER_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private static synchronized void renderDashboard() {
+        dashboardRenderScheduled.set(false);
+        ComparisonEvents.DashboardRender event = new ComparisonEvents.DashboardRender();
+        event.begin();
+        String body = generateDashboardBody();
+        RenderedDashboard previous = renderedDashboard;
+        RenderedDashboard page = null;
+        if (!body.equals(previous.body)) {
+            page = renderDashboardPage(previous.version + 1, body);
+            renderedDashboard = page;
+            dashboardStreams.broadcast("changed", String.valueOf(page.version), String.valueOf(page.version));
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.targets = targets.size();
+            event.changed = page != null;
+            event.pageBytes = page == null ? 0 : page.html.length;
+            event.commit();
+        }
+    }
+    
+    private static RenderedDashboard renderDashboardPage(long version, String body) {
+        StringBuilder html = new StringBuilder(body.length() + 2048);
+        html.append("<!DOCTYPE html>\n");
+        html.append("<html>\n<head>\n");
+        html.append("<meta charset='UTF-8'>\n");
+        html.append("<title>Unleash SDK Comparison</title>\n");
+        html.append("<noscript><meta http-equiv='refresh' content='5'></noscript>\n");
+        html.append("<style>\n");
+        html.append("body { font-family: Arial, sans-serif; margin: 20px; background: #f5f5f5; }\n");
+        html.append("h1 { color: #333; }\n");
+        html.append(".container { display: flex; gap: 20px; }\n");
+        html.append(".column { flex: 1; background: white; padding: 20px; border-radius: 8px; box-shadow: 0 2px 4px rgba(0,0,0,0.1); }\n");
+        html.append(".flag { padding: 8px; margin: 4px 0; border-radius: 4px; }\n");
+        html.append(".enabled { background: #d4edda; color: #155724; }\n");
+        html.append(".disabled { background: #e2e3e5; color: #383d41; }\n");
+        html.append(".mismatch { border: 3px solid #dc3545; font-weight: bold; }\n");
+        html.append(".stats { background: white; padding: 20px; margin-bottom: 20px; border-radius: 8px; box-shadow: 0 2px 4px rgba(0,0,0,0.1); }\n");
+        html.append(".discrepancy { color: #d73027; font-weight: bold; }\n");
+        html.append("summary h2 { display: inline; }\n");
+        html.append("</style>\n");
+        html.append("</head>\n<body>\n");
+        html.append("<h1>🔄 Unleash SDK Comparison Dashboard</h1>\n");
+        html.append("<div id='dashboard'>\n").append(body).append("</div>\n");
+        // Later renders are announced over SSE by version and fetched with the browser's ETag
+        // cache; EventSource reconnects (and gets the current version) by itself
+        html.append("<script>\n");
+        html.append("var shown = '").append(version).append("', requested = 0;\n");
+        html.append("new EventSource('/events').addEventListener('changed', function (e) {\n");
+        html.append("  if (e.data === shown) return;\n");
+        html.append("  shown = e.data;\n");
+        html.append("  var request = ++requested;\n");
+        html.append("  fetch('/dashboard/body').then(function (r) { return r.text(); }).then(function (body) {\n");
+        // A slower response to an earlier announcement must not replace a newer render
+        html.append("    if (request !== requested) return;\n");
+        html.append("    var dashboard = document.getElementById('dashboard');\n");
+        // Keep the target sections the viewer expanded open across renders
+        html.append("    var open = Array.prototype.map.call(dashboard.querySelectorAll('details[open]'), function (d) { return d.id; });\n");
+        html.append("    dashboard.innerHTML = body;\n");
+        html.append("    open.forEach(function (id) { var d = document.getElementById(id); if (d) d.open = true; });\n");
+        html.append("  });\n");
+        html.append("});\n");
+        html.append("</script>\n");
+        html.append("</body>\n</html>");
+        
+        byte[] bytes = html.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        return new RenderedDashboard(version, body, bytes, gzip(bytes), bodyBytes, gzip(bodyBytes));
+    }
+    
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+    
+    private static String generateDashboardBody() {
+        StringBuilder html = new StringBuilder();
+        boolean several = targets.size() > 1;
+        if (several) {
+            appendTargetOverview(html);
+        }
+        if (loadDriver != null) {
+            appendLoadDriver(html);
+        }
+        if (eventStream != null) {
+            appendEventStream(html);
+        }
+        for (ComparisonTarget target : targets) {
+            appendTargetSection(html, target, several);
+        }
+        return html.toString();
+    }
+    
+    private static void appendTargetOverview(StringBuilder html) {
+        html.append("<div class='stats'>\n");
+        html.append("<h2>Targets</h2>\n");
+        html.append("<p>").append(targets.size()).append(" targets on ").append(scheduler.threads())
+            .append(" evaluator threads | Cycle lag: ").append(scheduler.cycleLag.summary()).append("</p>\n");
+        html.append("<table>\n<tr><th>Target</th><th>Toggles</th><th>Mismatched</th><th>Variants</th>")
+            .append("<th>Discrepancies</th><th>Checks</th><th>Skipped</th><th>Last Comparison</th></tr>\n");
+        for (ComparisonTarget target : targets) {
+            ComparisonSnapshot current = target.snapshot();
+            html.append("<tr").append(current.discrepancies.isEmpty() ? "" : " class='discrepancy'").append(">")
+                .append("<td><a href='#target-").append(target.name).append("'>").append(target.name).append("</a></td>")
+                .append("<td>").append(current.size()).append("</td>")
+                .append("<td>").append(current.mismatchedCount).append("</td>")
+                .append("<td>").append(current.variantMismatchedCount).append("</td>")
+                .append("<td>").append(current.discrepancies.size()).append("</td>")
+                .append("<td>").append(target.comparisonCount.get()).append("</td>")
+                .append("<td>").append(target.skippedCycles()).append("</td>")
+                .append("<td>").append(current.comparisonTime).append("</td></tr>\n");
+        }
+        html.append("</table>\n");
+        html.append("</div>\n");
+    }
+    
+    private static void appendLoadDriver(StringBuilder html) {
+        html.append("<div class='stats'>\n");
+        html.append("<h2>Load Driver</h2>\n");
+        html.append("<p>").append(loadDriver.threads()).append(" threads | ")
+            .append(String.format("%.0f calls/s", loadDriver.callsPerSecondAchieved()))
+            .append(loadDriver.callsPerSecondTarget() > 0 ? String.format(" of %.0f", loadDriver.callsPerSecondTarget()) : " (unthrottled)")
+            .append(" | Transitions explained: ").append(loadDriver.verified.get())
+            .append(" | Inconsistent: ").append(loadDriver.inconsistent.get()).append("</p>\n");
+        html.append("<table>\n");
+        for (ClientMode mode : ClientMode.values()) {
+            for (LoadDriver.Call call : LoadDriver.Call.values()) {
+                appendHistogramRow(html, mode.label + " " + call.label, loadDriver.latency(mode, call));
+            }
+        }
+        if (loadDriver.callsPerSecondTarget() > 0) {
+            appendHistogramRow(html, "From due time", loadDriver.scheduledLatency());
+        }
+        for (ClientMode mode : ClientMode.values()) {
+            appendHistogramRow(html, "Dispatch lag (" + mode.label + ")", loadDriver.dispatchLag[mode.ordinal()]);
+        }
+        html.append("</table>\n");
+        List<String> inconsistencies = loadDriver.inconsistencies();
+        if (!inconsistencies.isEmpty()) {
+            html.append("<ul>\n");
+            for (String inconsistency : inconsistencies) {
+                html.append("<li class='discrepancy'>").append(escapeHtml(inconsistency)).append("</li>\n");
+            }
+            html.append("</ul>\n");
+        }
+        html.append("</div>\n");
+    }
+    
+    private static void appendEventStream(StringBuilder html) {
+        html.append("<div class='stats'>\n");
+        html.append("<h2>Flight Recorder</h2>\n");
+        html.append("<p>Cancelled pending comparisons: ").append(eventStream.cancelledComparisons.get())
+            .append(" | Dropped renders: ").append(eventStream.droppedRenders.get()).append("</p>\n");
+        html.append("<table>\n");
+        for (ComparisonEventStream.Series series : eventStream.series()) {
+            appendHistogramRow(html, series.mode == null ? series.event : series.event + " (" + series.mode + ")", series.durations);
+        }
+        for (ClientMode mode : ClientMode.values()) {
+            appendHistogramRow(html, "Queue time (" + mode.label + ")", eventStream.queueTime[mode.ordinal()]);
         }
+        appendHistogramRow(html, "GC pauses", eventStream.gcPauses);
+        html.append("</table>\n");
+        html.append("</div>\n");
+    }
+    
+    /** Stats and flags of one target; collapsible, and open while it has discrepancies, when there are several. */
+    private static void appendTargetSection(StringBuilder html, ComparisonTarget target, boolean collapsible) {
+        ComparisonSnapshot current = target.snapshot();
+        if (collapsible) {
+            html.append("<details id='target-").append(target.name).append("'")
+                .append(current.discrepancies.isEmpty() ? "" : " open").append(">\n");
+            html.append("<summary><h2>").append(target.name).append("</h2> ")
+                .append(escapeHtml(target.apiUrl)).append("</summary>\n");
+        }
+        
+        // Stats section
+        html.append("<div class='stats'>\n");
+        html.append("<h2>Statistics</h2>\n");
+        html.append("<p><strong>Last Comparison:</strong> ").append(current.comparisonTime).append("</p>\n");
+        long comparisons = target.comparisonCount.get();
+        long mismatches = target.mismatchCount.get();
+        html.append("<p><strong>Total Comparisons:</strong> ").append(comparisons).append("</p>\n");
+        html.append("<p><strong>Mismatches:</strong> ").append(mismatches).append("</p>\n");
+        double successRate = comparisons > 0 ? ((comparisons - mismatches) * 100.0 / comparisons) : 100.0;
+        html.append("<p><strong>Success Rate:</strong> ").append(String.format("%.2f%%", successRate)).append("</p>\n");
+        
+        PropagationTracker propagation = target.propagation;
+        html.append("<h3>Propagation Latency</h3>\n");
+        html.append("<p>Converged: ").append(propagation.convergedCount())
+            .append(" | In flight: ").append(propagation.pendingCount())
+            .append(" | Superseded: ").append(propagation.supersededCount())
+            .append(" | Never converged: ").append(propagation.abandonedCount()).append("</p>\n");
+        html.append("<table>\n");
+        appendHistogramRow(html, "Origin &rarr; streaming", propagation.streamingPropagation);
+        appendHistogramRow(html, "Origin &rarr; polling", propagation.pollingPropagation);
+        appendHistogramRow(html, "Streaming ahead by", propagation.streamingLead);
+        appendHistogramRow(html, "Polling ahead by", propagation.pollingLead);
+        appendHistogramRow(html, "Until converged", propagation.convergence);
+        html.append("</table>\n");
+        
+        StartupTimeline startup = target.startup;
+        html.append("<h3>Startup</h3>\n");
+        html.append("<p>").append(startup.isBootstrapped() ? "Bootstrapped from snapshot" : "Cold start")
+            .append(" | First consistent comparison: ").append(formatStartupMillis(startup.consistentMillis())).append("</p>\n");
+        html.append("<table>\n<tr><th>Mode</th>");
+        for (StartupTimeline.Phase phase : StartupTimeline.Phase.values()) {
+            html.append("<th>").append(phase.label.replace('_', ' ')).append("</th>");
+        }
+        html.append("</tr>\n");
+        for (ClientMode mode : ClientMode.values()) {
+            html.append("<tr><td>").append(mode.label).append("</td>");
+            for (StartupTimeline.Phase phase : StartupTimeline.Phase.values()) {
+                html.append("<td>").append(formatStartupMillis(startup.millis(mode, phase))).append("</td>");
+            }
+            html.append("</tr>\n");
+        }
+        html.append("</table>\n");
+        
+        RecoveryTracker recovery = target.recovery;
+        if (recovery.faults.get() > 0) {
+            html.append("<h3>Fault Recovery</h3>\n");
+            html.append("<p>Faults: ").append(recovery.faults.get());
+            for (ClientMode mode : ClientMode.values()) {
+                html.append(" | ").append(mode.label).append(" undetected: ").append(recovery.undetected[mode.ordinal()].get())
+                    .append(", unrecovered: ").append(recovery.unrecovered[mode.ordinal()].get());
+            }
+            html.append("</p>\n<table>\n");
+            for (ClientMode mode : ClientMode.values()) {
+                for (RecoveryTracker.Phase phase : RecoveryTracker.Phase.values()) {
+                    appendHistogramRow(html, mode.label + " " + phase.label, recovery.durations[mode.ordinal()][phase.ordinal()]);
+                }
+            }
+            html.append("</table>\n");
+        }
+        
+        // The matrix sweeps the first target only
+        EvaluationMatrix.Result matrixResult = lastMatrixResult;
+        if (matrixResult != null && target == targets.get(0)) {
+            html.append("<h3>Evaluation Matrix</h3>\n");
+            html.append("<pre>").append(escapeHtml(matrixResult.summary())).append("</pre>\n");
+        }
+        
+        if (!current.discrepancies.isEmpty()) {
+            html.append("<p class='discrepancy'>⚠️ Current Discrepancies:</p>\n");
+            html.append("<ul>\n");
+            for (String discrepancy : current.discrepancies) {
+                html.append("<li class='discrepancy'>").append(escapeHtml(discrepancy)).append("</li>\n");
+            }
+            html.append("</ul>\n");
+        }
+        
+        List<ComparisonHistoryLog.Cycle> history = target.recentHistory.newest(DASHBOARD_HISTORY_ROWS);
+        if (!history.isEmpty()) {
+            html.append("<h3>Recent History</h3>\n");
+            html.append("<table>\n<tr><th>Time</th><th>Recorded</th><th>Mismatched</th><th>Variants</th><th>Persistent</th></tr>\n");
+            for (ComparisonHistoryLog.Cycle cycle : history) {
+                html.append("<tr><td>").append(TIME_FORMAT.format(LocalDateTime.ofInstant(
+                        Instant.ofEpochMilli(cycle.timestampMillis), ZoneId.systemDefault())))
+                    .append("</td><td>").append(cycle.entries.size()).append(cycle.keyframe ? " (all)" : "")
+                    .append("</td><td>").append(cycle.count(ComparisonHistoryLog.MISMATCH))
+                    .append("</td><td>").append(cycle.count(ComparisonHistoryLog.VARIANT_MISMATCH))
+                    .append("</td><td>").append(cycle.count(ComparisonHistoryLog.PERSISTENT)).append("</td></tr>\n");
+            }
+            html.append("</table>\n");
+        }
+        html.append("</div>\n");
+        
+        // Flags comparison, which only changes with the snapshot
+        RenderedColumns columns = renderedColumns.get(target.name);
+        // Snapshots share their version until a toggle changes
+        if (columns == null || columns.snapshot.version != current.version) {
+            StringBuilder flags = new StringBuilder();
+            flags.append("<div class='container'>\n");
+            appendFlagColumn(flags, "🌊 Streaming Mode", current, ClientMode.STREAMING);
+            appendFlagColumn(flags, "📊 Polling Mode", current, ClientMode.POLLING);
+            flags.append("</div>\n"); // container
+            columns = new RenderedColumns(current, flags.toString());
+            renderedColumns.put(target.name, columns);
+        }
+        html.append(columns.html);
+        
+        if (collapsible) {
+            html.append("</details>\n");
+        }
+    }
+    
+    private static void appendFlagColumn(StringBuilder html, String title, ComparisonSnapshot current, ClientMode mode) {
+        int defined = 0;
+        for (int i = 0; i < current.size(); i++) {
+            if (current.defined(mode, i)) {
+                defined++;
+            }
+        }
+        html.append("<div class='column'>\n");
+        html.append("<h2>").append(title).append("</h2>\n");
+        html.append("<p>Total flags: ").append(defined).append("</p>\n");
+        for (int i = 0; i < current.size(); i++) {
+            if (!current.defined(mode, i)) {
+                continue;
+            }
+            boolean enabled = current.enabled(mode, i);
+            boolean hasMismatch = current.defined(mode.other(), i) && current.mismatch(i);
+            String cssClass = enabled ? "enabled" : "disabled";
+            if (hasMismatch) cssClass += " mismatch";
+            html.append("<div class='flag ").append(cssClass).append("'>")
+                .append(escapeHtml(current.toggle(i))).append(": ").append(enabled ? "✅ ENABLED" : "❌ DISABLED")
+                .append("</div>\n");
+        }
+        html.append("</div>\n");
+    }
+    
+    /**
+     * Escapes text for HTML element content and quoted attributes. Toggle names, variant payloads
+     * and anything describing them come from the Unleash instance, not from this app.
+     */
+    static String escapeHtml(String text) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&': replacement = "&amp;"; break;
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                case '"': replacement = "&quot;"; break;
+                case '\'': replacement = "&#39;"; break;
+                default: replacement = null;
+            }
+            if (replacement == null) {
+                if (escaped != null) {
+                    escaped.append(c);
+                }
+                continue;
+            }
+            if (escaped == null) {
+                escaped = new StringBuilder(text.length() + 16).append(text, 0, i);
+            }
+            escaped.append(replacement);
+        }
+        return escaped == null ? text : escaped.toString();
+    }
+    
+    private static String formatStartupMillis(long millis) {
+        return millis < 0 ? "-" : millis + "ms";
+    }
+    
+    private static void appendHistogramRow(StringBuilder html, String label, LatencyHistogram histogram) {
+        html.append("<tr><td>").append(label).append("</td><td>").append(histogram.summary()).append("</td></tr>\n");
     }
     
     public static void main(String[] args) {
-        String apiUrl = getOrElse("UNLEASH_API_URL", "https://app.unleash-hosted.com/demo/api");
-        String apiToken = getOrElse("UNLEASH_API_TOKEN", 
-            "*:development.25a06b75248528f8ca93ce179dcdd141aedfb632231e0d21fd8ff349");
+        // A headless soak runs without the dashboard for a bounded time and reports to a file
+        SoakRun soak = null;
+        if (Boolean.parseBoolean(getOrElse("HEADLESS", "false"))) {
+            try {
+                soak = new SoakRun(TimeUnit.SECONDS.toMillis(Long.parseLong(getOrElse("SOAK_DURATION_SECONDS", "600"))),
+                    Long.parseLong(getOrElse("SOAK_MAX_UPDATES", "0")),
+                    SoakRun.Threshold.parse(getOrElse("SOAK_THRESHOLDS", DEFAULT_SOAK_THRESHOLDS)),
+                    new File(getOrElse("SOAK_REPORT_FILE", "soak-report.json")));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid soak configuration: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        
+        List<TargetSpec> specs;
+        // Optionally replace the hosted instance with an in-process stand-in driven by synthetic churn
+        if (soak != null || Boolean.parseBoolean(getOrElse("UNLEASH_LOCAL_SERVER", "false"))) {
+            try {
+                startLocalServer();
+            } catch (IOException e) {
+                System.err.println("Failed to start local Unleash server: " + e.getMessage());
+                System.exit(1);
+            }
+            specs = localTargets();
+        } else {
+            specs = configuredTargets();
+        }
+        
+        // Started before the clients, so their first callbacks are measured too
+        if (Boolean.parseBoolean(getOrElse("JFR_STREAM", "false"))) {
+            eventStream = ComparisonEventStream.start();
+        }
+        
+        // Opened before the clients, whose constructors already deliver the first payload
+        String recordFile = getOrElse("RECORD_FILE", "");
+        if (!recordFile.isEmpty()) {
+            try {
+                recorder = new UpdateRecorder(new File(recordFile));
+                System.out.println("Recording updates to " + recorder.file());
+            } catch (IOException e) {
+                System.err.println("Update recording disabled: " + e.getMessage());
+            }
+        }
+        
+        List<FaultInjectionProxy.ScheduledFault> faultSchedule = null;
+        if (Boolean.parseBoolean(getOrElse("FAULT_PROXY", "false"))) {
+            try {
+                faultSchedule = FaultInjectionProxy.ScheduledFault.parse(getOrElse("FAULT_SCHEDULE", DEFAULT_FAULT_SCHEDULE));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid fault schedule: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        
+        // Matrix sweeps evaluate through the real clients; keep them out of the usage metrics
+        int matrixUsers = Integer.parseInt(getOrElse("MATRIX_USERS", "0"));
+        boolean historyEnabled = Boolean.parseBoolean(getOrElse("HISTORY_ENABLED", "true"));
+        boolean bootstrapEnabled = Boolean.parseBoolean(getOrElse("BOOTSTRAP_ENABLED", "true"));
+        File bootstrapDir = new File(getOrElse("BOOTSTRAP_DIR",
+            new File(System.getProperty("java.io.tmpdir"), "unleash-comparison-bootstrap").getPath()));
         
         System.out.println("Starting Unleash Comparison App");
-        System.out.println("API URL: " + apiUrl);
+        System.out.println("Targets: " + specs.size() + ", evaluator threads: " + scheduler.threads());
         System.out.println("Polling interval: " + POLLING_INTERVAL_MS + "ms");
-        System.out.println("Comparison delay after streaming update: " + COMPARISON_DELAY_MS + "ms");
-        System.out.println("Regular check interval: " + CHECK_INTERVAL_MS + "ms");
+        System.out.println("Comparison fires on convergence, settle delay: " + ComparisonTarget.CONVERGENCE_SETTLE_MS + "ms");
+        System.out.println("Regular check interval: " + CHECK_INTERVAL_MS + "ms, staggered across targets");
         System.out.println("----------------------------------------");
         
-        // Initialize streaming client
-        UnleashConfig streamingConfig = UnleashConfig.builder()
-                .appName("comparison-app-streaming")
-                .instanceId("comparison-streaming-" + UUID.randomUUID())
-                .unleashAPI(apiUrl)
-                .customHttpHeader("Authorization", apiToken)
-               .experimentalStreamingMode()
-                .subscriber(new StreamingEventSubscriber())
-                .synchronousFetchOnInitialisation(true)
-                .build();
-        
-        streamingClient = new DefaultUnleash(streamingConfig);
-        System.out.println("Streaming client initialized");
-        
-        // Initialize polling client
-        UnleashConfig pollingConfig = UnleashConfig.builder()
-                .appName("comparison-app-polling")
-                .instanceId("comparison-polling-" + UUID.randomUUID())
-                .unleashAPI(apiUrl)
-                .customHttpHeader("Authorization", apiToken)
-                .fetchTogglesInterval(POLLING_INTERVAL_MS / 1000) // Convert to seconds
-                .subscriber(new PollingEventSubscriber())
-                .synchronousFetchOnInitialisation(true)
-                .build();
+        for (TargetSpec spec : specs) {
+            // A single target keeps the history directory to itself, several get one each
+            ComparisonHistoryLog historyLog = historyEnabled ? openHistoryLog(specs.size() > 1 ? spec.name : null) : null;
+            FaultInjectionProxy proxy = faultSchedule == null ? null : faultProxy(spec);
+            String apiUrl = proxy == null ? spec.apiUrl
+                : "http://localhost:" + proxy.port() + URI.create(spec.apiUrl).getRawPath();
+            BootstrapSnapshot bootstrap = bootstrapEnabled ? new BootstrapSnapshot(new File(bootstrapDir, spec.name + ".json")) : null;
+            ComparisonTarget target = new ComparisonTarget(spec.name, apiUrl, spec.apiToken, scheduler,
+                localServer, historyLog, recorder, bootstrap,
+                soak == null ? UnleashComparisonApp::dashboardChanged : () -> { });
+            if (proxy != null) {
+                target.watch(proxy);
+            }
+            targets.add(target);
+            target.start(matrixUsers > 0);
+        }
+        System.out.println("Clients of " + targets.size() + " target(s) constructed "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - StartupTimeline.JVM_START_NANOS) + "ms after JVM start");
+        if (faultSchedule != null) {
+            long cycleMs = TimeUnit.SECONDS.toMillis(Long.parseLong(getOrElse("FAULT_CYCLE_SECONDS", "780")));
+            for (FaultInjectionProxy proxy : faultProxies.values()) {
+                proxy.schedule(faultSchedule, cycleMs);
+            }
+            System.out.println("Fault schedule: " + faultSchedule + (cycleMs > 0 ? ", every " + cycleMs / 1000 + "s" : ""));
+        }
+        if (replayer != null) {
+            // Timed from here, so slow client startup doesn't eat into the recorded spacing
+            replayer.play();
+        }
         
-        pollingClient = new DefaultUnleash(pollingConfig);
-        System.out.println("Polling client initialized");
+        if (soak == null) {
+            startHttpServer();
+        }
         
-        // Start HTTP server
-        try {
-            HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
-            server.createContext("/", new ComparisonHttpHandler());
-            server.setExecutor(httpExecutor); // Use bounded executor
-            server.start();
-            System.out.println("HTTP server started on http://localhost:8080");
-            System.out.println("Open your browser to view the comparison dashboard");
-        } catch (IOException e) {
-            System.err.println("Failed to start HTTP server: " + e.getMessage());
+        if (matrixUsers > 0) {
+            startMatrix(matrixUsers);
         }
         
-        // Initial UI update and comparison
-        updateUIImmediate();
-        compareClientsForDiscrepancies();
+        // Schedule periodic comparisons, spread over the interval so targets don't check at once
+        for (int i = 0; i < targets.size(); i++) {
+            targets.get(i).scheduleCycles(i, targets.size());
+        }
         
-        // Schedule periodic comparisons
-        scheduler.scheduleAtFixedRate(UnleashComparisonApp::compareClientsForDiscrepancies, 
-            CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        int loadThreads = Integer.parseInt(getOrElse("LOAD_THREADS", "0"));
+        if (loadThreads > 0) {
+            startLoadDriver(loadThreads);
+        }
         
-        // Start memory monitoring every 10 seconds
-        scheduler.scheduleAtFixedRate(UnleashComparisonApp::logMemoryUsage, 
-            10_000, 10_000, TimeUnit.MILLISECONDS);
+        if (soak != null) {
+            System.exit(runSoak(soak));
+        }
         
         // Keep the app running
         System.out.println("\nSoak test started. Press Ctrl+C to exit.\n");
         
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\nShutting down...");
+            if (loadDriver != null) {
+                loadDriver.stop();
+            }
             scheduler.shutdown();
             httpExecutor.shutdown();
-            streamingClient.shutdown();
-            pollingClient.shutdown();
+            dashboardStreams.shutdown();
+            for (ComparisonTarget target : targets) {
+                target.shutdown();
+            }
+            if (matrixScheduler != null) {
+                matrixScheduler.shutdownNow();
+                matrix.shutdown();
+            }
+            if (churnGenerator != null) {
+                churnGenerator.stop();
+            }
+            if (replayer != null) {
+                replayer.stop();
+                System.out.println(replayer.summary());
+            }
+            for (FaultInjectionProxy proxy : faultProxies.values()) {
+                proxy.stop();
+            }
+            if (localServer != null) {
+                localServer.stop();
+            }
+            if (eventStream != null) {
+                eventStream.close();
+            }
             try {
                 if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
                     scheduler.shutdownNow();
@@ -297,6 +1135,17 @@ public class UnleashComparisonApp {
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
+            if (recorder != null) {
+                try {
+                    recorder.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close update recording: " + e.getMessage());
+                }
+            }
+            // After the scheduler stopped, so no comparison is appending
+            for (ComparisonTarget target : targets) {
+                target.closeHistory();
+            }
         }));
         
         try {
@@ -307,230 +1156,235 @@ public class UnleashComparisonApp {
         }
     }
     
-    private static void updateUIImmediate() {
-        // Update UI data immediately when either client receives updates
-        String timestamp = LocalDateTime.now().format(TIME_FORMAT);
-        lastComparisonTime = timestamp;
-        
-        // Use pre-created contexts to avoid allocations
-        
-        // Get current values from both clients
-        List<String> streamingToggles = streamingClient.more().getFeatureToggleNames();
-        List<String> pollingToggles = pollingClient.more().getFeatureToggleNames();
-        
-        // Reuse a set by clearing it instead of creating new one
-        Set<String> allToggles = new HashSet<>(streamingToggles);
-        allToggles.addAll(pollingToggles);
-        
-        // Clear and reuse the maps instead of creating new ones
-        synchronized (lastStreamingValues) {
-            lastStreamingValues.clear();
-            for (String toggle : allToggles) {
-                lastStreamingValues.put(toggle, streamingClient.isEnabled(toggle, STREAMING_CONTEXT));
+    private static void startHttpServer() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
+            server.createContext("/", new ComparisonHttpHandler());
+            server.createContext("/events", new DashboardEventsHandler());
+            server.createContext("/api/", new ComparisonApiHandler(ComparisonApiHandler.EPOCH, targets));
+            server.createContext("/metrics", new MetricsHttpHandler());
+            server.setExecutor(httpExecutor); // Use bounded executor
+            server.start();
+            System.out.println("HTTP server started on http://localhost:8080");
+            System.out.println("Open your browser to view the comparison dashboard");
+        } catch (IOException e) {
+            System.err.println("Failed to start HTTP server: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Runs the headless soak to its end, stops the updates and gives polling time to catch up
+     * before reporting; returns the exit code. The shutdown hook cleans up as after Ctrl+C.
+     */
+    private static int runSoak(SoakRun soak) {
+        soak.start(localServer, targets);
+        try {
+            String stoppedBy = soak.awaitEnd(localServer);
+            if (churnGenerator != null) {
+                churnGenerator.stop();
+            }
+            if (replayer != null) {
+                replayer.stop();
+            }
+            boolean converged = soak.drain(targets, POLLING_INTERVAL_MS * 2);
+            if (loadDriver != null) {
+                // After draining, so every transition it saw can be checked against the changes
+                loadDriver.stop();
             }
+            return soak.finish(targets, localServer, eventStream, loadDriver, stoppedBy, converged);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
         }
-        
-        synchronized (lastPollingValues) {
-            lastPollingValues.clear();
-            for (String toggle : allToggles) {
-                lastPollingValues.put(toggle, pollingClient.isEnabled(toggle, POLLING_CONTEXT));
+    }
+    
+    /**
+     * Targets from {@code UNLEASH_TARGETS} or the file named by {@code UNLEASH_TARGETS_FILE}, as
+     * {@code name,url,token} entries; otherwise the single {@code UNLEASH_API_URL} target.
+     */
+    private static List<TargetSpec> configuredTargets() {
+        String file = getOrElse("UNLEASH_TARGETS_FILE", "");
+        String list = getOrElse("UNLEASH_TARGETS", "");
+        try {
+            if (!file.isEmpty()) {
+                list = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
             }
+            List<TargetSpec> specs = TargetSpec.parse(list);
+            if (!specs.isEmpty()) {
+                return specs;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Invalid target list: " + e.getMessage());
+            System.exit(1);
         }
-        
-        // Calculate discrepancies and update the list
-        synchronized (lastDiscrepancies) {
-            lastDiscrepancies.clear();
-            for (String toggle : allToggles) {
-                Boolean streamingEnabled = lastStreamingValues.get(toggle);
-                Boolean pollingEnabled = lastPollingValues.get(toggle);
-                
-                if (streamingEnabled != null && pollingEnabled != null && 
-                    !streamingEnabled.equals(pollingEnabled)) {
-                    // Use StringBuilder for efficient string construction
-                    StringBuilder sb = new StringBuilder(64);
-                    sb.append("Toggle '").append(toggle)
-                      .append("': streaming=").append(streamingEnabled)
-                      .append(", polling=").append(pollingEnabled);
-                    lastDiscrepancies.add(sb.toString());
-                }
+        return Collections.singletonList(new TargetSpec("default",
+            getOrElse("UNLEASH_API_URL", DEMO_API_URL), getOrElse("UNLEASH_API_TOKEN", DEMO_API_TOKEN)));
+    }
+    
+    /** The proxy in front of the target's backend, started on first use; null for TLS backends. */
+    private static FaultInjectionProxy faultProxy(TargetSpec spec) {
+        URI uri = URI.create(spec.apiUrl);
+        if (!"http".equals(uri.getScheme())) {
+            System.err.println("[" + spec.name + "] Not proxied, faults can only be injected into plain HTTP: " + spec.apiUrl);
+            return null;
+        }
+        int port = uri.getPort() < 0 ? 80 : uri.getPort();
+        String upstream = uri.getHost() + ":" + port;
+        FaultInjectionProxy proxy = faultProxies.get(upstream);
+        if (proxy == null) {
+            try {
+                proxy = new FaultInjectionProxy(0, uri.getHost(), port);
+            } catch (IOException e) {
+                System.err.println("Failed to start fault proxy for " + upstream + ": " + e.getMessage());
+                System.exit(1);
             }
+            faultProxies.put(upstream, proxy);
+            System.out.println("Fault proxy on localhost:" + proxy.port() + " in front of " + upstream);
         }
+        return proxy;
     }
     
-    private static void logMemoryUsage() {
-        long totalMemory = runtime.totalMemory();
-        long freeMemory = runtime.freeMemory();
-        long usedMemory = totalMemory - freeMemory;
-        long maxMemory = runtime.maxMemory();
-        
-        // Convert to MB
-        long usedMB = usedMemory / (1024 * 1024);
-        long totalMB = totalMemory / (1024 * 1024);
-        long maxMB = maxMemory / (1024 * 1024);
-        
-        // Calculate change from last check
-        long changeMemory = usedMemory - lastUsedMemory;
-        String changeStr;
-        if (changeMemory > 0) {
-            changeStr = String.format("📈 +%d MB", changeMemory / (1024 * 1024));
-        } else if (changeMemory < 0) {
-            changeStr = String.format("📉 %d MB", changeMemory / (1024 * 1024));
-        } else {
-            changeStr = "➡️ 0 MB";
+    /** {@code LOCAL_TARGET_COUNT} targets, all watching the local server. */
+    private static List<TargetSpec> localTargets() {
+        int count = Integer.parseInt(getOrElse("LOCAL_TARGET_COUNT", "1"));
+        if (count == 1) {
+            return Collections.singletonList(new TargetSpec("default", localServer.url(), "*:development.local-stand-in"));
         }
-        
-        System.out.printf("[%s] 💾 Memory: %d/%d MB (max: %d MB) %s%n", 
-            LocalDateTime.now().format(TIME_FORMAT), usedMB, totalMB, maxMB, changeStr);
-        
-        lastUsedMemory = usedMemory;
-        
-        // Force GC if memory usage is high
-        if (usedMemory > maxMemory * 0.8) {
-            System.out.println("🚨 High memory usage detected, forcing GC...");
-            System.gc();
+        List<TargetSpec> specs = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            specs.add(new TargetSpec("local-" + i, localServer.url(), "*:development.local-stand-in"));
         }
+        return specs;
     }
     
-    private static void compareClientsForDiscrepancies() {
-        // This method is called after delays to track persistent discrepancies
-        String timestamp = LocalDateTime.now().format(TIME_FORMAT);
-        System.out.println("\n[" + timestamp + "] === Checking for persistent discrepancies ===");
-        
-        // Use pre-created contexts to avoid allocations
-        
-        List<String> streamingToggles = streamingClient.more().getFeatureToggleNames();
-        List<String> pollingToggles = pollingClient.more().getFeatureToggleNames();
-        
-        Set<String> allToggles = new HashSet<>(streamingToggles);
-        allToggles.addAll(pollingToggles);
-        
-        System.out.println("Total feature toggles: " + allToggles.size());
-        System.out.println("Streaming toggles: " + streamingToggles.size());
-        System.out.println("Polling toggles: " + pollingToggles.size());
-        
-        boolean hasDiscrepancies = false;
-        List<String> currentDiscrepancies = new ArrayList<>(8); // Pre-size for typical case
-        long currentTime = System.currentTimeMillis();
-        
-        // Compare toggle lists
-        if (!streamingToggles.equals(pollingToggles)) {
-            Set<String> streamingSet = new HashSet<>(streamingToggles);
-            Set<String> pollingSet = new HashSet<>(pollingToggles);
-            
-            Set<String> onlyInStreaming = new HashSet<>(streamingSet);
-            onlyInStreaming.removeAll(pollingSet);
-            if (!onlyInStreaming.isEmpty()) {
-                String discrepancy = "Toggles only in streaming: " + onlyInStreaming;
-                if (isPersistentDiscrepancy("list-streaming", discrepancy, currentTime)) {
-                    hasDiscrepancies = true;
-                    currentDiscrepancies.add(discrepancy);
-                }
-            }
-            
-            Set<String> onlyInPolling = new HashSet<>(pollingSet);
-            onlyInPolling.removeAll(streamingSet);
-            if (!onlyInPolling.isEmpty()) {
-                String discrepancy = "Toggles only in polling: " + onlyInPolling;
-                if (isPersistentDiscrepancy("list-polling", discrepancy, currentTime)) {
-                    hasDiscrepancies = true;
-                    currentDiscrepancies.add(discrepancy);
-                }
+    static ComparisonTarget target(String name) {
+        for (ComparisonTarget target : targets) {
+            if (target.name.equals(name)) {
+                return target;
             }
         }
-        
-        // Compare isEnabled values and track persistent discrepancies
-        for (String toggle : allToggles) {
-            boolean streamingEnabled = streamingClient.isEnabled(toggle, STREAMING_CONTEXT);
-            boolean pollingEnabled = pollingClient.isEnabled(toggle, POLLING_CONTEXT);
-            
-            if (streamingEnabled != pollingEnabled) {
-                // Use StringBuilder for efficient string construction
-                StringBuilder sb = new StringBuilder(64);
-                sb.append("Toggle '").append(toggle)
-                  .append("': streaming=").append(streamingEnabled)
-                  .append(", polling=").append(pollingEnabled);
-                String discrepancy = sb.toString();
-                
-                if (isPersistentDiscrepancy(toggle, discrepancy, currentTime)) {
-                    hasDiscrepancies = true;
-                    currentDiscrepancies.add(discrepancy);
-                }
-            } else {
-                // Remove from tracking if they match now
-                discrepancyTimestamps.remove(toggle);
-            }
+        return null;
+    }
+    
+    /** Client configuration shared by the app and the benchmarks, before subscribers are added. */
+    static UnleashConfig.Builder clientConfig(ClientMode mode, String apiUrl, String apiToken) {
+        UnleashConfig.Builder builder = UnleashConfig.builder()
+                .appName("comparison-app-" + mode.label)
+                .instanceId("comparison-" + mode.label + "-" + UUID.randomUUID())
+                .unleashAPI(apiUrl)
+                .customHttpHeader("Authorization", apiToken)
+                .synchronousFetchOnInitialisation(true);
+        if (mode == ClientMode.STREAMING) {
+            builder.experimentalStreamingMode();
+        } else {
+            builder.fetchTogglesInterval(POLLING_INTERVAL_MS / 1000); // Convert to seconds
         }
+        return builder;
+    }
+    
+    private static void startLocalServer() throws IOException {
+        int port = Integer.parseInt(getOrElse("LOCAL_SERVER_PORT", "4242"));
+        int toggleCount = Integer.parseInt(getOrElse("LOCAL_TOGGLE_COUNT", "200"));
+        double churnPerSecond = Double.parseDouble(getOrElse("LOCAL_CHURN_PER_SECOND", "1"));
+        long seed = Long.parseLong(getOrElse("LOCAL_SEED", "42"));
         
-        // Update UI with current values and persistent discrepancies only
-        synchronized (lastStreamingValues) {
-            lastStreamingValues.clear();
-            for (String toggle : allToggles) {
-                lastStreamingValues.put(toggle, streamingClient.isEnabled(toggle, STREAMING_CONTEXT));
-            }
+        localServer = new LocalUnleashServer(port);
+        String replayFile = getOrElse("REPLAY_FILE", "");
+        if (!replayFile.isEmpty()) {
+            // A recorded update sequence replaces the synthetic toggles and churn
+            double speed = Double.parseDouble(getOrElse("REPLAY_SPEED", "1"));
+            ClientMode source = ClientMode.valueOf(getOrElse("REPLAY_SOURCE", "streaming").toUpperCase(Locale.ROOT));
+            String target = getOrElse("REPLAY_TARGET", "");
+            localServer.start();
+            replayer = new UpdateReplayer(new File(replayFile), localServer, target.isEmpty() ? null : target, source, speed);
+            replayer.load();
+            System.out.println("Local Unleash server started on " + localServer.url()
+                + " replaying " + source.label + " updates from " + replayFile + " at " + speed + "x");
+            return;
         }
-        
-        synchronized (lastPollingValues) {
-            lastPollingValues.clear();
-            for (String toggle : allToggles) {
-                lastPollingValues.put(toggle, pollingClient.isEnabled(toggle, POLLING_CONTEXT));
+        localServer.seed(toggleCount, new Random(seed));
+        if (Boolean.parseBoolean(getOrElse("LOCAL_IMPRESSION_DATA", "false"))) {
+            // Every evaluation of these toggles then also dispatches an impression event
+            List<JsonObject> withImpressions = new ArrayList<>();
+            for (String name : localServer.featureNames()) {
+                JsonObject feature = localServer.feature(name).deepCopy();
+                feature.addProperty("impressionData", true);
+                withImpressions.add(feature);
             }
+            localServer.upsert(withImpressions);
         }
-        
-        synchronized (lastDiscrepancies) {
-            lastDiscrepancies.clear();
-            lastDiscrepancies.addAll(currentDiscrepancies);
+        localServer.start();
+        churnGenerator = new ToggleChurnGenerator(localServer, churnPerSecond, seed);
+        churnGenerator.start();
+        System.out.println("Local Unleash server started on " + localServer.url()
+            + " with " + toggleCount + " toggles, churn " + churnPerSecond + " changes/s");
+    }
+    
+    /** Opens the history log in {@code HISTORY_DIR}, or in its {@code subdirectory} when given. */
+    private static ComparisonHistoryLog openHistoryLog(String subdirectory) {
+        File dir = new File(getOrElse("HISTORY_DIR",
+            new File(System.getProperty("java.io.tmpdir"), "unleash-comparison-history").getPath()));
+        if (subdirectory != null) {
+            dir = new File(dir, subdirectory);
         }
-        lastComparisonTime = timestamp;
-        
-        comparisonCount.incrementAndGet();
-        
-        if (hasDiscrepancies) {
-            mismatchCount.incrementAndGet();
-            System.out.println("⚠️  PERSISTENT DISCREPANCIES FOUND:");
-            for (String discrepancy : currentDiscrepancies) {
-                System.out.println("  - " + discrepancy);
-            }
-        } else {
-            System.out.println("✅ No persistent discrepancies detected!");
+        int segmentBytes = Integer.parseInt(getOrElse("HISTORY_SEGMENT_MB", "16")) * 1024 * 1024;
+        int maxSegments = Integer.parseInt(getOrElse("HISTORY_MAX_SEGMENTS", "64"));
+        try {
+            ComparisonHistoryLog historyLog = new ComparisonHistoryLog(dir, segmentBytes, maxSegments);
+            System.out.println("Comparison history: " + dir + " (" + maxSegments + " x "
+                + segmentBytes / (1024 * 1024) + "MB segments)");
+            return historyLog;
+        } catch (IOException e) {
+            System.err.println("Comparison history disabled: " + e.getMessage());
+            return null;
         }
+    }
+    
+    private static void startMatrix(int users) {
+        int parallelism = Integer.parseInt(getOrElse("MATRIX_PARALLELISM",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+        boolean fullSweep = Boolean.parseBoolean(getOrElse("MATRIX_FULL_SWEEP", "true"));
+        int sampledToggles = Integer.parseInt(getOrElse("MATRIX_SAMPLE_TOGGLES", "64"));
+        long seed = Long.parseLong(getOrElse("MATRIX_SEED", "7"));
         
-        // Clean up old discrepancy timestamps and enforce size limit
-        discrepancyTimestamps.entrySet().removeIf(entry -> 
-            currentTime - entry.getValue() > DISCREPANCY_THRESHOLD_MS * 2);
-        
-        // Enforce max size limit to prevent unbounded growth
-        if (discrepancyTimestamps.size() > MAX_DISCREPANCY_ENTRIES) {
-            // Remove oldest entries if we exceed the limit
-            List<Map.Entry<String, Long>> entries = new ArrayList<>(discrepancyTimestamps.entrySet());
-            entries.sort(Map.Entry.comparingByValue()); // Sort by timestamp (oldest first)
-            int toRemove = discrepancyTimestamps.size() - MAX_DISCREPANCY_ENTRIES + 100; // Remove extra to avoid frequent cleanup
-            for (int i = 0; i < toRemove && i < entries.size(); i++) {
-                discrepancyTimestamps.remove(entries.get(i).getKey());
-            }
-            System.out.println("⚠️ Discrepancy map exceeded size limit, removed " + toRemove + " oldest entries");
-        }
+        matrix = new EvaluationMatrix(new SyntheticPopulation(users, seed), parallelism, fullSweep,
+            sampledToggles);
+        matrixScheduler = Executors.newSingleThreadScheduledExecutor();
+        matrixScheduler.scheduleWithFixedDelay(UnleashComparisonApp::runMatrixSweep,
+            POLLING_INTERVAL_MS, POLLING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        System.out.println("Evaluation matrix: " + users + " users, parallelism " + parallelism
+            + (fullSweep ? ", full sweep"
+                : ", toggles with differing definitions and " + sampledToggles + " sampled identical ones")
+            + (targets.size() > 1 ? ", target " + targets.get(0).name : ""));
     }
     
-    private static boolean isPersistentDiscrepancy(String key, String discrepancy, long currentTime) {
-        if (!discrepancyTimestamps.containsKey(key)) {
-            // Check size limit before adding new entries
-            if (discrepancyTimestamps.size() >= MAX_DISCREPANCY_ENTRIES) {
-                System.out.println("⚠️ Discrepancy tracking map at capacity, skipping new discrepancy: " + key);
-                return false;
-            }
-            // First time seeing this discrepancy
-            discrepancyTimestamps.put(key, currentTime);
-            System.out.println("New discrepancy detected (waiting for persistence): " + discrepancy);
-            return false;
-        } else {
-            // Check if it's been persistent long enough
-            long discrepancyAge = currentTime - discrepancyTimestamps.get(key);
-            if (discrepancyAge >= DISCREPANCY_THRESHOLD_MS) {
-                return true; // It's persistent, count it
-            } else {
-                System.out.println("Temporary discrepancy (age: " + discrepancyAge + "ms): " + discrepancy);
-                return false;
+    private static void startLoadDriver(int threads) {
+        double callsPerSecond = Double.parseDouble(getOrElse("LOAD_QPS", "0"));
+        int users = Integer.parseInt(getOrElse("LOAD_USERS", "256"));
+        long slackMs = Long.parseLong(getOrElse("LOAD_SLACK_MS", "1000"));
+        long seed = Long.parseLong(getOrElse("LOAD_SEED", "7"));
+        ComparisonTarget target = targets.get(0);
+        loadDriver = new LoadDriver(target, new SyntheticPopulation(users, seed), threads, callsPerSecond, slackMs);
+        target.watch(loadDriver);
+        loadDriver.start();
+    }
+    
+    private static void runMatrixSweep() {
+        try {
+            ComparisonTarget target = targets.get(0);
+            EvaluationMatrix.Result result = matrix.sweep(target.streamingClient, target.streamingDefinitions,
+                target.pollingClient, target.pollingDefinitions);
+            lastMatrixResult = result;
+            dashboardChanged();
+            String timestamp = LocalDateTime.now().format(TIME_FORMAT);
+            System.out.println("[" + timestamp + "] " + result.summary());
+            if (result.elapsedNanos > POLLING_INTERVAL_MS * 1_000_000) {
+                System.out.println("⚠️ Matrix sweep took longer than one polling interval");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            System.err.println("Matrix sweep failed: " + e.getMessage());
         }
     }
     
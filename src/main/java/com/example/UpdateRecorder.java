@@ -0,0 +1,77 @@
+package com.example;
+
+import io.getunleash.event.ClientFeaturesResponse;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Appends every payload the clients hand to their subscribers to a JSON-lines file, so that an
+ * update sequence can be replayed later through {@link UpdateReplayer}. Polling records hold the
+ * full {@code /client/features} body, streaming records the {@code {"events":[...]}} body of one
+ * SSE message; each line is
+ * {@code {"at":<epoch millis>,"target":"default","mode":"streaming","body":{...}}}.
+ *
+ * <p>The body is written as received rather than re-serialized, and every line is flushed, so a
+ * crashed run still leaves a readable recording up to its last update.
+ */
+final class UpdateRecorder implements AutoCloseable {
+    private final File file;
+    private final Writer writer;
+    private long records = 0; // guarded by this
+
+    UpdateRecorder(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create recording directory " + parent);
+        }
+        this.file = file;
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    /** Records {@code response} if it carried a new payload; unchanged polls have no body. */
+    void record(String target, ClientMode mode, long receivedAtMillis, ClientFeaturesResponse response) throws IOException {
+        if (response.getStatus() != ClientFeaturesResponse.Status.CHANGED) {
+            return;
+        }
+        Optional<String> body = response.getClientFeatures();
+        if (body.isPresent()) {
+            record(target, mode, receivedAtMillis, body.get());
+        }
+    }
+
+    /** @param target name of the comparison target, restricted to characters that need no escaping */
+    synchronized void record(String target, ClientMode mode, long atMillis, String body) throws IOException {
+        writer.write("{\"at\":");
+        writer.write(Long.toString(atMillis));
+        writer.write(",\"target\":\"");
+        writer.write(target);
+        writer.write("\",\"mode\":\"");
+        writer.write(mode.label);
+        writer.write("\",\"body\":");
+        // Line breaks can only be whitespace between JSON tokens, so they may be flattened
+        writer.write(body.indexOf('\n') < 0 && body.indexOf('\r') < 0 ? body : body.replace('\n', ' ').replace('\r', ' '));
+        writer.write("}\n");
+        writer.flush();
+        records++;
+    }
+
+    synchronized long records() {
+        return records;
+    }
+
+    File file() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
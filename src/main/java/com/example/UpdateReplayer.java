@@ -0,0 +1,224 @@
+package com.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a recording made by {@link UpdateRecorder} back through a {@link LocalUnleashServer},
+ * keeping the recorded spacing between updates divided by a speed factor, so an incident's exact
+ * update sequence can be reproduced and a long soak compressed into a short run.
+ *
+ * <p>Both clients see every update, so only the records of one mode are replayed: streaming
+ * records carry the individual deltas, polling records full snapshots that are published as the
+ * difference to what the server holds. A recording of several targets is replayed for one of
+ * them, by default the first one recorded. The server serves no segments, so segment events are
+ * counted and skipped. The file is read line by line as the replay progresses.
+ */
+final class UpdateReplayer {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private final File file;
+    private final LocalUnleashServer server;
+    private final ClientMode source;
+    private final double speed;
+    private final Thread thread;
+    private volatile String target; // null until the first record when not given
+
+    private BufferedReader reader;
+    private long firstAtMillis;
+    private long startNanos;
+    private volatile long applied = 0;
+    private volatile long skippedSegmentEvents = 0;
+    private volatile long maxLagMillis = 0;
+    private volatile boolean finished = false;
+
+    private static final class Record {
+        final long atMillis;
+        final JsonObject body;
+
+        Record(long atMillis, JsonObject body) {
+            this.atMillis = atMillis;
+            this.body = body;
+        }
+    }
+
+    /**
+     * @param target which target's records to replay, or null for the first one in the file
+     * @param speed  how many times faster than recorded to replay, e.g. 1, 10 or 100
+     */
+    UpdateReplayer(File file, LocalUnleashServer server, String target, ClientMode source, double speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Replay speed must be positive: " + speed);
+        }
+        this.file = file;
+        this.server = server;
+        this.target = target;
+        this.source = source;
+        this.speed = speed;
+        this.thread = new Thread(this::run, "update-replay");
+        this.thread.setDaemon(true);
+    }
+
+    /** Applies the first record, so clients started afterwards begin from the recorded state. */
+    void load() throws IOException {
+        reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+        Record first = next(reader);
+        if (first == null) {
+            reader.close();
+            throw new IOException("No " + source.label + " records" + (target == null ? "" : " of " + target) + " in " + file);
+        }
+        apply(first);
+        firstAtMillis = first.atMillis;
+    }
+
+    /** Replays the remaining records in the background, timed from now. */
+    void play() {
+        startNanos = System.nanoTime();
+        thread.start();
+    }
+
+    void stop() {
+        thread.interrupt();
+    }
+
+    boolean finished() {
+        return finished;
+    }
+
+    long applied() {
+        return applied;
+    }
+
+    /** How far behind the scheduled time the latest updates were applied at worst. */
+    long maxLagMillis() {
+        return maxLagMillis;
+    }
+
+    String summary() {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        return String.format("Replay of %s (%s %s records at %sx): %d applied in %.1fs, max lag %dms, %d segment events skipped%s",
+            file.getName(), target, source.label, speed, applied, elapsedMillis / 1000.0, maxLagMillis, skippedSegmentEvents,
+            finished ? ", finished" : "");
+    }
+
+    private void run() {
+        try (BufferedReader in = reader) {
+            Record record;
+            while ((record = next(in)) != null) {
+                long dueNanos = startNanos + (long) ((record.atMillis - firstAtMillis) * 1_000_000 / speed);
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } else {
+                    maxLagMillis = Math.max(maxLagMillis, TimeUnit.NANOSECONDS.toMillis(-waitNanos));
+                }
+                apply(record);
+            }
+            finished = true;
+            String timestamp = LocalDateTime.now().format(TIME_FORMAT);
+            System.out.println("[" + timestamp + "] " + summary());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Replay of " + file + " failed: " + e.getMessage());
+        }
+    }
+
+    /** The next record of the replayed mode, or null at the end of the file. */
+    private Record next(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            JsonObject json;
+            try {
+                json = JsonParser.parseString(line).getAsJsonObject();
+            } catch (JsonParseException | IllegalStateException e) {
+                // A recording cut off mid-line by a crash ends there
+                System.err.println("Skipping unreadable recording line: " + e.getMessage());
+                continue;
+            }
+            if (!source.label.equals(json.get("mode").getAsString())) {
+                continue;
+            }
+            // Recordings made before targets existed have a single, unnamed one
+            String recorded = json.has("target") ? json.get("target").getAsString() : "default";
+            if (target == null) {
+                target = recorded;
+            }
+            if (target.equals(recorded)) {
+                return new Record(json.get("at").getAsLong(), json.getAsJsonObject("body"));
+            }
+        }
+        return null;
+    }
+
+    private void apply(Record record) {
+        if (record.body.has("events")) {
+            applyEvents(record.body.getAsJsonArray("events"));
+        } else if (record.body.has("features")) {
+            server.replaceAll(features(record.body.getAsJsonArray("features")));
+        }
+        applied++;
+    }
+
+    /** Applies one SSE message's events in order, publishing runs of updates as one event each. */
+    private void applyEvents(JsonArray events) {
+        List<JsonObject> updated = new ArrayList<>();
+        for (JsonElement element : events) {
+            JsonObject event = element.getAsJsonObject();
+            String type = event.has("type") ? event.get("type").getAsString() : "";
+            switch (type) {
+                case "hydration":
+                    flush(updated);
+                    server.replaceAll(features(event.getAsJsonArray("features")));
+                    break;
+                case "feature-updated":
+                    updated.add(event.getAsJsonObject("feature"));
+                    break;
+                case "feature-removed":
+                    flush(updated);
+                    server.remove(Collections.singletonList(event.get("featureName").getAsString()));
+                    break;
+                case "segment-updated":
+                case "segment-removed":
+                    skippedSegmentEvents++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        flush(updated);
+    }
+
+    private void flush(List<JsonObject> updated) {
+        if (!updated.isEmpty()) {
+            server.upsert(new ArrayList<>(updated));
+            updated.clear();
+        }
+    }
+
+    private static List<JsonObject> features(JsonArray array) {
+        List<JsonObject> features = new ArrayList<>(array.size());
+        for (JsonElement element : array) {
+            features.add(element.getAsJsonObject());
+        }
+        return features;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** The /api/delta contract a client relies on to stay in sync across restarts. */
+class ComparisonApiTest {
+    private static final String EPOCH = "epoch-1";
+
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    private static final class FixedTarget implements UnleashComparisonApp.ComparisonApiHandler.Target {
+        private final String name;
+        private final ComparisonSnapshot snapshot;
+
+        FixedTarget(String name, ComparisonSnapshot snapshot) {
+            this.name = name;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public ComparisonSnapshot snapshot() {
+            return snapshot;
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final JsonObject json;
+
+        Response(int status, JsonObject json) {
+            this.status = status;
+            this.json = json;
+        }
+    }
+
+    @AfterEach
+    void stopServers() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    /** Version 10: "a" changed at 3, "b" at 8 and "c" was removed at 9. */
+    private static ComparisonSnapshot snapshot() {
+        int defined = ComparisonSnapshot.flag(ClientMode.STREAMING, false, true) | ComparisonSnapshot.flag(ClientMode.POLLING, false, true);
+        ComparisonSnapshot.Chunk chunk = new ComparisonSnapshot.Chunk(new String[] {"a", "b"},
+            new byte[] {(byte) (defined | ComparisonSnapshot.flag(ClientMode.STREAMING, true, true)), (byte) defined},
+            new long[] {3, 8});
+        ComparisonSnapshot.Toggles toggles = new ComparisonSnapshot.Toggles(new ComparisonSnapshot.Chunk[] {chunk},
+            new String[] {"c"}, new long[] {9}, 0);
+        return new ComparisonSnapshot(10, "12:00:00", Collections.emptyList(), toggles, 1, 0, 0, 0, 4, 2, 1);
+    }
+
+    private String start(UnleashComparisonApp.ComparisonApiHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/", handler);
+        server.start();
+        servers.add(server);
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private String startWithTargets() throws IOException {
+        return start(new UnleashComparisonApp.ComparisonApiHandler(EPOCH, Arrays.asList(
+            new FixedTarget("first", snapshot()), new FixedTarget("second", ComparisonSnapshot.EMPTY))));
+    }
+
+    @Test
+    void deltaWithTheCurrentEpochListsOnlyLaterChanges() throws IOException {
+        Response response = get(startWithTargets() + "/api/delta?epoch=" + EPOCH + "&sinceVersion=5");
+        assertEquals(200, response.status);
+        assertEquals(EPOCH, response.json.get("epoch").getAsString());
+        assertEquals(10, response.json.get("version").getAsLong());
+        assertEquals(5, response.json.get("sinceVersion").getAsLong());
+        assertFalse(response.json.get("full").getAsBoolean());
+        assertEquals(Collections.singletonList("b"), new ArrayList<>(response.json.getAsJsonObject("toggles").keySet()));
+        assertEquals(Collections.singletonList("c"), strings(response.json.getAsJsonArray("removed")));
+    }
+
+    @Test
+    void deltaFromAnotherEpochGetsEveryToggle() throws IOException {
+        // A client that last talked to a previous process: its version means nothing here
+        Response response = get(startWithTargets() + "/api/delta?epoch=restarted&sinceVersion=5");
+        assertEquals(200, response.status);
+        assertEquals(EPOCH, response.json.get("epoch").getAsString());
+        assertTrue(response.json.get("full").getAsBoolean());
+        assertFalse(response.json.has("sinceVersion"));
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(response.json.getAsJsonObject("toggles").keySet()));
+        assertFalse(response.json.has("removed")); // a full listing has nothing to remove
+    }
+
+    @Test
+    void deltaSinceAVersionAheadOfTheSnapshotGetsEveryToggle() throws IOException {
+        Response response = get(startWithTargets() + "/api/delta?epoch=" + EPOCH + "&sinceVersion=11");
+        assertEquals(200, response.status);
+        assertTrue(response.json.get("full").getAsBoolean());
+        assertEquals(10, response.json.get("version").getAsLong());
+        assertEquals(2, response.json.getAsJsonObject("toggles").size());
+    }
+
+    @Test
+    void deltaSinceTheCurrentVersionIsEmpty() throws IOException {
+        Response response = get(startWithTargets() + "/api/delta?epoch=" + EPOCH + "&sinceVersion=10");
+        assertFalse(response.json.get("full").getAsBoolean());
+        assertEquals(0, response.json.getAsJsonObject("toggles").size());
+        assertEquals(0, response.json.getAsJsonArray("removed").size());
+    }
+
+    @Test
+    void deltaRequiresAnEpochAndANumericVersion() throws IOException {
+        String url = startWithTargets();
+        Response missing = get(url + "/api/delta?sinceVersion=5");
+        assertEquals(400, missing.status);
+        assertEquals(EPOCH, missing.json.get("epoch").getAsString()); // so the client can start over
+
+        assertEquals(400, get(url + "/api/delta?epoch=" + EPOCH + "&sinceVersion=five").status);
+        assertTrue(get(url + "/api/delta?epoch=" + EPOCH).json.get("full").getAsBoolean());
+    }
+
+    @Test
+    void unknownOrMissingTargetIsNotFound() throws IOException {
+        String url = startWithTargets();
+        assertEquals(404, get(url + "/api/delta?epoch=" + EPOCH + "&target=third").status);
+        Response second = get(url + "/api/snapshot?target=second");
+        assertEquals(200, second.status);
+        assertEquals("second", second.json.get("target").getAsString());
+
+        String empty = start(new UnleashComparisonApp.ComparisonApiHandler(EPOCH, Collections.emptyList()));
+        Response none = get(empty + "/api/delta?epoch=" + EPOCH + "&sinceVersion=0");
+        assertEquals(404, none.status);
+        assertEquals("No targets", none.json.get("error").getAsString());
+        assertEquals(404, get(empty + "/api/snapshot").status);
+    }
+
+    private static Response get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            int status = connection.getResponseCode();
+            try (InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+                String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                return new Response(status, JsonParser.parseString(body).getAsJsonObject());
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static List<String> strings(JsonArray array) {
+        List<String> strings = new ArrayList<>();
+        array.forEach(element -> strings.add(element.getAsString()));
+        return strings;
+    }
+}
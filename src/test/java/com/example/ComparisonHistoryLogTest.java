@@ -0,0 +1,169 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ComparisonHistoryLogTest {
+    private static final int BOTH_DEFINED = ComparisonHistoryLog.STREAMING_DEFINED | ComparisonHistoryLog.POLLING_DEFINED;
+    private static final int BOTH_ENABLED = BOTH_DEFINED | ComparisonHistoryLog.STREAMING_ENABLED | ComparisonHistoryLog.POLLING_ENABLED;
+    private static final int STREAMING_ONLY_ENABLED = BOTH_DEFINED | ComparisonHistoryLog.STREAMING_ENABLED
+        | ComparisonHistoryLog.MISMATCH | ComparisonHistoryLog.PERSISTENT;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void deltaThatOpensASegmentIsWrittenAsKeyframe() throws IOException {
+        try (ComparisonHistoryLog log = new ComparisonHistoryLog(dir, 512, 10)) {
+            assertTrue(log.needsKeyframe());
+            log.append(1_000, entries("a", BOTH_ENABLED, "b", BOTH_DEFINED, "c", BOTH_DEFINED), true);
+            log.append(2_000, entries("b", STREAMING_ONLY_ENABLED), false);
+            // Too big for what is left of the first segment
+            log.append(3_000, manyToggles("d", 40, "c", ComparisonHistoryLog.REMOVED), false);
+            log.append(4_000, entries("a", BOTH_DEFINED), false);
+        }
+
+        assertEverySegmentStartsWithKeyframe();
+        List<ComparisonHistoryLog.Cycle> cycles = readAll();
+        assertEquals(Arrays.asList(1_000L, 2_000L, 3_000L, 4_000L), timestamps(cycles));
+        assertTrue(cycles.get(0).keyframe);
+        assertFalse(cycles.get(1).keyframe);
+
+        ComparisonHistoryLog.Cycle widened = cycles.get(2);
+        assertTrue(widened.keyframe);
+        Map<String, Integer> flags = flags(widened);
+        assertEquals(42, flags.size()); // a, b and the 40 new toggles; c was removed
+        assertEquals(BOTH_ENABLED, flags.get("a"));
+        // Not listed, so no longer differing: only its values carry over
+        assertEquals(BOTH_DEFINED | ComparisonHistoryLog.STREAMING_ENABLED, flags.get("b"));
+        assertFalse(flags.containsKey("c"));
+        assertEquals(BOTH_DEFINED, flags.get("d-0"));
+
+        // Replaying from the first keyframe ends in the state the appends left
+        Map<String, Integer> state = new HashMap<>();
+        for (ComparisonHistoryLog.Cycle cycle : cycles) {
+            if (cycle.keyframe) {
+                state.clear();
+            }
+            for (ComparisonHistoryLog.Entry entry : cycle.entries) {
+                if (entry.has(ComparisonHistoryLog.REMOVED)) {
+                    state.remove(entry.toggle);
+                } else {
+                    state.put(entry.toggle, entry.flags & BOTH_ENABLED);
+                }
+            }
+        }
+        assertEquals(42, state.size());
+        assertEquals(BOTH_DEFINED, state.get("a"));
+        assertEquals(BOTH_DEFINED | ComparisonHistoryLog.STREAMING_ENABLED, state.get("b"));
+    }
+
+    @Test
+    void readStopsCleanlyAtTruncatedTailAfterRoll() throws IOException {
+        try (ComparisonHistoryLog log = new ComparisonHistoryLog(dir, 512, 10)) {
+            log.append(1_000, manyToggles("a", 30, null, 0), true);
+            log.append(2_000, manyToggles("b", 40, null, 0), false);
+            log.append(3_000, entries("b-1", STREAMING_ONLY_ENABLED), false);
+            log.append(4_000, entries("b-2", STREAMING_ONLY_ENABLED), false);
+        }
+        assertEverySegmentStartsWithKeyframe();
+        File[] segments = segments();
+        assertTrue(segments.length > 1);
+
+        // Cut into the last cycle record, as a crash mid-append would
+        File last = segments[segments.length - 1];
+        try (RandomAccessFile file = new RandomAccessFile(last, "rw")) {
+            file.setLength(file.length() - 4);
+        }
+
+        List<ComparisonHistoryLog.Cycle> cycles = readAll();
+        assertEquals(Arrays.asList(1_000L, 2_000L, 3_000L), timestamps(cycles));
+        assertTrue(cycles.get(1).keyframe);
+        assertEquals(70, cycles.get(1).entries.size());
+        assertEquals(STREAMING_ONLY_ENABLED, flags(cycles.get(2)).get("b-1"));
+    }
+
+    @Test
+    void readHonoursTimeRangeAcrossSegments() throws IOException {
+        try (ComparisonHistoryLog log = new ComparisonHistoryLog(dir, 512, 10)) {
+            log.append(1_000, manyToggles("a", 30, null, 0), true);
+            log.append(2_000, manyToggles("b", 40, null, 0), false);
+            log.append(3_000, entries("b-1", BOTH_ENABLED), false);
+        }
+        List<Long> seen = new ArrayList<>();
+        ComparisonHistoryLog.read(dir, 1_500, 2_500, cycle -> seen.add(cycle.timestampMillis));
+        assertEquals(Arrays.asList(2_000L), seen);
+    }
+
+    /** Segments are named after their first cycle's timestamp. */
+    private void assertEverySegmentStartsWithKeyframe() throws IOException {
+        for (File segment : segments()) {
+            String name = segment.getName();
+            long start = Long.parseLong(name.substring("history-".length(), name.length() - ".seg".length()));
+            List<ComparisonHistoryLog.Cycle> first = new ArrayList<>();
+            ComparisonHistoryLog.read(dir, start, start, first::add);
+            assertTrue(first.get(0).keyframe, name + " starts with a cycle that only lists changes");
+        }
+    }
+
+    private static List<ComparisonHistoryLog.Entry> entries(Object... toggleAndFlags) {
+        List<ComparisonHistoryLog.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < toggleAndFlags.length; i += 2) {
+            entries.add(new ComparisonHistoryLog.Entry((String) toggleAndFlags[i], (Integer) toggleAndFlags[i + 1]));
+        }
+        return entries;
+    }
+
+    /** {@code count} defined toggles named {@code prefix-i}, plus {@code extra} if not null. */
+    private static List<ComparisonHistoryLog.Entry> manyToggles(String prefix, int count, String extra, int extraFlags) {
+        List<ComparisonHistoryLog.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new ComparisonHistoryLog.Entry(prefix + "-" + i, BOTH_DEFINED));
+        }
+        if (extra != null) {
+            entries.add(new ComparisonHistoryLog.Entry(extra, extraFlags));
+        }
+        return entries;
+    }
+
+    private List<ComparisonHistoryLog.Cycle> readAll() throws IOException {
+        List<ComparisonHistoryLog.Cycle> cycles = new ArrayList<>();
+        ComparisonHistoryLog.read(dir, Long.MIN_VALUE, Long.MAX_VALUE, cycles::add);
+        return cycles;
+    }
+
+    private File[] segments() {
+        File[] segments = dir.listFiles((d, name) -> name.endsWith(".seg"));
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static List<Long> timestamps(List<ComparisonHistoryLog.Cycle> cycles) {
+        List<Long> timestamps = new ArrayList<>();
+        for (ComparisonHistoryLog.Cycle cycle : cycles) {
+            timestamps.add(cycle.timestampMillis);
+        }
+        return timestamps;
+    }
+
+    private static Map<String, Integer> flags(ComparisonHistoryLog.Cycle cycle) {
+        Map<String, Integer> flags = new HashMap<>();
+        for (ComparisonHistoryLog.Entry entry : cycle.entries) {
+            flags.put(entry.toggle, entry.flags);
+        }
+        return flags;
+    }
+}
@@ -0,0 +1,262 @@
+package com.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.getunleash.Unleash;
+import io.getunleash.UnleashContext;
+import io.getunleash.variant.Variant;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ComparisonSnapshotTest {
+
+    /** Both modes' clients and definitions, driven by feature events instead of a server. */
+    private static final class Harness {
+        final List<Map<String, Boolean>> held = List.of(new HashMap<>(), new HashMap<>());
+        final List<FeatureDefinitionTracker> definitions = List.of(new FeatureDefinitionTracker(), new FeatureDefinitionTracker());
+        final IncrementalComparator comparator;
+
+        Harness() {
+            UnleashContext context = UnleashContext.builder().build();
+            comparator = new IncrementalComparator(context, definitions.get(0), context, definitions.get(1));
+            for (ClientMode mode : ClientMode.values()) {
+                comparator.attach(mode, client(held.get(mode.ordinal())));
+            }
+        }
+
+        void set(ClientMode mode, String toggle, boolean enabled) {
+            held.get(mode.ordinal()).put(toggle, enabled);
+            JsonObject feature = new JsonObject();
+            feature.addProperty("name", toggle);
+            feature.addProperty("enabled", enabled);
+            feature.add("strategies", new JsonArray());
+            JsonObject event = new JsonObject();
+            event.addProperty("type", "feature-updated");
+            event.add("feature", feature);
+            apply(mode, event);
+        }
+
+        void remove(ClientMode mode, String toggle) {
+            held.get(mode.ordinal()).remove(toggle);
+            JsonObject event = new JsonObject();
+            event.addProperty("type", "feature-removed");
+            event.addProperty("featureName", toggle);
+            apply(mode, event);
+        }
+
+        private void apply(ClientMode mode, JsonObject event) {
+            JsonArray events = new JsonArray();
+            events.add(event);
+            JsonObject body = new JsonObject();
+            body.add("events", events);
+            comparator.markChanged(mode, definitions.get(mode.ordinal()).bootstrap(body.toString()).changes);
+        }
+
+        ComparisonSnapshot publish() {
+            comparator.refreshAll();
+            return comparator.snapshot("", Collections.emptyList(), 0, 0);
+        }
+
+        /** What a full listing must show: each mode's value, or null where it doesn't define the toggle. */
+        Map<String, String> expected() {
+            Map<String, String> states = new TreeMap<>();
+            Set<String> toggles = new HashSet<>(held.get(0).keySet());
+            toggles.addAll(held.get(1).keySet());
+            for (String toggle : toggles) {
+                states.put(toggle, held.get(0).get(toggle) + "/" + held.get(1).get(toggle));
+            }
+            return states;
+        }
+
+        private static Unleash client(Map<String, Boolean> held) {
+            return (Unleash) Proxy.newProxyInstance(Unleash.class.getClassLoader(), new Class<?>[] {Unleash.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isEnabled":
+                            return Boolean.TRUE.equals(held.get((String) args[0]));
+                        case "getVariant":
+                            return Variant.DISABLED_VARIANT;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        }
+    }
+
+    @Test
+    void deltasMatchBruteForceDiffOfFullListings() {
+        Random random = new Random(11);
+        Harness harness = new Harness();
+        List<ComparisonSnapshot> snapshots = new ArrayList<>();
+        List<Map<String, String>> listings = new ArrayList<>();
+        for (int round = 0; round < 100; round++) {
+            int kind = random.nextInt(10);
+            // Bursts of additions split chunks, bursts of removals fold them together
+            int changes = kind == 0 ? 700 : kind == 1 ? 400 : 1 + random.nextInt(20);
+            for (int i = 0; i < changes; i++) {
+                ClientMode mode = ClientMode.values()[random.nextInt(2)];
+                String toggle = "t-" + random.nextInt(3_000);
+                if (kind == 1 || random.nextInt(4) == 0) {
+                    harness.remove(mode, toggle);
+                } else {
+                    harness.set(mode, toggle, random.nextBoolean());
+                }
+            }
+            ComparisonSnapshot previous = snapshots.isEmpty() ? ComparisonSnapshot.EMPTY : snapshots.get(snapshots.size() - 1);
+            ComparisonSnapshot snapshot = harness.publish();
+            Map<String, String> listing = listing(snapshot.changesSince(-1));
+            assertEquals(harness.expected(), listing, "round " + round);
+            assertChunksWellFormed(snapshot);
+            if (changes == 1 && previous.toggles.chunks.length > 0) {
+                assertTrue(rebuiltChunks(previous, snapshot) <= 2, "round " + round + " rebuilt more than its neighbourhood");
+            }
+
+            for (int j = 0; j < snapshots.size(); j++) {
+                ComparisonSnapshot earlier = snapshots.get(j);
+                ComparisonSnapshot.StateChanges delta = snapshot.changesSince(earlier.version);
+                assertFalse(delta.full, "round " + round + " since " + earlier.version);
+                assertDeltaMatches(listings.get(j), listing, earlier.version, delta);
+            }
+            assertTrue(snapshot.changesSince(snapshot.version + 1).full);
+            assertTrue(snapshot.changesSince(snapshot.version).toggles.isEmpty());
+            snapshots.add(snapshot);
+            listings.add(listing);
+        }
+    }
+
+    @Test
+    void unchangedSnapshotSharesItsToggles() {
+        Harness harness = new Harness();
+        for (int i = 0; i < 2_000; i++) {
+            harness.set(ClientMode.STREAMING, String.format("t-%04d", i), true);
+        }
+        ComparisonSnapshot first = harness.publish();
+        assertSame(first.toggles, harness.publish().toggles);
+
+        harness.set(ClientMode.POLLING, "t-1000", true);
+        ComparisonSnapshot second = harness.publish();
+        assertEquals(first.toggles.chunks.length, second.toggles.chunks.length);
+        assertEquals(1, rebuiltChunks(first, second));
+        assertEquals(Collections.singletonList("t-1000"), names(second.changesSince(first.version)));
+    }
+
+    @Test
+    void deltasOlderThanTheKeptRemovalsListEverything() {
+        Harness harness = new Harness();
+        int toggles = 10_500; // past the 10,000 removals the comparator keeps
+        for (int i = 0; i < toggles; i++) {
+            harness.set(ClientMode.STREAMING, "t-" + i, false);
+        }
+        ComparisonSnapshot defined = harness.publish();
+        for (int i = 0; i < toggles; i++) {
+            harness.remove(ClientMode.STREAMING, "t-" + i);
+        }
+        ComparisonSnapshot removed = harness.publish();
+        long floor = removed.toggles.removedFloor;
+        assertTrue(floor > defined.version);
+
+        ComparisonSnapshot.StateChanges tooOld = removed.changesSince(defined.version);
+        assertTrue(tooOld.full);
+        assertTrue(tooOld.toggles.isEmpty());
+
+        ComparisonSnapshot.StateChanges kept = removed.changesSince(floor);
+        assertFalse(kept.full);
+        assertEquals(10_000, kept.toggles.size());
+        for (ComparisonSnapshot.ToggleState state : kept.toggles) {
+            assertTrue(state.removed);
+            assertTrue(state.version > floor);
+        }
+        assertEquals(1, removed.changesSince(removed.version - 1).toggles.size());
+    }
+
+    /** Applying the delta to the earlier listing gives the later one, and the delta lists nothing older. */
+    private static void assertDeltaMatches(Map<String, String> earlier, Map<String, String> later, long since,
+                                           ComparisonSnapshot.StateChanges delta) {
+        Map<String, String> applied = new HashMap<>(earlier);
+        Set<String> listed = new HashSet<>();
+        for (ComparisonSnapshot.ToggleState state : delta.toggles) {
+            assertTrue(state.version > since, state.toggle + " at " + state.version + " since " + since);
+            assertTrue(listed.add(state.toggle), state.toggle + " listed twice");
+            if (state.removed) {
+                assertFalse(later.containsKey(state.toggle), state.toggle + " listed as removed");
+                applied.remove(state.toggle);
+            } else {
+                applied.put(state.toggle, state.streaming + "/" + state.polling);
+            }
+        }
+        assertEquals(later, applied, "since " + since);
+
+        // Everything a brute-force diff finds must be in the delta
+        for (Map.Entry<String, String> entry : later.entrySet()) {
+            if (!entry.getValue().equals(earlier.get(entry.getKey()))) {
+                assertTrue(listed.contains(entry.getKey()), entry.getKey() + " changed but missing since " + since);
+            }
+        }
+        for (String toggle : earlier.keySet()) {
+            if (!later.containsKey(toggle)) {
+                assertTrue(listed.contains(toggle), toggle + " removed but missing since " + since);
+            }
+        }
+    }
+
+    private static void assertChunksWellFormed(ComparisonSnapshot snapshot) {
+        String last = null;
+        for (ComparisonSnapshot.Chunk chunk : snapshot.toggles.chunks) {
+            assertTrue(chunk.size() > 0 || snapshot.toggles.chunks.length == 1, "empty chunk");
+            assertTrue(chunk.size() <= 2 * ComparisonSnapshot.CHUNK_SIZE, "chunk of " + chunk.size());
+            long max = 0;
+            for (int i = 0; i < chunk.size(); i++) {
+                assertTrue(last == null || last.compareTo(chunk.toggles[i]) < 0, chunk.toggles[i] + " out of order");
+                last = chunk.toggles[i];
+                max = Math.max(max, chunk.versions[i]);
+            }
+            assertEquals(max, chunk.maxVersion);
+        }
+    }
+
+    /** Chunks of {@code later} that are not shared with {@code earlier}. */
+    private static int rebuiltChunks(ComparisonSnapshot earlier, ComparisonSnapshot later) {
+        Set<ComparisonSnapshot.Chunk> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+        Collections.addAll(shared, earlier.toggles.chunks);
+        int rebuilt = 0;
+        for (ComparisonSnapshot.Chunk chunk : later.toggles.chunks) {
+            if (!shared.contains(chunk)) {
+                rebuilt++;
+            }
+        }
+        return rebuilt;
+    }
+
+    private static Map<String, String> listing(ComparisonSnapshot.StateChanges full) {
+        assertTrue(full.full);
+        Map<String, String> states = new TreeMap<>();
+        for (ComparisonSnapshot.ToggleState state : full.toggles) {
+            states.put(state.toggle, state.streaming + "/" + state.polling);
+        }
+        return states;
+    }
+
+    private static List<String> names(ComparisonSnapshot.StateChanges changes) {
+        List<String> names = new ArrayList<>();
+        for (ComparisonSnapshot.ToggleState state : changes.toggles) {
+            names.add(state.toggle);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,22 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DashboardEscapingTest {
+
+    @Test
+    void escapesMarkupInPayloads() {
+        assertEquals("variant blue payload &lt;img src=x onerror=&quot;alert(&#39;x&#39;)&quot;&gt; &amp;c",
+            UnleashComparisonApp.escapeHtml("variant blue payload <img src=x onerror=\"alert('x')\"> &c"));
+    }
+
+    @Test
+    void returnsPlainTextAsIs() {
+        String toggle = "checkout.new-flow_2";
+        assertSame(toggle, UnleashComparisonApp.escapeHtml(toggle));
+        assertEquals("", UnleashComparisonApp.escapeHtml(""));
+    }
+}
@@ -0,0 +1,101 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiscrepancyTrackerTest {
+
+    @Test
+    void expiresAfterCascadingFromLevelOne() {
+        // 101 ticks of delay is past level 0, so the entry waits in level 1 until tick 128
+        DiscrepancyTracker tracker = new DiscrepancyTracker(100, 1, 4);
+        assertEquals(DiscrepancyTracker.NEW, tracker.observe("a", 30));
+        assertEquals(0, tracker.expire(127));
+        assertEquals(0, tracker.expire(128));
+        assertEquals(0, tracker.expire(130));
+        assertEquals(1, tracker.size());
+        assertEquals(1, tracker.expire(131));
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    void expiresAfterCascadingFromLevelTwo() {
+        DiscrepancyTracker tracker = new DiscrepancyTracker(5_000, 1, 4);
+        tracker.observe("a", 4_000);
+        assertEquals(0, tracker.expire(8_192)); // level 2 block boundary
+        assertEquals(0, tracker.expire(9_000));
+        assertEquals(1, tracker.expire(9_001));
+    }
+
+    @Test
+    void expiryBeyondTheWheelIsRescheduled() {
+        long idle = 20_000_000; // past the 2^24 ticks the four levels cover
+        DiscrepancyTracker tracker = new DiscrepancyTracker(idle, 1, 4);
+        tracker.observe("a", 0);
+        assertEquals(0, tracker.expire(idle));
+        assertEquals(1, tracker.expire(idle + 1));
+    }
+
+    @Test
+    void observingAgainPostponesExpiryAndKeepsFirstSeen() {
+        DiscrepancyTracker tracker = new DiscrepancyTracker(100, 10, 4);
+        tracker.observe("a", 1_000);
+        assertEquals(90, tracker.observe("a", 1_090));
+        assertEquals(0, tracker.expire(1_150));
+        assertEquals(150, tracker.observe("a", 1_150));
+        assertTrue(tracker.resolve("a"));
+        assertFalse(tracker.resolve("a"));
+        assertEquals(DiscrepancyTracker.NEW, tracker.observe("a", 1_160));
+        assertEquals(0, tracker.expiredCount());
+    }
+
+    @Test
+    void matchesAScanOverRandomObservations() {
+        long idle = 100;
+        long idleTicks = idle + 1; // with 1ms ticks: the idle time plus the partial current tick
+        Random random = new Random(42);
+        DiscrepancyTracker tracker = new DiscrepancyTracker(idle, 1, 4);
+        Map<String, Long> expiries = new HashMap<>();
+        Map<String, Long> firstSeen = new HashMap<>();
+        long now = 0;
+        long expired = 0;
+        for (int step = 0; step < 20_000; step++) {
+            // Mostly small steps, with the odd jump across a level 1 or level 2 block
+            now += random.nextInt(50) == 0 ? random.nextInt(10_000) : random.nextInt(40);
+            List<String> due = new ArrayList<>();
+            for (Iterator<Map.Entry<String, Long>> it = expiries.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Long> entry = it.next();
+                if (entry.getValue() <= now) {
+                    due.add(entry.getKey());
+                    it.remove();
+                }
+            }
+            firstSeen.keySet().removeAll(due);
+            expired += due.size();
+            assertEquals(due.size(), tracker.expire(now), "at " + now);
+
+            String key = "t-" + random.nextInt(200);
+            if (random.nextInt(10) == 0) {
+                assertEquals(expiries.remove(key) != null, tracker.resolve(key));
+                firstSeen.remove(key);
+            } else {
+                long seen = tracker.observe(key, now);
+                Long first = firstSeen.putIfAbsent(key, now);
+                assertEquals(first == null ? DiscrepancyTracker.NEW : now - first, seen, key + " at " + now);
+                expiries.put(key, now + idleTicks);
+            }
+            assertEquals(expiries.size(), tracker.size(), "at " + now);
+            assertEquals(expired, tracker.expiredCount(), "at " + now);
+        }
+    }
+}
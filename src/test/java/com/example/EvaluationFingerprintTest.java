@@ -0,0 +1,132 @@
+package com.example;
+
+import io.getunleash.variant.Payload;
+import io.getunleash.variant.Variant;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EvaluationFingerprintTest {
+    private static final List<Variant> VARIANTS = Arrays.asList(
+        null,
+        Variant.DISABLED_VARIANT,
+        new Variant("blue", (Payload) null, true, true),
+        new Variant("blue", new Payload("string", "a"), true, true),
+        new Variant("blue", new Payload("string", "b"), true, true),
+        new Variant("green", new Payload("json", "{}"), true, true));
+
+    @Test
+    void swappedResultsDiffer() {
+        EvaluationFingerprint fingerprint = new EvaluationFingerprint(4);
+        fingerprint.set(ClientMode.STREAMING, "a", true, null);
+        fingerprint.set(ClientMode.STREAMING, "b", false, null);
+        fingerprint.set(ClientMode.POLLING, "a", false, null);
+        fingerprint.set(ClientMode.POLLING, "b", true, null);
+        assertFalse(fingerprint.matches());
+        assertEquals(Arrays.asList("a", "b"), sorted(fingerprint.differing()));
+
+        fingerprint.set(ClientMode.POLLING, "a", true, null);
+        fingerprint.set(ClientMode.POLLING, "b", false, null);
+        assertTrue(fingerprint.matches());
+        assertEquals(Collections.emptyList(), fingerprint.differing());
+    }
+
+    @Test
+    void payloadOnlyDifferenceIsFound() {
+        EvaluationFingerprint fingerprint = new EvaluationFingerprint(4);
+        fingerprint.set(ClientMode.STREAMING, "a", true, VARIANTS.get(3));
+        fingerprint.set(ClientMode.POLLING, "a", true, VARIANTS.get(4));
+        assertEquals(Collections.singletonList("a"), fingerprint.differing());
+    }
+
+    @Test
+    void differingMatchesBruteForceDiff() {
+        Random random = new Random(7);
+        // Starts small so the trees grow, and clears free ids for reuse
+        EvaluationFingerprint fingerprint = new EvaluationFingerprint(4);
+        List<Map<String, Result>> models = Arrays.asList(new HashMap<>(), new HashMap<>());
+        for (int step = 0; step < 20_000; step++) {
+            ClientMode mode = ClientMode.values()[random.nextInt(2)];
+            String toggle = "t-" + random.nextInt(300);
+            if (random.nextInt(5) == 0) {
+                fingerprint.clear(mode, toggle);
+                models.get(mode.ordinal()).remove(toggle);
+            } else {
+                boolean enabled = random.nextBoolean();
+                Variant variant = VARIANTS.get(random.nextInt(VARIANTS.size()));
+                fingerprint.set(mode, toggle, enabled, variant);
+                models.get(mode.ordinal()).put(toggle, new Result(enabled, VARIANTS.indexOf(variant)));
+            }
+            if (step % 100 == 0 || step > 19_900) {
+                List<String> expected = bruteForceDiff(models.get(0), models.get(1));
+                assertEquals(expected, sorted(fingerprint.differing()), "step " + step);
+                assertEquals(expected.isEmpty(), fingerprint.matches(), "step " + step);
+            }
+        }
+
+        // Bring the modes back in line: the fingerprints must agree again
+        for (ClientMode mode : ClientMode.values()) {
+            for (String toggle : new ArrayList<>(models.get(mode.ordinal()).keySet())) {
+                fingerprint.clear(mode, toggle);
+            }
+        }
+        assertTrue(fingerprint.matches());
+        assertEquals(0, fingerprint.fingerprint(ClientMode.STREAMING));
+    }
+
+    private static List<String> bruteForceDiff(Map<String, Result> streaming, Map<String, Result> polling) {
+        Set<String> toggles = new HashSet<>(streaming.keySet());
+        toggles.addAll(polling.keySet());
+        List<String> differing = new ArrayList<>();
+        for (String toggle : toggles) {
+            if (!Objects.equals(streaming.get(toggle), polling.get(toggle))) {
+                differing.add(toggle);
+            }
+        }
+        return sorted(differing);
+    }
+
+    private static List<String> sorted(List<String> toggles) {
+        List<String> copy = new ArrayList<>(toggles);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    /** What the model keeps per toggle; variants compare by their index in {@link #VARIANTS}. */
+    private static final class Result {
+        final boolean enabled;
+        final int variant;
+
+        Result(boolean enabled, int variant) {
+            this.enabled = enabled;
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Result)) {
+                return false;
+            }
+            Result other = (Result) o;
+            return enabled == other.enabled && variant == other.variant;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Boolean.hashCode(enabled) + variant;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1, histogram.percentileMicros(0));
+        assertEquals(1, histogram.percentileMicros(1));
+        assertEquals(50, histogram.percentileMicros(50));
+        assertEquals(99, histogram.percentileMicros(99));
+        assertEquals(100, histogram.percentileMicros(100));
+        assertEquals(50.5, histogram.meanMicros());
+    }
+
+    @Test
+    void percentileReportsBucketUpperEdgeCappedAtMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(128); // first two-wide bucket: 128..129
+        histogram.record(1_000); // 1000..1007
+        assertEquals(129, histogram.percentileMicros(50));
+        assertEquals(1_000, histogram.percentileMicros(100)); // not 1007: nothing above the max
+
+        histogram.record(1_003);
+        assertEquals(1_003, histogram.percentileMicros(100));
+        histogram.record(127);
+        assertEquals(127, histogram.percentileMicros(25));
+    }
+
+    @Test
+    void extremesLandInTheEdgeBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.percentileMicros(50));
+        assertEquals(Long.MAX_VALUE, histogram.percentileMicros(100));
+        assertEquals(Long.MAX_VALUE, histogram.maxMicros());
+    }
+
+    @Test
+    void cumulativeCountsAtBucketEdges() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value : new long[] {99, 100, 127, 128, 129, 130, 999, 1_000, 1_007, 1_008}) {
+            histogram.record(value);
+        }
+        long[] bounds = {98, 99, 100, 127, 128, 129, 999, 1_000, 1_007, 1_008, 5_000};
+        // 128 counts 129 too, and 1000 counts up to 1007: a straddling bucket is counted below the bound
+        long[] expected = {0, 1, 2, 3, 5, 5, 7, 9, 9, 10, 10};
+        assertArrayEquals(expected, histogram.cumulativeCounts(bounds));
+        assertArrayEquals(new long[] {0, 0}, new LatencyHistogram().cumulativeCounts(new long[] {0, 1}));
+    }
+
+    @Test
+    void cumulativeCountsAreExactAtUpperEdgesAndWithinBucketWidthElsewhere() {
+        Random random = new Random(3);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[50_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(10_000_000));
+            histogram.record(values[i]);
+        }
+
+        // One less than a power of two always closes a bucket
+        long[] edges = new long[23];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = (1L << (i + 1)) - 1;
+        }
+        long[] counts = histogram.cumulativeCounts(edges);
+        for (int i = 0; i < edges.length; i++) {
+            assertEquals(atMost(values, edges[i]), counts[i], "le " + edges[i]);
+        }
+
+        long[] bounds = {500, 1_000, 2_500, 5_000, 10_000, 25_000, 100_000, 1_000_000};
+        counts = histogram.cumulativeCounts(bounds);
+        for (int i = 0; i < bounds.length; i++) {
+            long bound = bounds[i];
+            assertTrue(counts[i] >= atMost(values, bound), "le " + bound);
+            assertTrue(counts[i] <= atMost(values, bound + bound / 64), "le " + bound);
+        }
+    }
+
+    @Test
+    void addMergesCountsAndMax() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(20);
+        b.record(5_000);
+        a.add(b);
+        assertEquals(3, a.count());
+        assertEquals(5_030, a.sumMicros());
+        assertEquals(5_000, a.maxMicros());
+        assertEquals(20, a.percentileMicros(50));
+    }
+
+    private static long atMost(long[] values, long bound) {
+        long count = 0;
+        for (long value : values) {
+            if (value <= bound) {
+                count++;
+            }
+        }
+        return count;
+    }
+}